@@ -16,9 +16,30 @@
  */
 package com.apzda.cloud.wallet.autoconfig;
 
+import com.apzda.cloud.wallet.client.AsyncWalletService;
+import com.apzda.cloud.wallet.client.RoutingWalletService;
+import com.apzda.cloud.wallet.client.TradeBatcher;
+import com.apzda.cloud.wallet.client.WalletNodeProvider;
+import com.apzda.cloud.wallet.client.WalletServiceFactory;
+import com.apzda.cloud.wallet.proto.WalletService;
 import com.apzda.cloud.wallet.proto.WalletServiceGsvc;
+import lombok.val;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -27,6 +48,80 @@ import org.springframework.context.annotation.Import;
  **/
 @AutoConfiguration
 @Import({ WalletServiceGsvc.class })
+@EnableConfigurationProperties(WalletClientProperties.class)
 public class WalletAutoConfiguration {
 
+    /**
+     * 异步客户端线程池的bean名称，按名称注入，应用可以定义同名bean替换它
+     */
+    public static final String WALLET_CLIENT_EXECUTOR = "walletClientExecutor";
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.client.routing", name = "enabled", havingValue = "true")
+    static class RoutingConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        WalletNodeProvider walletNodeProvider(WalletClientProperties properties) {
+            val nodes = properties.getRouting().getNodes();
+            return () -> nodes;
+        }
+
+        @Bean
+        @Primary
+        RoutingWalletService routingWalletService(WalletNodeProvider walletNodeProvider,
+                ObjectProvider<WalletServiceFactory> walletServiceFactory, WalletClientProperties properties) {
+            // 路由需要直连各节点，没有工厂时启动失败而不是静默回退到不路由
+            val factory = walletServiceFactory.getIfAvailable();
+            if (factory == null) {
+                throw new IllegalStateException("apzda.cloud.wallet.client.routing.enabled is true but no "
+                        + WalletServiceFactory.class.getName() + " bean is defined");
+            }
+            val routing = properties.getRouting();
+            return new RoutingWalletService(walletNodeProvider, factory, routing.getVirtualNodes(),
+                    routing.getRefreshInterval());
+        }
+
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.client.async", name = "enabled", havingValue = "true")
+    static class AsyncConfiguration {
+
+        @Bean(WALLET_CLIENT_EXECUTOR)
+        @ConditionalOnMissingBean(name = WALLET_CLIENT_EXECUTOR)
+        ExecutorService walletClientExecutor(WalletClientProperties properties) {
+            val async = properties.getAsync();
+            val threads = Math.max(1, async.getThreads());
+            val counter = new AtomicInteger();
+            // 队列满时拒绝，异步调用以RejectedExecutionException失败，不占用调用方线程
+            return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, async.getQueueCapacity())), r -> {
+                        val thread = new Thread(r, "wallet-client-async-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        @Bean
+        @ConditionalOnProperty(prefix = "apzda.cloud.wallet.client.async.batch", name = "enabled",
+                havingValue = "true")
+        TradeBatcher tradeBatcher(WalletService walletService,
+                @Qualifier(WALLET_CLIENT_EXECUTOR) ExecutorService walletClientExecutor,
+                WalletClientProperties properties) {
+            val batch = properties.getAsync().getBatch();
+            return new TradeBatcher(walletService, walletClientExecutor, batch.getQueueCapacity(),
+                    batch.getMaxBatchSize(), batch.getMaxInFlight(), batch.getLinger(), batch.getEnqueueTimeout());
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        AsyncWalletService asyncWalletService(WalletService walletService,
+                @Qualifier(WALLET_CLIENT_EXECUTOR) ExecutorService walletClientExecutor,
+                ObjectProvider<TradeBatcher> tradeBatcher) {
+            return new AsyncWalletService(walletService, walletClientExecutor, tradeBatcher.getIfAvailable());
+        }
+
+    }
+
 }
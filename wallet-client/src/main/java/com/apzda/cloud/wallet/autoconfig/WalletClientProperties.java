@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.autoconfig;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@ConfigurationProperties(prefix = "apzda.cloud.wallet.client")
+@Data
+public class WalletClientProperties {
+
+    private RoutingConfig routing = new RoutingConfig();
+
+    private AsyncConfig async = new AsyncConfig();
+
+    @Data
+    public static final class RoutingConfig {
+
+        /**
+         * 是否按uid一致性哈希路由，需提供WalletServiceFactory(未提供时启动失败)
+         */
+        private boolean enabled = false;
+
+        /**
+         * 钱包服务节点，未提供WalletNodeProvider时使用
+         */
+        private List<String> nodes = new ArrayList<>();
+
+        /**
+         * 每个节点的虚拟节点数
+         */
+        private int virtualNodes = 160;
+
+        /**
+         * 刷新节点的间隔
+         */
+        private Duration refreshInterval = Duration.ofSeconds(10);
+
+    }
+
+    @Data
+    public static final class AsyncConfig {
+
+        /**
+         * 是否提供AsyncWalletService
+         */
+        private boolean enabled = false;
+
+        /**
+         * 调用线程数
+         */
+        private int threads = 16;
+
+        /**
+         * 等待调用的请求数上限，满时异步调用以RejectedExecutionException失败
+         */
+        private int queueCapacity = 1024;
+
+        private BatchConfig batch = new BatchConfig();
+
+    }
+
+    @Data
+    public static final class BatchConfig {
+
+        /**
+         * 是否合并单笔交易
+         */
+        private boolean enabled = false;
+
+        /**
+         * 等待合并的时间
+         */
+        private Duration linger = Duration.ofMillis(5);
+
+        /**
+         * 每批最多交易数，不超过服务端的max-batch-size
+         */
+        private int maxBatchSize = 200;
+
+        /**
+         * 等待合并的交易数上限
+         */
+        private int queueCapacity = 10000;
+
+        /**
+         * 同时在途的批次数
+         */
+        private int maxInFlight = 4;
+
+        /**
+         * 队列满时提交方最多等待的时间
+         */
+        private Duration enqueueTimeout = Duration.ofMillis(50);
+
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.client;
+
+import com.apzda.cloud.wallet.proto.*;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 异步钱包服务: 在线程池中调用{@link WalletService}，调用方无需占用请求线程等待.
+ * <p>
+ * 提供{@link TradeBatcher}时单笔交易经合并后以tradeBatch发出. 线程池拒绝时返回以
+ * {@link RejectedExecutionException}失败的future.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class AsyncWalletService {
+
+    private final WalletService walletService;
+
+    private final Executor executor;
+
+    private final TradeBatcher tradeBatcher;
+
+    public AsyncWalletService(@NonNull WalletService walletService, @NonNull Executor executor,
+            @Nullable TradeBatcher tradeBatcher) {
+        this.walletService = walletService;
+        this.executor = executor;
+        this.tradeBatcher = tradeBatcher;
+    }
+
+    @NonNull
+    public CompletableFuture<TransactionVO> trade(@NonNull TradeDTO request) {
+        if (tradeBatcher != null) {
+            return tradeBatcher.submit(request);
+        }
+        return call(() -> walletService.trade(request));
+    }
+
+    @NonNull
+    public CompletableFuture<TradeBatchRes> tradeBatch(@NonNull TradeBatchReq request) {
+        return call(() -> walletService.tradeBatch(request));
+    }
+
+    @NonNull
+    public CompletableFuture<WalletDTO> wallet(@NonNull WalletDTO request) {
+        return call(() -> walletService.wallet(request));
+    }
+
+    @NonNull
+    public CompletableFuture<WalletsRes> wallets(@NonNull WalletsReq request) {
+        return call(() -> walletService.wallets(request));
+    }
+
+    @NonNull
+    public CompletableFuture<HistoryRes> history(@NonNull HistoryReq request) {
+        return call(() -> walletService.history(request));
+    }
+
+    @NonNull
+    public CompletableFuture<BalanceAtRes> balanceAt(@NonNull BalanceAtReq request) {
+        return call(() -> walletService.balanceAt(request));
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, executor);
+        }
+        catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.client;
+
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * 一致性哈希环: 每个节点在环上放置若干虚拟节点，uid顺时针落到第一个虚拟节点所属的节点.
+ * <p>
+ * 增删节点时只有落在变化节点上的uid会迁移. 环不可变，节点变化时重建.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public final class ConsistentHashRing {
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    private final Set<String> nodes;
+
+    public ConsistentHashRing(@NonNull Collection<String> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        val replicas = Math.max(1, virtualNodes);
+        for (val node : this.nodes) {
+            // 每个MD5摘要提供4个位置(Ketama)
+            for (int i = 0; i < (replicas + 3) / 4; i++) {
+                val digest = md5(node + "#" + i);
+                for (int j = 0; j < 4 && i * 4 + j < replicas; j++) {
+                    ring.putIfAbsent(position(digest, j), node);
+                }
+            }
+        }
+    }
+
+    /**
+     * uid所属的节点.
+     * @throws IllegalStateException 环上没有节点
+     */
+    @NonNull
+    public String route(long uid) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("No wallet node available");
+        }
+        val entry = ring.ceilingEntry(hash(uid));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    @NonNull
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * 打散uid(MurmurHash3 fmix64)，取低32位作为环上的位置.
+     */
+    static long hash(long uid) {
+        var h = uid;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h & 0xffffffffL;
+    }
+
+    private static long position(byte[] digest, int n) {
+        return ((long) (digest[3 + n * 4] & 0xff) << 24) | ((long) (digest[2 + n * 4] & 0xff) << 16)
+                | ((long) (digest[1 + n * 4] & 0xff) << 8) | (digest[n * 4] & 0xff);
+    }
+
+    private static byte[] md5(String key) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
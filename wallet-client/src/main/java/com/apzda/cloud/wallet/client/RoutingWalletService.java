@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.client;
+
+import com.apzda.cloud.wallet.proto.*;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按uid一致性哈希路由的钱包服务: 同一用户的请求总是发往同一节点，服务端的钱包锁、缓存与组提交只在本节点生效.
+ * <p>
+ * 定期从{@link WalletNodeProvider}刷新节点，节点变化时重建哈希环；没有可用节点时保留原有的环.
+ * 批量请求按节点拆分后合并结果，不含uid的请求发往任一节点.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class RoutingWalletService implements WalletService, InitializingBean, DisposableBean {
+
+    private final WalletNodeProvider nodeProvider;
+
+    private final WalletServiceFactory serviceFactory;
+
+    private final int virtualNodes;
+
+    private final Duration refreshInterval;
+
+    private final Map<String, WalletService> clients = new ConcurrentHashMap<>();
+
+    private volatile ConsistentHashRing ring;
+
+    private ScheduledExecutorService scheduler;
+
+    public RoutingWalletService(@NonNull WalletNodeProvider nodeProvider, @NonNull WalletServiceFactory serviceFactory,
+            int virtualNodes, @NonNull Duration refreshInterval) {
+        this.nodeProvider = nodeProvider;
+        this.serviceFactory = serviceFactory;
+        this.virtualNodes = virtualNodes;
+        this.refreshInterval = refreshInterval;
+        this.ring = new ConsistentHashRing(Collections.emptyList(), virtualNodes);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        refresh();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            val thread = new Thread(r, "wallet-client-routing");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val delay = refreshInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (val node : new ArrayList<>(clients.keySet())) {
+            release(node);
+        }
+    }
+
+    /**
+     * 节点变化时重建哈希环，并释放已下线节点的客户端.
+     * @return 哈希环是否变化
+     */
+    public boolean refresh() {
+        val nodes = new TreeSet<>(nodeProvider.nodes());
+        if (nodes.isEmpty()) {
+            if (!ring.isEmpty()) {
+                log.warn("No wallet node available, keep routing to: {}", ring.nodes());
+            }
+            return false;
+        }
+        if (nodes.equals(ring.nodes())) {
+            return false;
+        }
+        log.info("Wallet nodes changed from {} to {}", ring.nodes(), nodes);
+        ring = new ConsistentHashRing(nodes, virtualNodes);
+        for (val node : new ArrayList<>(clients.keySet())) {
+            if (!nodes.contains(node)) {
+                release(node);
+            }
+        }
+        return true;
+    }
+
+    private void release(String node) {
+        val client = clients.remove(node);
+        if (client != null) {
+            try {
+                serviceFactory.release(node, client);
+            }
+            catch (Exception e) {
+                log.warn("Cannot release wallet client of node {}: {}", node, e.getMessage());
+            }
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        }
+        catch (Exception e) {
+            log.warn("Cannot refresh wallet nodes: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * uid所属的节点.
+     */
+    @NonNull
+    public String nodeOf(long uid) {
+        return ring.route(uid);
+    }
+
+    @Override
+    public TransactionVO trade(TradeDTO request) {
+        return clientOf(request.getUid()).trade(request);
+    }
+
+    @Override
+    public TradeBatchRes tradeBatch(TradeBatchReq request) {
+        val current = ring;
+        val groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < request.getTradesCount(); i++) {
+            groups.computeIfAbsent(current.route(request.getTrades(i).getUid()), node -> new ArrayList<>()).add(i);
+        }
+        if (groups.size() <= 1) {
+            return groups.isEmpty() ? TradeBatchRes.getDefaultInstance()
+                    : clientOf(groups.keySet().iterator().next()).tradeBatch(request);
+        }
+        // 各节点的结果按原始下标合并
+        val results = new TradeResult[request.getTradesCount()];
+        for (val group : groups.entrySet()) {
+            val indexes = group.getValue();
+            val builder = TradeBatchReq.newBuilder();
+            for (val index : indexes) {
+                builder.addTrades(request.getTrades(index));
+            }
+            val res = clientOf(group.getKey()).tradeBatch(builder.build());
+            for (val result : res.getResultsList()) {
+                val index = indexes.get(result.getIndex());
+                results[index] = result.toBuilder().setIndex(index).build();
+            }
+        }
+        return TradeBatchRes.newBuilder().addAllResults(Arrays.asList(results)).build();
+    }
+
+    @Override
+    public WalletDTO wallet(WalletDTO request) {
+        return clientOf(request.getUid()).wallet(request);
+    }
+
+    @Override
+    public WalletsRes wallets(WalletsReq request) {
+        val groups = split(request);
+        if (groups.size() <= 1) {
+            return anyClient(groups).wallets(request);
+        }
+        val builder = WalletsRes.newBuilder();
+        for (val group : groups.entrySet()) {
+            builder.addAllWallets(clientOf(group.getKey()).wallets(group.getValue()).getWalletsList());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Flux<WalletDTO> walletStream(WalletsReq request) {
+        val groups = split(request);
+        if (groups.size() <= 1) {
+            return anyClient(groups).walletStream(request);
+        }
+        return Flux.concat(groups.entrySet()
+            .stream()
+            .map(group -> clientOf(group.getKey()).walletStream(group.getValue()))
+            .toList());
+    }
+
+    @Override
+    public HistoryRes history(HistoryReq request) {
+        return clientOf(request.getUid()).history(request);
+    }
+
+    @Override
+    public BalanceAtRes balanceAt(BalanceAtReq request) {
+        return clientOf(request.getUid()).balanceAt(request);
+    }
+
+    @Override
+    public Flux<ExportRow> export(ExportReq request) {
+        return clientOf(ring.route(ThreadLocalRandom.current().nextLong())).export(request);
+    }
+
+    /**
+     * 按节点拆分uids.
+     */
+    private Map<String, WalletsReq> split(WalletsReq request) {
+        val current = ring;
+        val uids = new LinkedHashMap<String, List<Long>>();
+        for (val uid : request.getUidsList()) {
+            uids.computeIfAbsent(current.route(uid), node -> new ArrayList<>()).add(uid);
+        }
+        val groups = new LinkedHashMap<String, WalletsReq>();
+        for (val group : uids.entrySet()) {
+            groups.put(group.getKey(),
+                    request.toBuilder().clearUids().addAllUids(group.getValue()).build());
+        }
+        return groups;
+    }
+
+    private WalletService anyClient(Map<String, ?> groups) {
+        if (groups.isEmpty()) {
+            return clientOf(ring.route(ThreadLocalRandom.current().nextLong()));
+        }
+        return clientOf(groups.keySet().iterator().next());
+    }
+
+    private WalletService clientOf(long uid) {
+        return clientOf(ring.route(uid));
+    }
+
+    private WalletService clientOf(String node) {
+        return clients.computeIfAbsent(node, serviceFactory::create);
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.client;
+
+import com.apzda.cloud.wallet.proto.*;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * 交易合并器: 把linger内提交的交易合并成一次tradeBatch调用，按下标把结果分发给各自的future.
+ * <p>
+ * 队列有界，队列满时提交方最多等待enqueueTimeout，仍满则拒绝；同时在途的批次数不超过maxInFlight，
+ * 达到上限时合并线程停止取出交易，压力传导到队列. 重复提交的交易由服务端取回原交易返回，与单笔重试的语义一致.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class TradeBatcher implements AutoCloseable {
+
+    private final WalletService walletService;
+
+    private final Executor executor;
+
+    private final BlockingQueue<Pending> queue;
+
+    private final Semaphore inFlight;
+
+    private final int maxBatchSize;
+
+    private final Duration linger;
+
+    private final Duration enqueueTimeout;
+
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    public TradeBatcher(@NonNull WalletService walletService, @NonNull Executor executor, int queueCapacity,
+            int maxBatchSize, int maxInFlight, @NonNull Duration linger, @NonNull Duration enqueueTimeout) {
+        this.walletService = walletService;
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.linger = linger;
+        this.enqueueTimeout = enqueueTimeout;
+        this.dispatcher = new Thread(this::dispatch, "wallet-trade-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * 提交交易，队列满且等待超时时返回以{@link RejectedExecutionException}失败的future.
+     */
+    @NonNull
+    public CompletableFuture<TransactionVO> submit(@NonNull TradeDTO trade) {
+        val future = new CompletableFuture<TransactionVO>();
+        if (!running) {
+            future.completeExceptionally(new RejectedExecutionException("Trade batcher is closed"));
+            return future;
+        }
+        try {
+            if (!queue.offer(new Pending(trade, future), enqueueTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException("Trade queue is full"));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 停止接收交易，等待已提交的交易发出后退出.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            dispatcher.join(Math.max(1000, linger.toMillis() * 10));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dispatcher.interrupt();
+        val left = new ArrayList<Pending>();
+        queue.drainTo(left);
+        fail(left, new RejectedExecutionException("Trade batcher is closed"));
+    }
+
+    private void dispatch() {
+        while (running || !queue.isEmpty()) {
+            try {
+                val first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                val batch = new ArrayList<Pending>(maxBatchSize);
+                batch.add(first);
+                val deadline = System.nanoTime() + linger.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    val remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    val next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                inFlight.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            send(batch);
+                        }
+                        finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    fail(batch, e);
+                }
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void send(@NonNull List<Pending> batch) {
+        TradeBatchRes res;
+        try {
+            val builder = TradeBatchReq.newBuilder();
+            for (val pending : batch) {
+                builder.addTrades(pending.trade());
+            }
+            res = walletService.tradeBatch(builder.build());
+        }
+        catch (Exception e) {
+            log.warn("Batch trade of {} trades failed: {}", batch.size(), e.getMessage());
+            fail(batch, e);
+            return;
+        }
+
+        val results = new TradeResult[batch.size()];
+        for (val result : res.getResultsList()) {
+            if (result.getIndex() < results.length) {
+                results[result.getIndex()] = result;
+            }
+        }
+        for (int i = 0; i < results.length; i++) {
+            val pending = batch.get(i);
+            val result = results[i];
+            if (result == null) {
+                pending.future().completeExceptionally(new IllegalStateException("No result of trade " + i));
+            }
+            else if (result.getErrCode() == 0 && result.hasTransaction()) {
+                pending.future().complete(result.getTransaction());
+            }
+            else {
+                pending.future()
+                    .completeExceptionally(new TradeFailedException(result.getErrCode(), result.getErrMsg()));
+            }
+        }
+    }
+
+    private static void fail(@NonNull List<Pending> batch, @NonNull Throwable e) {
+        for (val pending : batch) {
+            pending.future().completeExceptionally(e);
+        }
+    }
+
+    private record Pending(TradeDTO trade, CompletableFuture<TransactionVO> future) {
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.client;
+
+import org.springframework.lang.NonNull;
+
+import java.util.Collection;
+
+/**
+ * 钱包服务节点来源: 默认使用配置的节点，可以基于服务发现实现.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@FunctionalInterface
+public interface WalletNodeProvider {
+
+    /**
+     * 当前可用的节点，定期调用，节点变化时重建哈希环.
+     */
+    @NonNull
+    Collection<String> nodes();
+
+}
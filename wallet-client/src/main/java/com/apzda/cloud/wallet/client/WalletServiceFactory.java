@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.client;
+
+import com.apzda.cloud.wallet.proto.WalletService;
+import org.springframework.lang.NonNull;
+
+/**
+ * 创建直连指定节点的钱包服务客户端.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@FunctionalInterface
+public interface WalletServiceFactory {
+
+    /**
+     * @param node {@link WalletNodeProvider}提供的节点
+     */
+    @NonNull
+    WalletService create(@NonNull String node);
+
+    /**
+     * 节点下线后释放它的客户端，默认在客户端实现{@link AutoCloseable}时关闭它.
+     * @param node 已下线的节点
+     * @param client {@link #create(String)}创建的客户端
+     */
+    default void release(@NonNull String node, @NonNull WalletService client) throws Exception {
+        if (client instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.apzda.cloud.wallet.client;
+
+import com.apzda.cloud.wallet.proto.TradeBatchReq;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class AsyncWalletServiceTest {
+
+    @Test
+    void saturated_executor_should_fail_the_future_instead_of_running_on_caller() throws Exception {
+        // given: 一个线程被阻塞，队列只能容纳一个请求
+        val service = new TradeBatcherTest.FakeWalletService();
+        service.blocker = new CountDownLatch(1);
+        val executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1),
+                new ThreadPoolExecutor.AbortPolicy());
+        val async = new AsyncWalletService(service, executor, null);
+        val request = TradeBatchReq.newBuilder().addTrades(TradeDTO.newBuilder().setUid(1L).setBizId("a")).build();
+
+        try {
+            // when
+            val running = async.tradeBatch(request);
+            val queued = async.tradeBatch(request);
+            val rejected = async.tradeBatch(request);
+
+            // then
+            assertThat(rejected).isCompletedExceptionally();
+            assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+            service.blocker.countDown();
+            assertThat(running.get(5, TimeUnit.SECONDS).getResultsCount()).isEqualTo(1);
+            assertThat(queued.get(5, TimeUnit.SECONDS).getResultsCount()).isEqualTo(1);
+        }
+        finally {
+            service.blocker.countDown();
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.apzda.cloud.wallet.client;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class ConsistentHashRingTest {
+
+    private static final int USERS = 100000;
+
+    @Test
+    void uids_should_be_spread_evenly_and_routed_stably() {
+        // given
+        val ring = new ConsistentHashRing(List.of("node-a", "node-b", "node-c", "node-d"), 160);
+        val same = new ConsistentHashRing(List.of("node-d", "node-c", "node-b", "node-a"), 160);
+        val counts = new HashMap<String, Integer>();
+
+        // when
+        for (long uid = 1; uid <= USERS; uid++) {
+            val node = ring.route(uid);
+            assertThat(same.route(uid)).isEqualTo(node);
+            counts.merge(node, 1, Integer::sum);
+        }
+
+        // then
+        assertThat(counts).hasSize(4);
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(USERS / 5, USERS * 3 / 10));
+    }
+
+    @Test
+    void only_uids_of_changed_node_should_move() {
+        // given
+        val ring = new ConsistentHashRing(List.of("node-a", "node-b", "node-c"), 160);
+        val grown = new ConsistentHashRing(List.of("node-a", "node-b", "node-c", "node-d"), 160);
+        val shrunk = new ConsistentHashRing(List.of("node-a", "node-c"), 160);
+        var moved = 0;
+
+        // when
+        for (long uid = 1; uid <= USERS; uid++) {
+            val node = ring.route(uid);
+            val added = grown.route(uid);
+            if (!added.equals(node)) {
+                assertThat(added).isEqualTo("node-d");
+                moved++;
+            }
+            if (!node.equals("node-b")) {
+                assertThat(shrunk.route(uid)).isEqualTo(node);
+            }
+        }
+
+        // then
+        assertThat(moved).isBetween(USERS / 5, USERS * 3 / 10);
+    }
+
+    @Test
+    void empty_ring_should_not_route() {
+        // given
+        val ring = new ConsistentHashRing(List.of(), 160);
+
+        // then
+        assertThat(ring.isEmpty()).isTrue();
+        assertThatThrownBy(() -> ring.route(1L)).isInstanceOf(IllegalStateException.class);
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.apzda.cloud.wallet.client;
+
+import com.apzda.cloud.wallet.proto.TradeBatchReq;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import com.apzda.cloud.wallet.proto.TradeResult;
+import com.apzda.cloud.wallet.proto.WalletService;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class RoutingWalletServiceTest {
+
+    static class ClosableWalletService extends TradeBatcherTest.FakeWalletService implements AutoCloseable {
+
+        volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+    }
+
+    static class Factory implements WalletServiceFactory {
+
+        final Map<String, ClosableWalletService> created = new ConcurrentHashMap<>();
+
+        @Override
+        public WalletService create(String node) {
+            return created.computeIfAbsent(node, n -> new ClosableWalletService());
+        }
+
+    }
+
+    @Test
+    void batch_should_be_split_by_node_and_merged_in_request_order() {
+        // given
+        val factory = new Factory();
+        val service = new RoutingWalletService(() -> List.of("a", "b", "c"), factory, 160, Duration.ofHours(1));
+        service.refresh();
+        val request = TradeBatchReq.newBuilder();
+        for (long uid = 1; uid <= 30; uid++) {
+            request.addTrades(TradeDTO.newBuilder().setUid(uid).setBizId(String.valueOf(uid)));
+        }
+
+        // when
+        val res = service.tradeBatch(request.build());
+
+        // then: 每个节点只收到路由到它的交易，结果下标与bizId都对应原始请求
+        assertThat(factory.created.size()).isGreaterThan(1);
+        assertThat(res.getResultsCount()).isEqualTo(30);
+        for (int i = 0; i < 30; i++) {
+            val result = res.getResults(i);
+            assertThat(result.getIndex()).isEqualTo(i);
+            assertThat(result.getTransaction().getBizId()).isEqualTo(String.valueOf(i + 1));
+        }
+        val batches = new ArrayList<Integer>();
+        factory.created.values().forEach(client -> batches.add(client.batches.get()));
+        assertThat(batches).containsOnly(1);
+        assertThat(res.getResultsList()).extracting(TradeResult::getIndex).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void clients_of_removed_nodes_should_be_released() {
+        // given
+        val nodes = new AtomicReference<>(List.of("a", "b"));
+        val factory = new Factory();
+        val service = new RoutingWalletService(nodes::get, factory, 160, Duration.ofHours(1));
+        service.refresh();
+        for (long uid = 1; uid <= 30; uid++) {
+            service.trade(TradeDTO.newBuilder().setUid(uid).setBizId(String.valueOf(uid)).build());
+        }
+        val a = factory.created.get("a");
+        val b = factory.created.get("b");
+
+        // when
+        nodes.set(List.of("a"));
+        val changed = service.refresh();
+
+        // then
+        assertThat(changed).isTrue();
+        assertThat(a.closed).isFalse();
+        assertThat(b.closed).isTrue();
+
+        // when
+        service.destroy();
+
+        // then
+        assertThat(a.closed).isTrue();
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.apzda.cloud.wallet.client;
+
+import com.apzda.cloud.wallet.proto.*;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class TradeBatcherTest {
+
+    @Test
+    void trades_within_linger_should_be_coalesced() throws Exception {
+        // given
+        val service = new FakeWalletService();
+        val executor = Executors.newFixedThreadPool(4);
+        val futures = new ArrayList<CompletableFuture<TransactionVO>>();
+
+        // when
+        try (val batcher = new TradeBatcher(service, executor, 1000, 50, 2, Duration.ofMillis(50),
+                Duration.ofMillis(50))) {
+            for (int i = 0; i < 100; i++) {
+                futures.add(batcher.submit(trade(String.valueOf(i))));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // then
+        assertThat(service.batches.get()).isBetween(2, 10);
+        for (int i = 0; i < futures.size(); i++) {
+            assertThat(futures.get(i).get().getBizId()).isEqualTo(String.valueOf(i));
+        }
+    }
+
+    @Test
+    void failed_and_duplicate_trades_should_be_reported_one_by_one() throws Exception {
+        // given
+        val service = new FakeWalletService();
+        val executor = Executors.newSingleThreadExecutor();
+
+        // when
+        try (val batcher = new TradeBatcher(service, executor, 10, 10, 1, Duration.ofMillis(20),
+                Duration.ofMillis(50))) {
+            val failed = batcher.submit(trade("fail"));
+            val duplicate = batcher.submit(trade("dup"));
+
+            // then
+            assertThatThrownBy(() -> failed.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(TradeFailedException.class);
+            assertThatThrownBy(() -> duplicate.get(5, TimeUnit.SECONDS)).cause()
+                .isInstanceOfSatisfying(TradeFailedException.class,
+                        e -> assertThat(e.getErrCode()).isEqualTo(90314));
+            assertThat(service.trades.get()).isZero();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void full_queue_should_reject_trades() throws Exception {
+        // given
+        val service = new FakeWalletService();
+        service.blocker = new CountDownLatch(1);
+        val executor = Executors.newSingleThreadExecutor();
+
+        // when
+        try (val batcher = new TradeBatcher(service, executor, 1, 1, 1, Duration.ZERO, Duration.ofMillis(10))) {
+            val rejected = new ArrayList<CompletableFuture<TransactionVO>>();
+            for (int i = 0; i < 10; i++) {
+                val future = batcher.submit(trade(String.valueOf(i)));
+                if (future.isCompletedExceptionally()) {
+                    rejected.add(future);
+                }
+            }
+            service.blocker.countDown();
+
+            // then
+            assertThat(rejected).isNotEmpty();
+            assertThatThrownBy(() -> rejected.get(0).get()).hasCauseInstanceOf(RejectedExecutionException.class);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private static TradeDTO trade(String bizId) {
+        return TradeDTO.newBuilder()
+            .setUid(1L)
+            .setCurrency("CNY")
+            .setBiz("test")
+            .setBizSubject("deposit")
+            .setBizId(bizId)
+            .setAmount(1D)
+            .build();
+    }
+
+    static class FakeWalletService implements WalletService {
+
+        final AtomicInteger batches = new AtomicInteger();
+
+        final AtomicInteger trades = new AtomicInteger();
+
+        volatile CountDownLatch blocker;
+
+        @Override
+        public TransactionVO trade(TradeDTO request) {
+            trades.incrementAndGet();
+            return TransactionVO.newBuilder().setBizId(request.getBizId()).build();
+        }
+
+        @Override
+        public TradeBatchRes tradeBatch(TradeBatchReq request) {
+            batches.incrementAndGet();
+            if (blocker != null) {
+                try {
+                    blocker.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            val builder = TradeBatchRes.newBuilder();
+            // 倒序返回，结果按index分发
+            for (int i = request.getTradesCount() - 1; i >= 0; i--) {
+                val bizId = request.getTrades(i).getBizId();
+                val result = TradeResult.newBuilder().setIndex(i);
+                if (bizId.equals("fail")) {
+                    result.setErrCode(90309).setErrMsg("balance is not enough");
+                }
+                else if (bizId.equals("dup")) {
+                    result.setErrCode(90314).setErrMsg("duplicate trade");
+                }
+                else {
+                    result.setTransaction(TransactionVO.newBuilder().setBizId(bizId));
+                }
+                builder.addResults(result);
+            }
+            return builder.build();
+        }
+
+        @Override
+        public WalletDTO wallet(WalletDTO request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public WalletsRes wallets(WalletsReq request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Flux<WalletDTO> walletStream(WalletsReq request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public HistoryRes history(HistoryReq request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BalanceAtRes balanceAt(BalanceAtReq request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Flux<ExportRow> export(ExportReq request) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
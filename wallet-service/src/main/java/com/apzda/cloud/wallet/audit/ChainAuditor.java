@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.audit;
+
+import com.apzda.cloud.wallet.block.BlockHasher;
+import com.apzda.cloud.wallet.block.CheckpointSigner;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import com.apzda.cloud.wallet.domain.service.ChangeLogService;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import com.apzda.cloud.wallet.domain.service.WalletCheckpointService;
+import com.apzda.cloud.wallet.domain.service.WalletQueryService;
+import com.apzda.cloud.wallet.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 变更日志链审计: 用ForkJoin并行遍历全部钱包，按ID顺序重算每条日志的区块并校验parent_id与余额、冻结金额的连续性，
+ * 最后与钱包的链头比对.
+ * <p>
+ * 每个钱包校验通过的位置保存为检查点，之后只校验新增的日志；校验失败的钱包不推进检查点.
+ * 配置了钱包检查点时，尚无审计检查点的钱包从最近一个签名有效的钱包检查点开始.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class ChainAuditor implements InitializingBean, DisposableBean {
+
+    static final String JOB = "chain-audit";
+
+    static final String GENESIS = "00000000000000000000000000000000";
+
+    /**
+     * 单个任务直接处理的钱包数，超过时拆分
+     */
+    private static final int THRESHOLD = 16;
+
+    /**
+     * 最多保留的失败明细
+     */
+    private static final int MAX_FAILURES = 1000;
+
+    private final WalletQueryService walletQueryService;
+
+    private final ChangeLogService changeLogService;
+
+    private final JobCheckpointService checkpointService;
+
+    @Nullable
+    private final WalletCheckpointService walletCheckpointService;
+
+    @Nullable
+    private final CheckpointSigner signer;
+
+    private final int parallelism;
+
+    private final int pageSize;
+
+    private final int chunkSize;
+
+    private final Duration interval;
+
+    private ForkJoinPool pool;
+
+    private final JobScheduler scheduler;
+
+    public ChainAuditor(@NonNull WalletQueryService walletQueryService, @NonNull ChangeLogService changeLogService,
+            @NonNull JobCheckpointService checkpointService, int parallelism, int pageSize, int chunkSize,
+            @Nullable Duration interval) {
+        this(walletQueryService, changeLogService, checkpointService, null, null, parallelism, pageSize, chunkSize,
+                interval);
+    }
+
+    public ChainAuditor(@NonNull WalletQueryService walletQueryService, @NonNull ChangeLogService changeLogService,
+            @NonNull JobCheckpointService checkpointService, @Nullable WalletCheckpointService walletCheckpointService,
+            @Nullable CheckpointSigner signer, int parallelism, int pageSize, int chunkSize,
+            @Nullable Duration interval) {
+        this.walletQueryService = walletQueryService;
+        this.changeLogService = changeLogService;
+        this.checkpointService = checkpointService;
+        this.walletCheckpointService = walletCheckpointService;
+        this.signer = signer;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pageSize = Math.max(1, pageSize);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.interval = interval;
+        this.scheduler = new JobScheduler("wallet-chain-auditor", interval);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        pool = new ForkJoinPool(parallelism);
+        scheduler.start(this::audit);
+        log.info("Chain auditor started, parallelism: {}, interval: {}", parallelism, interval);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.stop();
+        if (pool != null) {
+            pool.shutdown();
+            if (!pool.awaitTermination(30, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        }
+        log.info("Chain auditor stopped");
+    }
+
+    /**
+     * 审计全部钱包.
+     */
+    @NonNull
+    public Report audit() {
+        val started = System.nanoTime();
+        val counters = new Counters();
+        var afterId = 0L;
+
+        while (scheduler.isRunning()) {
+            val wallets = walletQueryService.listWallets(afterId, pageSize);
+            if (wallets.isEmpty()) {
+                break;
+            }
+            val partKeys = new ArrayList<String>(wallets.size());
+            for (val wallet : wallets) {
+                partKeys.add(partKey(wallet));
+            }
+            val checkpoints = checkpointService.loadAll(JOB, partKeys);
+            pool.invoke(new AuditTask(wallets, 0, wallets.size(), checkpoints, counters));
+            afterId = wallets.get(wallets.size() - 1).getId();
+        }
+
+        val report = counters.report(Duration.ofNanos(System.nanoTime() - started));
+        if (report.failures() > 0) {
+            log.error("Chain audit finished: {}", report);
+        }
+        else {
+            log.info("Chain audit finished: {}", report);
+        }
+        return report;
+    }
+
+    /**
+     * 从检查点开始校验钱包的日志链.
+     */
+    void audit(@NonNull Wallet wallet, @Nullable String checkpoint, @NonNull Counters counters) {
+        val head = wallet.getLastLogId();
+        if (head == null || head <= 0) {
+            return;
+        }
+        val start = checkpoint == null ? start(wallet, head, counters) : Chain.parse(checkpoint);
+        val chain = start.copy();
+
+        while (chain.id < head) {
+            val logs = changeLogService.listChain(wallet.getUid(), wallet.getCurrency(), wallet.getShard(), chain.id,
+                    head, chunkSize);
+            if (logs.isEmpty()) {
+                break;
+            }
+            for (val changeLog : logs) {
+                val error = chain.append(changeLog);
+                if (error != null) {
+                    counters.fail(new Failure(wallet.getUid(), wallet.getCurrency(), changeLog.getId(), error));
+                    save(wallet, start, chain);
+                    return;
+                }
+                counters.logs.increment();
+            }
+        }
+
+        // 钱包快照与其链头日志在同一事务中提交，二者应一致
+        String error = null;
+        if (chain.id != head) {
+            error = "chain head(" + chain.id + ") != wallet head(" + head + ")";
+        }
+        else if (!Objects.equals(chain.balance, wallet.getBalance())
+                || !Objects.equals(chain.frozen, wallet.getFrozen()) || !Objects.equals(chain.block, wallet.getBlock())) {
+            error = "wallet(balance: " + wallet.getBalance() + ", frozen: " + wallet.getFrozen() + ", block: "
+                    + wallet.getBlock() + ") != chain head(balance: " + chain.balance + ", frozen: " + chain.frozen
+                    + ", block: " + chain.block + ")";
+        }
+        if (error != null) {
+            counters.fail(new Failure(wallet.getUid(), wallet.getCurrency(), head, error));
+        }
+        save(wallet, start, chain);
+    }
+
+    /**
+     * 最近一个签名有效且与日志一致的钱包检查点，没有时从创世区块开始.
+     */
+    private Chain start(Wallet wallet, long head, Counters counters) {
+        if (walletCheckpointService == null || signer == null) {
+            return Chain.genesis();
+        }
+        val walletCheckpoint = walletCheckpointService.nearest(wallet.getUid(), wallet.getCurrency(), wallet.getShard(),
+                head);
+        if (walletCheckpoint == null) {
+            return Chain.genesis();
+        }
+        if (!signer.verify(walletCheckpoint)) {
+            counters.fail(new Failure(wallet.getUid(), wallet.getCurrency(), walletCheckpoint.getLogId(),
+                    "checkpoint(" + walletCheckpoint.getId() + ") digest mismatch"));
+            return Chain.genesis();
+        }
+        // 签名只证明检查点未被篡改，还需确认它与所在位置的日志一致
+        val changeLog = changeLogService.getById(walletCheckpoint.getLogId());
+        if (changeLog == null || !Objects.equals(changeLog.getBlock(), walletCheckpoint.getBlock())
+                || !Objects.equals(changeLog.getBalance(), walletCheckpoint.getBalance())
+                || !Objects.equals(changeLog.getFrozen(), walletCheckpoint.getFrozen())) {
+            counters.fail(new Failure(wallet.getUid(), wallet.getCurrency(), walletCheckpoint.getLogId(),
+                    "checkpoint(" + walletCheckpoint.getId() + ") does not match its change log"));
+            return Chain.genesis();
+        }
+        return Chain.of(walletCheckpoint);
+    }
+
+    private void save(Wallet wallet, Chain start, Chain chain) {
+        if (chain.id > start.id) {
+            checkpointService.store(JOB, partKey(wallet), chain.format());
+        }
+    }
+
+    static String partKey(@NonNull Wallet wallet) {
+        // 子钱包各有一条日志链
+        val partKey = wallet.getUid() + ":" + wallet.getCurrency();
+        return wallet.getShard() == 0 ? partKey : partKey + ":" + wallet.getShard();
+    }
+
+    /**
+     * 已校验的链尾.
+     */
+    static final class Chain {
+
+        long id;
+
+        Long balance;
+
+        Long frozen;
+
+        String block;
+
+        static Chain genesis() {
+            val chain = new Chain();
+            chain.balance = 0L;
+            chain.frozen = 0L;
+            chain.block = GENESIS;
+            return chain;
+        }
+
+        static Chain of(@NonNull WalletCheckpoint checkpoint) {
+            val chain = new Chain();
+            chain.id = checkpoint.getLogId();
+            chain.balance = checkpoint.getBalance();
+            chain.frozen = checkpoint.getFrozen();
+            chain.block = checkpoint.getBlock();
+            return chain;
+        }
+
+        /**
+         * id,balance,frozen,block
+         */
+        static Chain parse(@NonNull String value) {
+            val parts = value.split(",");
+            val chain = new Chain();
+            chain.id = Long.parseLong(parts[0]);
+            chain.balance = Long.parseLong(parts[1]);
+            chain.frozen = Long.parseLong(parts[2]);
+            chain.block = parts[3];
+            return chain;
+        }
+
+        String format() {
+            return id + "," + balance + "," + frozen + "," + block;
+        }
+
+        Chain copy() {
+            return parse(format());
+        }
+
+        /**
+         * 校验并追加一条日志.
+         * @return 错误描述，校验通过时返回null
+         */
+        @Nullable
+        String append(@NonNull ChangeLog changeLog) {
+            if (changeLog.getParentId() == null || changeLog.getParentId() != id) {
+                return "parent_id(" + changeLog.getParentId() + ") != " + id;
+            }
+            if (!Objects.equals(changeLog.getPreBalance(), balance)) {
+                return "pre_balance(" + changeLog.getPreBalance() + ") != " + balance;
+            }
+            if (!Objects.equals(changeLog.getPreFrozen(), frozen)) {
+                return "pre_frozen(" + changeLog.getPreFrozen() + ") != " + frozen;
+            }
+            if (!BlockHasher.verify(changeLog, block)) {
+                return "block(" + changeLog.getBlock() + ") mismatch";
+            }
+            id = changeLog.getId();
+            balance = changeLog.getBalance();
+            frozen = changeLog.getFrozen();
+            block = changeLog.getBlock();
+            return null;
+        }
+
+    }
+
+    private final class AuditTask extends RecursiveAction {
+
+        private final List<Wallet> wallets;
+
+        private final int from;
+
+        private final int to;
+
+        private final Map<String, String> checkpoints;
+
+        private final Counters counters;
+
+        AuditTask(List<Wallet> wallets, int from, int to, Map<String, String> checkpoints, Counters counters) {
+            this.wallets = wallets;
+            this.from = from;
+            this.to = to;
+            this.checkpoints = checkpoints;
+            this.counters = counters;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                val mid = (from + to) >>> 1;
+                invokeAll(new AuditTask(wallets, from, mid, checkpoints, counters),
+                        new AuditTask(wallets, mid, to, checkpoints, counters));
+                return;
+            }
+            for (int i = from; i < to && scheduler.isRunning(); i++) {
+                val wallet = wallets.get(i);
+                try {
+                    audit(wallet, checkpoints.get(partKey(wallet)), counters);
+                }
+                catch (Exception e) {
+                    counters.fail(new Failure(wallet.getUid(), wallet.getCurrency(), null, e.getMessage()));
+                }
+                counters.wallets.increment();
+            }
+        }
+
+    }
+
+    static final class Counters {
+
+        final LongAdder wallets = new LongAdder();
+
+        final LongAdder logs = new LongAdder();
+
+        final LongAdder failures = new LongAdder();
+
+        final ConcurrentLinkedQueue<Failure> samples = new ConcurrentLinkedQueue<>();
+
+        void fail(Failure failure) {
+            log.error("Chain audit failed on wallet(uid: {}, currency: {}) at log({}): {}", failure.uid(),
+                    failure.currency(), failure.logId(), failure.reason());
+            failures.increment();
+            if (samples.size() < MAX_FAILURES) {
+                samples.add(failure);
+            }
+        }
+
+        Report report(Duration elapsed) {
+            return new Report(wallets.sum(), logs.sum(), failures.sum(), elapsed, List.copyOf(samples));
+        }
+
+    }
+
+    /**
+     * 校验失败的日志.
+     */
+    public record Failure(Long uid, String currency, Long logId, String reason) {
+
+    }
+
+    /**
+     * 审计结果.
+     */
+    public record Report(long wallets, long logs, long failures, Duration elapsed, List<Failure> samples) {
+
+        public double logsPerSecond() {
+            val millis = Math.max(1, elapsed.toMillis());
+            return logs * 1000d / millis;
+        }
+
+        @Override
+        public String toString() {
+            return "wallets=" + wallets + ", logs=" + logs + ", failures=" + failures + ", elapsed=" + elapsed
+                    + ", logs/s=" + String.format("%.1f", logsPerSecond());
+        }
+
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.block;
+
+import lombok.Getter;
+import org.springframework.lang.Nullable;
+
+/**
+ * 变更日志区块算法，每条日志记录自己的算法版本，同一条链可以切换算法.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Getter
+public enum BlockAlgorithm {
+
+    /**
+     * 旧版: 字段以逗号拼接成文本后计算MD5
+     */
+    MD5(1, "MD5"),
+    /**
+     * 字段按规范二进制编码后计算SHA-256，取前128位
+     */
+    SHA256(2, "SHA-256");
+
+    private final int version;
+
+    private final String digest;
+
+    BlockAlgorithm(int version, String digest) {
+        this.version = version;
+        this.digest = digest;
+    }
+
+    public static BlockAlgorithm of(@Nullable Integer version) {
+        if (version == null || version == 1) {
+            return MD5;
+        }
+        if (version == 2) {
+            return SHA256;
+        }
+        throw new IllegalStateException("Unknown block algorithm: " + version);
+    }
+
+}
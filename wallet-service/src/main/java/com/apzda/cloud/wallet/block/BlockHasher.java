@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.block;
+
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * 变更日志区块计算. 字段直接写入线程内复用的缓冲区与摘要对象，不拼接字符串.
+ * <p>
+ * MD5(旧版)的输入与原先拼接的文本逐字节一致，已有区块可继续校验； SHA256使用规范二进制编码(定长整数，带长度前缀的UTF-8字符串)，
+ * 不包含由框架填充的created/updated审计字段.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public final class BlockHasher {
+
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+    private static final byte[] LONG_MIN = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+
+    private BlockHasher() {
+    }
+
+    @NonNull
+    public static String hash(@NonNull ChangeLog changeLog, String preBlock) {
+        return hash(changeLog, preBlock, BlockAlgorithm.of(changeLog.getAlgorithm()), true);
+    }
+
+    /**
+     * 校验变更日志的区块.
+     */
+    public static boolean verify(@NonNull ChangeLog changeLog, String preBlock) {
+        val block = changeLog.getBlock();
+        if (block == null) {
+            return false;
+        }
+        val algorithm = BlockAlgorithm.of(changeLog.getAlgorithm());
+        if (block.equals(hash(changeLog, preBlock, algorithm, true))) {
+            return true;
+        }
+        // 旧版区块在写入前计算，当时created_at等审计字段尚未填充
+        return algorithm == BlockAlgorithm.MD5 && block.equals(hash(changeLog, preBlock, algorithm, false));
+    }
+
+    static String hash(ChangeLog changeLog, String preBlock, BlockAlgorithm algorithm, boolean withAudit) {
+        val encoder = ENCODER.get();
+        encoder.reset();
+        if (algorithm == BlockAlgorithm.MD5) {
+            encodeText(encoder, changeLog, preBlock, withAudit);
+        }
+        else {
+            encodeBinary(encoder, changeLog, preBlock);
+        }
+        return encoder.digest(algorithm);
+    }
+
+    private static void encodeText(Encoder e, ChangeLog c, String preBlock, boolean withAudit) {
+        // @formatter:off
+        e.text(preBlock).comma()
+            .text(withAudit ? c.getCreatedAt() : null).comma()
+            .text(withAudit ? c.getCreatedBy() : null).comma()
+            .text(withAudit ? c.getUpdatedAt() : null).comma()
+            .text(withAudit ? c.getUpdatedBy() : null).comma()
+            .text(c.getUid()).comma()
+            .text(c.getCurrency()).comma()
+            .text(c.getTransactionId()).comma()
+            .text(c.isOutlay()).comma()
+            .text(c.isNeedFrozen()).comma()
+            .text(c.isWithdrawAble()).comma()
+            .text(c.getBiz()).comma()
+            .text(c.getBizSubject()).comma()
+            .text(c.getBizId()).comma()
+            .text(c.getAmount()).comma()
+            .text(c.getPreBalance()).comma()
+            .text(c.getBalance()).comma()
+            .text(c.getPreFrozen()).comma()
+            .text(c.getFrozen()).comma()
+            .text(c.getExpiredAt()).comma()
+            .text(c.getParentId()).comma()
+            .text(c.getIp());
+        // @formatter:on
+    }
+
+    private static void encodeBinary(Encoder e, ChangeLog c, String preBlock) {
+        val flags = (c.isOutlay() ? 1 : 0) | (c.isNeedFrozen() ? 2 : 0) | (c.isWithdrawAble() ? 4 : 0);
+        // @formatter:off
+        e.bytes(preBlock)
+            .int64(c.getUid())
+            .bytes(c.getCurrency())
+            .int64(c.getTransactionId())
+            .int8(flags)
+            .bytes(c.getBiz())
+            .bytes(c.getBizSubject())
+            .bytes(c.getBizId())
+            .int64(c.getAmount())
+            .int64(c.getPreBalance())
+            .int64(c.getBalance())
+            .int64(c.getPreFrozen())
+            .int64(c.getFrozen())
+            .int64(c.getExpiredAt())
+            .int64(c.getParentId())
+            .bytes(c.getIp());
+        // @formatter:on
+    }
+
+    private static final class Encoder {
+
+        private final MessageDigest md5 = digest(BlockAlgorithm.MD5);
+
+        private final MessageDigest sha256 = digest(BlockAlgorithm.SHA256);
+
+        private final byte[] out = new byte[32];
+
+        private final char[] hex = new char[32];
+
+        private byte[] buf = new byte[512];
+
+        private int len;
+
+        void reset() {
+            len = 0;
+        }
+
+        Encoder comma() {
+            ensure(1);
+            buf[len++] = ',';
+            return this;
+        }
+
+        Encoder text(String value) {
+            if (value == null) {
+                return raw(NULL);
+            }
+            utf8(value);
+            return this;
+        }
+
+        Encoder text(Long value) {
+            if (value == null) {
+                return raw(NULL);
+            }
+            var v = value.longValue();
+            if (v == Long.MIN_VALUE) {
+                return raw(LONG_MIN);
+            }
+            ensure(20);
+            if (v < 0) {
+                buf[len++] = '-';
+                v = -v;
+            }
+            val start = len;
+            do {
+                buf[len++] = (byte) ('0' + (v % 10));
+                v /= 10;
+            }
+            while (v != 0);
+            for (int i = start, j = len - 1; i < j; i++, j--) {
+                val t = buf[i];
+                buf[i] = buf[j];
+                buf[j] = t;
+            }
+            return this;
+        }
+
+        Encoder text(boolean value) {
+            return raw(value ? TRUE : FALSE);
+        }
+
+        Encoder int8(int value) {
+            ensure(1);
+            buf[len++] = (byte) value;
+            return this;
+        }
+
+        Encoder int64(Long value) {
+            if (value == null) {
+                return int8(0);
+            }
+            ensure(9);
+            buf[len++] = 1;
+            val v = value.longValue();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[len++] = (byte) (v >>> shift);
+            }
+            return this;
+        }
+
+        Encoder bytes(String value) {
+            ensure(4);
+            val pos = len;
+            len += 4;
+            val size = value == null ? -1 : utf8(value);
+            buf[pos] = (byte) (size >>> 24);
+            buf[pos + 1] = (byte) (size >>> 16);
+            buf[pos + 2] = (byte) (size >>> 8);
+            buf[pos + 3] = (byte) size;
+            return this;
+        }
+
+        String digest(BlockAlgorithm algorithm) {
+            val md = algorithm == BlockAlgorithm.MD5 ? md5 : sha256;
+            md.reset();
+            md.update(buf, 0, len);
+            try {
+                md.digest(out, 0, md.getDigestLength());
+            }
+            catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            // 区块地址固定为32位十六进制(128位)
+            for (int i = 0; i < 16; i++) {
+                hex[i * 2] = HEX[(out[i] >> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX[out[i] & 0x0F];
+            }
+            return new String(hex);
+        }
+
+        private Encoder raw(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+            return this;
+        }
+
+        /**
+         * 与 {@link String#getBytes(java.nio.charset.Charset)} (UTF-8)的结果一致.
+         */
+        private int utf8(String value) {
+            val start = len;
+            val size = value.length();
+            for (int i = 0; i < size; i++) {
+                val c = value.charAt(i);
+                if (c < 0x80) {
+                    ensure(1);
+                    buf[len++] = (byte) c;
+                }
+                else if (c < 0x800) {
+                    ensure(2);
+                    buf[len++] = (byte) (0xC0 | (c >> 6));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    val cp = Character.toCodePoint(c, value.charAt(++i));
+                    ensure(4);
+                    buf[len++] = (byte) (0xF0 | (cp >> 18));
+                    buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (cp & 0x3F));
+                }
+                else if (Character.isSurrogate(c)) {
+                    ensure(1);
+                    buf[len++] = '?';
+                }
+                else {
+                    ensure(3);
+                    buf[len++] = (byte) (0xE0 | (c >> 12));
+                    buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return len - start;
+        }
+
+        private void ensure(int size) {
+            if (len + size > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + size));
+            }
+        }
+
+        private static MessageDigest digest(BlockAlgorithm algorithm) {
+            try {
+                return MessageDigest.getInstance(algorithm.getDigest());
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+    }
+
+}
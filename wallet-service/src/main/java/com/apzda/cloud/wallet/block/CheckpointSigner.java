@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.block;
+
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * 钱包检查点签名: 对(uid, currency, log_id, block, balance, frozen, withdrawal, outlay)的规范二进制编码
+ * 计算HMAC-SHA256；未配置密钥时退化为SHA-256，只能发现误改，不能防伪造.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public final class CheckpointSigner {
+
+    private static final String HMAC = "HmacSHA256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ThreadLocal<Mac> mac;
+
+    public CheckpointSigner(@Nullable String secret) {
+        if (StringUtils.hasText(secret)) {
+            val key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC);
+            this.mac = ThreadLocal.withInitial(() -> {
+                try {
+                    val mac = Mac.getInstance(HMAC);
+                    mac.init(key);
+                    return mac;
+                }
+                catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        else {
+            log.warn("No checkpoint secret configured, wallet checkpoints will be digested without a key");
+            this.mac = null;
+        }
+    }
+
+    @NonNull
+    public String sign(@NonNull WalletCheckpoint checkpoint) {
+        val data = encode(checkpoint);
+        final byte[] digest;
+        if (mac != null) {
+            digest = mac.get().doFinal(data);
+        }
+        else {
+            try {
+                digest = MessageDigest.getInstance("SHA-256").digest(data);
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        val hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[digest[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 校验检查点的摘要(常量时间比较).
+     */
+    public boolean verify(@NonNull WalletCheckpoint checkpoint) {
+        val digest = checkpoint.getDigest();
+        if (digest == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(digest.getBytes(StandardCharsets.US_ASCII),
+                sign(checkpoint).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static byte[] encode(WalletCheckpoint c) {
+        val bytes = new ByteArrayOutputStream(128);
+        try (val out = new DataOutputStream(bytes)) {
+            out.writeLong(c.getUid());
+            text(out, c.getCurrency());
+            out.writeLong(c.getLogId());
+            text(out, c.getBlock());
+            out.writeLong(c.getBalance());
+            out.writeLong(c.getFrozen());
+            out.writeLong(c.getWithdrawal());
+            out.writeLong(c.getOutlay());
+            if (c.getShard() != 0) {
+                // 主钱包的编码保持不变，已签名的检查点仍然有效
+                out.writeInt(c.getShard());
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void text(DataOutputStream out, String value) throws IOException {
+        val data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.cache;
+
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.event.WalletChangedEvent;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * 钱包余额两级缓存: 本地(Caffeine) + Redis，读穿透到数据库(不加锁、不创建钱包).
+ * <p>
+ * 钱包变更的事务提交后把Redis中的快照替换为带链头版本的墓碑，并通过频道通知各节点清除本地缓存.
+ * 读穿透只在Redis中仍是读取时看到的值(不存在或同一个墓碑)时才写入快照，读库期间提交的变更会替换墓碑，
+ * 使这次读到的旧快照不会写入Redis. 本地缓存有较短的过期时间，用于兜底通知丢失，需要强一致时直接读库.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class WalletCache implements MessageListener, InitializingBean, DisposableBean {
+
+    static final String TOMBSTONE = "~";
+
+    /**
+     * 值仍为ARGV[1](空串表示不存在)时写入ARGV[2]，过期时间ARGV[3]毫秒
+     */
+    private static final RedisScript<Long> SET_IF_UNCHANGED = new DefaultRedisScript<>(
+            "local cur = redis.call('GET', KEYS[1]) "
+                    + "if (cur == false and ARGV[1] == '') or cur == ARGV[1] then "
+                    + "redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3]) return 1 end return 0",
+            Long.class);
+
+    private final Function<WalletKey, Wallet> loader;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final Cache<WalletKey, Wallet> local;
+
+    private final Duration remoteTtl;
+
+    private final String keyPrefix;
+
+    private final String channel;
+
+    private RedisMessageListenerContainer listenerContainer;
+
+    public WalletCache(@NonNull Function<WalletKey, Wallet> loader, @Nullable StringRedisTemplate redisTemplate,
+            @NonNull Duration localTtl, long localMaxSize, @NonNull Duration remoteTtl, @NonNull String keyPrefix,
+            @NonNull String channel) {
+        this.loader = loader;
+        this.redisTemplate = redisTemplate;
+        this.local = Caffeine.newBuilder().expireAfterWrite(localTtl).maximumSize(localMaxSize).build();
+        this.remoteTtl = remoteTtl;
+        this.keyPrefix = keyPrefix;
+        this.channel = channel;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (redisTemplate != null && redisTemplate.getConnectionFactory() != null) {
+            listenerContainer = new RedisMessageListenerContainer();
+            listenerContainer.setConnectionFactory(redisTemplate.getConnectionFactory());
+            listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+            listenerContainer.afterPropertiesSet();
+            listenerContainer.start();
+        }
+        log.info("Wallet cache started, remote: {}", listenerContainer != null);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (listenerContainer != null) {
+            listenerContainer.destroy();
+        }
+    }
+
+    /**
+     * 读取钱包快照，钱包不存在时返回余额为0的钱包(id为null).
+     */
+    @NonNull
+    public Wallet get(@NonNull Long uid, @NonNull String currency) {
+        return local.get(new WalletKey(uid, currency), this::loadRemote);
+    }
+
+    /**
+     * 清除钱包缓存并通知其它节点.
+     */
+    public void evict(@NonNull Long uid, @NonNull String currency) {
+        evict(uid, currency, null);
+    }
+
+    /**
+     * 清除钱包缓存并通知其它节点.
+     * @param version 变更后的链头，为null时使用随机版本
+     */
+    public void evict(@NonNull Long uid, @NonNull String currency, @Nullable Long version) {
+        local.invalidate(new WalletKey(uid, currency));
+        if (redisTemplate != null) {
+            try {
+                val tombstone = TOMBSTONE + (version != null ? version : "r" + ThreadLocalRandom.current().nextLong());
+                redisTemplate.opsForValue().set(keyPrefix + uid + ":" + currency, tombstone, remoteTtl);
+                redisTemplate.convertAndSend(channel, uid + ":" + currency);
+            }
+            catch (Exception e) {
+                log.warn("Cannot evict wallet(uid: {}, currency: {}) from redis: {}", uid, currency, e.getMessage());
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onWalletChanged(@NonNull WalletChangedEvent event) {
+        evict(event.uid(), event.currency(), event.lastLogId());
+    }
+
+    @Override
+    public void onMessage(@NonNull Message message, byte[] pattern) {
+        val body = new String(message.getBody(), StandardCharsets.UTF_8);
+        val idx = body.indexOf(':');
+        if (idx > 0) {
+            local.invalidate(new WalletKey(Long.parseLong(body.substring(0, idx)), body.substring(idx + 1)));
+        }
+    }
+
+    private Wallet loadRemote(@NonNull WalletKey key) {
+        if (redisTemplate == null) {
+            return load(key);
+        }
+        val redisKey = keyPrefix + key.uid() + ":" + key.currency();
+        String cached;
+        try {
+            cached = redisTemplate.opsForValue().get(redisKey);
+            if (cached != null && !cached.startsWith(TOMBSTONE)) {
+                return decode(key, cached);
+            }
+        }
+        catch (Exception e) {
+            log.warn("Cannot read wallet(uid: {}, currency: {}) from redis: {}", key.uid(), key.currency(),
+                    e.getMessage());
+            return load(key);
+        }
+
+        val wallet = load(key);
+        try {
+            redisTemplate.execute(SET_IF_UNCHANGED, List.of(redisKey), cached == null ? "" : cached, encode(wallet),
+                    String.valueOf(remoteTtl.toMillis()));
+        }
+        catch (Exception e) {
+            log.warn("Cannot cache wallet(uid: {}, currency: {}) to redis: {}", key.uid(), key.currency(),
+                    e.getMessage());
+        }
+        return wallet;
+    }
+
+    private Wallet load(@NonNull WalletKey key) {
+        val wallet = loader.apply(key);
+        return wallet != null ? wallet : empty(key);
+    }
+
+    @NonNull
+    static Wallet empty(@NonNull WalletKey key) {
+        val wallet = new Wallet();
+        wallet.setUid(key.uid());
+        wallet.setCurrency(key.currency());
+        wallet.setAmount(0L);
+        wallet.setBalance(0L);
+        wallet.setWithdrawal(0L);
+        wallet.setFrozen(0L);
+        wallet.setOutlay(0L);
+        wallet.setLastLogId(0L);
+        return wallet;
+    }
+
+    /**
+     * id,amount,balance,withdrawal,frozen,outlay,locked,lastLogId
+     */
+    @NonNull
+    static String encode(@NonNull Wallet wallet) {
+        return (wallet.getId() == null ? "" : wallet.getId()) + "," + wallet.getAmount() + "," + wallet.getBalance()
+                + "," + wallet.getWithdrawal() + "," + wallet.getFrozen() + "," + wallet.getOutlay() + ","
+                + (wallet.isLocked() ? 1 : 0) + "," + wallet.getLastLogId();
+    }
+
+    @NonNull
+    static Wallet decode(@NonNull WalletKey key, @NonNull String value) {
+        val parts = value.split(",", -1);
+        val wallet = empty(key);
+        wallet.setId(parts[0].isEmpty() ? null : Long.parseLong(parts[0]));
+        wallet.setAmount(Long.parseLong(parts[1]));
+        wallet.setBalance(Long.parseLong(parts[2]));
+        wallet.setWithdrawal(Long.parseLong(parts[3]));
+        wallet.setFrozen(Long.parseLong(parts[4]));
+        wallet.setOutlay(Long.parseLong(parts[5]));
+        wallet.setLocked("1".equals(parts[6]));
+        wallet.setLastLogId("null".equals(parts[7]) ? null : Long.parseLong(parts[7]));
+        return wallet;
+    }
+
+}
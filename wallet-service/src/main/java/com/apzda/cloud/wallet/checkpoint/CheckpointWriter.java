@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.checkpoint;
+
+import com.apzda.cloud.wallet.block.CheckpointSigner;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import com.apzda.cloud.wallet.domain.service.ChangeLogService;
+import com.apzda.cloud.wallet.domain.service.WalletCheckpointService;
+import com.apzda.cloud.wallet.domain.service.WalletQueryService;
+import com.apzda.cloud.wallet.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * 钱包检查点写入: 定期按主键遍历钱包，为链头在上一个检查点之后有变化的钱包记录签名的链头快照.
+ * <p>
+ * 钱包行与其链头日志在同一事务中提交，正常情况下钱包行即是一致的(log_id, block, 余额)快照；签名前仍按主键加载链头日志，
+ * 区块、余额或冻结金额与钱包行不一致时不签名(钱包行可能被绕过交易流程修改)，留给审计发现.
+ * 多个实例同时运行时，同一日志处的检查点只保留先写入的一条.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class CheckpointWriter implements InitializingBean, DisposableBean {
+
+    private final WalletQueryService walletQueryService;
+
+    private final WalletCheckpointService checkpointService;
+
+    private final ChangeLogService changeLogService;
+
+    private final CheckpointSigner signer;
+
+    private final int pageSize;
+
+    private final Duration interval;
+
+    private final JobScheduler scheduler;
+
+    public CheckpointWriter(@NonNull WalletQueryService walletQueryService,
+            @NonNull WalletCheckpointService checkpointService, @NonNull ChangeLogService changeLogService,
+            @NonNull CheckpointSigner signer, int pageSize, @NonNull Duration interval) {
+        this.walletQueryService = walletQueryService;
+        this.checkpointService = checkpointService;
+        this.changeLogService = changeLogService;
+        this.signer = signer;
+        this.pageSize = Math.max(1, pageSize);
+        this.interval = interval;
+        this.scheduler = new JobScheduler("wallet-checkpoint-writer", interval);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        scheduler.start(this::write);
+        log.info("Checkpoint writer started, interval: {}", interval);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.stop();
+        log.info("Checkpoint writer stopped");
+    }
+
+    /**
+     * 执行一轮检查点写入.
+     * @return 本轮写入的检查点数
+     */
+    public int write() {
+        var total = 0;
+        var afterId = 0L;
+        while (scheduler.isRunning()) {
+            val wallets = walletQueryService.listWallets(afterId, pageSize);
+            if (wallets.isEmpty()) {
+                break;
+            }
+            val latest = checkpointService.latestLogIds(wallets);
+            val candidates = new ArrayList<Wallet>();
+            for (val wallet : wallets) {
+                val head = wallet.getLastLogId();
+                val logId = latest.get(WalletCheckpointService.key(wallet));
+                if (head != null && head > 0 && (logId == null || logId < head)) {
+                    candidates.add(wallet);
+                }
+            }
+            if (!candidates.isEmpty()) {
+                val heads = new HashMap<Long, ChangeLog>();
+                val headIds = candidates.stream().map(Wallet::getLastLogId).toList();
+                for (val changeLog : changeLogService.listByIds(headIds)) {
+                    heads.put(changeLog.getId(), changeLog);
+                }
+                val checkpoints = new ArrayList<WalletCheckpoint>();
+                for (val wallet : candidates) {
+                    val head = heads.get(wallet.getLastLogId());
+                    if (matches(wallet, head)) {
+                        checkpoints.add(checkpoint(wallet));
+                    }
+                    else {
+                        log.error("Wallet(uid: {}, currency: {}, shard: {}) does not match its head log({}), skip it",
+                                wallet.getUid(), wallet.getCurrency(), wallet.getShard(), wallet.getLastLogId());
+                    }
+                }
+                total += checkpointService.saveAbsent(checkpoints);
+            }
+            afterId = wallets.get(wallets.size() - 1).getId();
+        }
+        log.info("Checkpoint writer wrote {} checkpoints", total);
+        return total;
+    }
+
+    /**
+     * 钱包行与链头日志是否一致.
+     */
+    static boolean matches(@NonNull Wallet wallet, @Nullable ChangeLog head) {
+        return head != null && Objects.equals(head.getUid(), wallet.getUid())
+                && Objects.equals(head.getCurrency(), wallet.getCurrency()) && head.getShard() == wallet.getShard()
+                && Objects.equals(head.getBlock(), wallet.getBlock())
+                && Objects.equals(head.getBalance(), wallet.getBalance())
+                && Objects.equals(head.getFrozen(), wallet.getFrozen());
+    }
+
+    @NonNull
+    WalletCheckpoint checkpoint(@NonNull Wallet wallet) {
+        val checkpoint = new WalletCheckpoint();
+        checkpoint.setUid(wallet.getUid());
+        checkpoint.setCurrency(wallet.getCurrency());
+        checkpoint.setShard(wallet.getShard());
+        checkpoint.setLogId(wallet.getLastLogId());
+        checkpoint.setBlock(wallet.getBlock());
+        checkpoint.setBalance(wallet.getBalance());
+        checkpoint.setFrozen(wallet.getFrozen());
+        checkpoint.setWithdrawal(wallet.getWithdrawal());
+        checkpoint.setOutlay(wallet.getOutlay());
+        checkpoint.setDigest(signer.sign(checkpoint));
+        return checkpoint;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.config;
+
+import com.apzda.cloud.wallet.block.BlockAlgorithm;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.lock.LockMode;
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编译后的币种配置: 所有字段在编译时确定，创建后不可修改，可被任意线程共享读取.
+ *
+ * @param biz 业务线 -> 业务主题 -> 业务主题配置
+ * @param deferredCredits 是否有延迟入账的业务主题，有时支出前须先入账待入账收入
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public record CompiledCurrency(String name, double rate, short scale, short precision, boolean enabledExpire,
+        boolean withdrawAble, String format, String symbol, @NonNull BlockAlgorithm blockAlgorithm,
+        @NonNull LockMode lockMode, @NonNull Map<Long, Integer> shards,
+        @NonNull Map<String, Map<String, Subject>> biz, boolean deferredCredits) {
+
+    public CompiledCurrency {
+        shards = Map.copyOf(shards);
+        val copied = new HashMap<String, Map<String, Subject>>();
+        for (val entry : biz.entrySet()) {
+            copied.put(entry.getKey(), Map.copyOf(entry.getValue()));
+        }
+        biz = Map.copyOf(copied);
+    }
+
+    /**
+     * 用户钱包的子钱包数，未配置时为1.
+     */
+    public int shardsOf(long uid) {
+        val count = shards.get(uid);
+        return count == null || count < 1 ? 1 : count;
+    }
+
+    @NonNull
+    public Subject getBizSubject(String currency, @NonNull String biz, @NonNull String bizSubject) {
+        val subjects = this.biz.get(biz);
+        val subject = subjects == null ? null : subjects.get(bizSubject);
+        if (subject == null) {
+            WalletError.BIZ_SUBJECT_NOT_FOUND.emitBizError(currency, biz, bizSubject);
+        }
+        return subject;
+    }
+
+    /**
+     * 业务主题是否延迟入账，未配置的业务主题返回false.
+     */
+    public boolean isDeferred(@NonNull String biz, @NonNull String bizSubject) {
+        val subjects = this.biz.get(biz);
+        val subject = subjects == null ? null : subjects.get(bizSubject);
+        return subject != null && subject.deferred();
+    }
+
+    /**
+     * 编译后的业务主题配置.
+     *
+     * @param withdrawAble 该业务产生的金额是否可提现
+     * @param outlay 该业务可支出用户的余额
+     * @param needFrozen 支持冻结操作
+     * @param deferred 延迟入账
+     */
+    public record Subject(String name, boolean withdrawAble, boolean outlay, boolean needFrozen, boolean deferred) {
+
+    }
+
+}
@@ -17,15 +17,50 @@
 package com.apzda.cloud.wallet.config;
 
 import com.apzda.cloud.db.MybatisCustomizer;
+import com.apzda.cloud.wallet.audit.ChainAuditor;
+import com.apzda.cloud.wallet.block.CheckpointSigner;
+import com.apzda.cloud.wallet.cache.WalletCache;
+import com.apzda.cloud.wallet.checkpoint.CheckpointWriter;
+import com.apzda.cloud.wallet.credit.CreditApplier;
+import com.apzda.cloud.wallet.domain.service.ChangeLogService;
+import com.apzda.cloud.wallet.domain.service.CreditJournalService;
+import com.apzda.cloud.wallet.domain.service.DailyStatService;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import com.apzda.cloud.wallet.domain.service.OutboxService;
+import com.apzda.cloud.wallet.domain.service.OutlayService;
+import com.apzda.cloud.wallet.domain.service.WalletCheckpointService;
+import com.apzda.cloud.wallet.domain.service.WalletQueryService;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.engine.TradeEngine;
+import com.apzda.cloud.wallet.expire.ExpirySweeper;
+import com.apzda.cloud.wallet.lock.LockMode;
+import com.apzda.cloud.wallet.lock.WalletLockManager;
+import com.apzda.cloud.wallet.lock.WalletLockMetrics;
+import com.apzda.cloud.wallet.outbox.FileSink;
+import com.apzda.cloud.wallet.outbox.InProcessSink;
+import com.apzda.cloud.wallet.outbox.OutboxRelay;
+import com.apzda.cloud.wallet.outbox.OutboxSink;
+import com.apzda.cloud.wallet.stat.DailyStatAggregator;
 import lombok.val;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.lang.NonNull;
+import org.springframework.util.StringUtils;
 
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -38,38 +73,210 @@ import java.util.Set;
 @MapperScan(basePackages = { "com.apzda.cloud.wallet.domain.mapper" })
 public class WalletConfig implements ApplicationContextAware {
 
+    /**
+     * 编译后的币种配置快照，只读；刷新时整体替换.
+     */
+    private static volatile Map<String, CompiledCurrency> currencies;
+
     private static WalletProperties properties;
 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         properties = applicationContext.getBean(WalletProperties.class);
+        refresh();
     }
 
-    @NonNull
-    public static WalletProperties.CurrencyConfig getCurrencyConfig(String currency) {
+    /**
+     * 依据当前配置重新编译币种配置快照并原子替换.
+     */
+    public static void refresh() {
         if (properties == null) {
+            throw new IllegalStateException("Cannot refresh Currency Configuration before WalletConfig Bean initialized!");
+        }
+        currencies = compile(properties);
+    }
+
+    /**
+     * 币种是否已配置.
+     */
+    public static boolean hasCurrency(String currency) {
+        val snapshot = currencies;
+        return snapshot != null && snapshot.containsKey(currency);
+    }
+
+    @NonNull
+    public static CompiledCurrency getCurrencyConfig(String currency) {
+        val snapshot = currencies;
+        if (snapshot == null) {
             throw new IllegalStateException("Cannot get Currency Configuration before WalletConfig Bean initialized!");
         }
 
-        val currencyConfig = properties.getCurrency().get(currency);
+        val currencyConfig = snapshot.get(currency);
 
         if (currencyConfig == null) {
             throw new IllegalStateException("Configuration of '" + currency + "' not found, please configure it");
         }
 
-        if (currencyConfig.isEnabledExpire()) {
-            val defaultExpireSubject = new WalletProperties.BizSubject();
-            defaultExpireSubject.setName("expire");
-            val bizConfig = currencyConfig.getBiz().getOrDefault("system", new WalletProperties.BizConfig());
-            val expire = bizConfig.getSubjects().getOrDefault("expire", defaultExpireSubject);
-            expire.setOutlay(true);
-            expire.setNeedFrozen(false);
-            expire.setWithdrawAble(false);
-            bizConfig.getSubjects().put("expire", expire);
-            currencyConfig.getBiz().put("system", bizConfig);
+        return currencyConfig;
+    }
+
+    @NonNull
+    static Map<String, CompiledCurrency> compile(@NonNull WalletProperties properties) {
+        val compiled = new HashMap<String, CompiledCurrency>();
+        for (val entry : properties.getCurrency().entrySet()) {
+            val source = entry.getValue();
+            val expire = source.isEnabledExpire();
+            val biz = new HashMap<String, Map<String, CompiledCurrency.Subject>>();
+            var deferredCredits = false;
+            for (val bizConfig : source.getBiz().entrySet()) {
+                val subjects = new HashMap<String, CompiledCurrency.Subject>();
+                for (val subject : bizConfig.getValue().getSubjects().entrySet()) {
+                    val value = subject.getValue();
+                    // 支出与过期机制的收入明细都依赖同步写入日志链
+                    val deferred = value.isDeferred() && !value.isOutlay() && !expire;
+                    subjects.put(subject.getKey(), new CompiledCurrency.Subject(value.getName(),
+                            value.isWithdrawAble(), value.isOutlay(), value.isNeedFrozen(), deferred));
+                    deferredCredits |= deferred;
+                }
+                biz.put(bizConfig.getKey(), subjects);
+            }
+            if (expire) {
+                val system = biz.computeIfAbsent("system", key -> new HashMap<>());
+                val configured = system.get("expire");
+                system.put("expire", new CompiledCurrency.Subject(configured == null ? "expire" : configured.name(),
+                        false, true, false, false));
+            }
+
+            var lockMode = source.getLockMode();
+            if (expire || deferredCredits) {
+                // 过期机制的收入明细依赖钱包行锁串行化；支出前须在钱包锁内入账待入账收入
+                lockMode = LockMode.PESSIMISTIC;
+            }
+            // 收入明细按钱包记录，不能分散到子钱包
+            val shards = expire ? Map.<Long, Integer>of() : source.getShards();
+
+            compiled.put(entry.getKey(),
+                    new CompiledCurrency(source.getName(), source.getRate(), source.getScale(), source.getPrecision(),
+                            expire, source.isWithdrawAble(), source.getFormat(), source.getSymbol(),
+                            source.getBlockAlgorithm(), lockMode, shards, biz, deferredCredits));
+        }
+        return Collections.unmodifiableMap(compiled);
+    }
+
+    @Bean
+    WalletLockManager walletLockManager(WalletProperties properties) {
+        val lock = properties.getLock();
+        return new WalletLockManager(lock.getStripes(), lock.getTimeout());
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+    static class MetricsConfiguration {
+
+        @Bean
+        WalletLockMetrics walletLockMetrics(WalletLockManager walletLockManager) {
+            return new WalletLockMetrics(walletLockManager);
         }
 
-        return currencyConfig;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.engine", name = "enabled", havingValue = "true")
+    TradeEngine tradeEngine(WalletService walletService, WalletProperties properties) {
+        val engine = properties.getEngine();
+        val shards = engine.getShards() > 0 ? engine.getShards() : Runtime.getRuntime().availableProcessors();
+        return new TradeEngine(walletService, shards, engine.getQueueCapacity(), engine.getMaxBatchSize(),
+                engine.getOfferTimeout());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.expiry", name = "enabled", havingValue = "true")
+    ExpirySweeper expirySweeper(WalletService walletService, OutlayService outlayService,
+            JobCheckpointService jobCheckpointService, WalletProperties properties) {
+        val expiry = properties.getExpiry();
+        return new ExpirySweeper(walletService, outlayService, jobCheckpointService, expiry.getPartitions(),
+                expiry.getParallelism(), expiry.getPageSize(), expiry.getMaxLots(), expiry.getInterval());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.audit", name = "enabled", havingValue = "true")
+    ChainAuditor chainAuditor(WalletQueryService walletQueryService, ChangeLogService changeLogService,
+            JobCheckpointService jobCheckpointService, WalletCheckpointService walletCheckpointService,
+            CheckpointSigner checkpointSigner, WalletProperties properties) {
+        val audit = properties.getAudit();
+        if (audit.isFromCheckpoint()) {
+            return new ChainAuditor(walletQueryService, changeLogService, jobCheckpointService,
+                    walletCheckpointService, checkpointSigner, audit.getParallelism(), audit.getPageSize(),
+                    audit.getChunkSize(), audit.getInterval());
+        }
+        return new ChainAuditor(walletQueryService, changeLogService, jobCheckpointService, audit.getParallelism(),
+                audit.getPageSize(), audit.getChunkSize(), audit.getInterval());
+    }
+
+    @Bean
+    CheckpointSigner checkpointSigner(WalletProperties properties) {
+        return new CheckpointSigner(properties.getCheckpoint().getSecret());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.checkpoint", name = "enabled", havingValue = "true")
+    CheckpointWriter checkpointWriter(WalletQueryService walletQueryService,
+            WalletCheckpointService walletCheckpointService, ChangeLogService changeLogService,
+            CheckpointSigner checkpointSigner, WalletProperties properties) {
+        val checkpoint = properties.getCheckpoint();
+        return new CheckpointWriter(walletQueryService, walletCheckpointService, changeLogService, checkpointSigner,
+                checkpoint.getPageSize(), checkpoint.getInterval());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.stat", name = "enabled", havingValue = "true")
+    DailyStatAggregator dailyStatAggregator(ChangeLogService changeLogService, DailyStatService dailyStatService,
+            JobCheckpointService jobCheckpointService, WalletProperties properties) {
+        val stat = properties.getStat();
+        val zone = StringUtils.hasText(stat.getZone()) ? ZoneId.of(stat.getZone()) : ZoneId.systemDefault();
+        return new DailyStatAggregator(changeLogService, dailyStatService, jobCheckpointService, stat.getChunkSize(),
+                stat.getLag(), stat.getGapTimeout(), stat.getInterval(), zone);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.deferred", name = "enabled", havingValue = "true")
+    CreditApplier creditApplier(CreditJournalService creditJournalService, WalletService walletService,
+            WalletProperties properties) {
+        val deferred = properties.getDeferred();
+        return new CreditApplier(creditJournalService, walletService, deferred.getBatchSize(),
+                deferred.getInterval());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.outbox", name = "enabled", havingValue = "true")
+    InProcessSink inProcessSink() {
+        return new InProcessSink();
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.outbox", name = "file")
+    FileSink fileSink(WalletProperties properties) {
+        return new FileSink(Path.of(properties.getOutbox().getFile()));
+    }
+
+    @Bean
+    @ConditionalOnExpression("${apzda.cloud.wallet.outbox.enabled:false} and ${apzda.cloud.wallet.outbox.relay:true}")
+    OutboxRelay outboxRelay(OutboxService outboxService, JobCheckpointService jobCheckpointService,
+            ObjectProvider<OutboxSink> sinks, WalletProperties properties) {
+        val outbox = properties.getOutbox();
+        return new OutboxRelay(outboxService, jobCheckpointService, sinks.orderedStream().toList(),
+                outbox.getBatchSize(), outbox.getLag(), outbox.getGapTimeout(), outbox.getInterval(),
+                outbox.getRetention());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "apzda.cloud.wallet.cache", name = "enabled", havingValue = "true")
+    WalletCache walletCache(WalletQueryService walletQueryService, WalletProperties properties,
+            ObjectProvider<StringRedisTemplate> redisTemplate) {
+        val cache = properties.getCache();
+        return new WalletCache(key -> walletQueryService.readWallet(key.uid(), key.currency()),
+                redisTemplate.getIfAvailable(), cache.getLocalTtl(), cache.getLocalMaxSize(), cache.getRemoteTtl(),
+                cache.getKeyPrefix(), cache.getChannel());
     }
 
     @Bean
@@ -85,6 +292,12 @@ public class WalletConfig implements ApplicationContextAware {
                 tables.add("wallet");
                 tables.add("wallet_transaction");
                 tables.add("wallet_outlay_log");
+                tables.add("wallet_job_checkpoint");
+                tables.add("wallet_checkpoint");
+                tables.add("wallet_daily_stat");
+                tables.add("wallet_currency_daily_stat");
+                tables.add("wallet_outbox");
+                tables.add("wallet_credit_journal");
             }
         };
     }
@@ -16,15 +16,15 @@
  */
 package com.apzda.cloud.wallet.config;
 
-import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.block.BlockAlgorithm;
+import com.apzda.cloud.wallet.lock.LockMode;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
-import lombok.val;
 import org.springframework.boot.context.properties.ConfigurationProperties;
-import org.springframework.lang.NonNull;
 
+import java.time.Duration;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -41,6 +41,72 @@ public class WalletProperties {
 
     private String format = "#";
 
+    /**
+     * 交易时是否按主键加载链头日志与钱包交叉校验
+     */
+    private boolean verifyHead = false;
+
+    /**
+     * 批量交易一次最多包含的交易数
+     */
+    @Min(value = 1)
+    private int maxBatchSize = 1000;
+
+    /**
+     * 导出未指定结束ID时，只导出写入超过该时长的记录(应大于最长的交易事务)
+     */
+    private Duration exportLag = Duration.ofSeconds(10);
+
+    /**
+     * 交易幂等
+     */
+    private final IdempotencyConfig idempotency = new IdempotencyConfig();
+
+    /**
+     * 钱包锁
+     */
+    private final LockConfig lock = new LockConfig();
+
+    /**
+     * 组提交交易引擎
+     */
+    private final EngineConfig engine = new EngineConfig();
+
+    /**
+     * 过期清理
+     */
+    private final ExpiryConfig expiry = new ExpiryConfig();
+
+    /**
+     * 余额缓存
+     */
+    private final CacheConfig cache = new CacheConfig();
+
+    /**
+     * 日志链审计
+     */
+    private final AuditConfig audit = new AuditConfig();
+
+    /**
+     * 钱包检查点
+     */
+    private final CheckpointConfig checkpoint = new CheckpointConfig();
+
+    /**
+     * 日汇总
+     */
+    private final StatConfig stat = new StatConfig();
+
+    /**
+     * 变更事件发件箱
+     */
+    private final OutboxConfig outbox = new OutboxConfig();
+
+    /**
+     * 延迟入账
+     */
+    private final DeferredConfig deferred = new DeferredConfig();
+
     @Data
     public static final class CurrencyConfig {
 
@@ -88,24 +154,26 @@ public class WalletProperties {
          */
         private String symbol;
 
+        /**
+         * 新变更日志使用的区块算法(已有日志按各自记录的算法校验)
+         */
+        private BlockAlgorithm blockAlgorithm = BlockAlgorithm.MD5;
+
+        /**
+         * 单笔交易的并发控制方式，启用过期机制的币种只能使用悲观锁
+         */
+        private LockMode lockMode = LockMode.PESSIMISTIC;
+
+        /**
+         * 热点钱包的子钱包数(uid -> 子钱包数)，收入按业务单号散列到各子钱包，支出依次从各子钱包扣减；启用过期机制的币种不支持
+         */
+        private final Map<Long, Integer> shards = new LinkedHashMap<>();
+
         /**
          * 业务线
          */
         private final Map<String, BizConfig> biz = new LinkedHashMap<>();
 
-        @NonNull
-        public BizSubject getBizSubject(String currency, @NonNull String biz, @NonNull String bizSubject) {
-            val bizConfig = this.biz.get(biz);
-            if (bizConfig == null) {
-                WalletError.BIZ_SUBJECT_NOT_FOUND.emitBizError(currency, biz, bizSubject);
-            }
-            val bizSubjectConfig = bizConfig.getSubjects().get(bizSubject);
-            if (bizSubjectConfig == null) {
-                WalletError.BIZ_SUBJECT_NOT_FOUND.emitBizError(currency, biz, bizSubject);
-            }
-            return bizSubjectConfig;
-        }
-
     }
 
     @Data
@@ -149,6 +217,337 @@ public class WalletProperties {
          */
         private boolean needFrozen = false;
 
+        /**
+         * 延迟入账: 收入先写入待入账流水并立即返回，由入账任务批量写入日志链；只对收入有效，启用过期机制的币种不支持
+         */
+        private boolean deferred = false;
+
+    }
+
+    @Data
+    public static final class IdempotencyConfig {
+
+        /**
+         * 交易前是否先按业务单号查找已完成的交易
+         */
+        private boolean enabled = true;
+
+        /**
+         * 最多缓存的已完成交易数
+         */
+        @Min(value = 1)
+        private long cacheSize = 100000;
+
+        /**
+         * 已完成交易的缓存时间
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+
+    }
+
+    @Data
+    public static final class LockConfig {
+
+        /**
+         * 锁分段数(会向上取整为2的幂)
+         */
+        @Min(value = 1)
+        private int stripes = 1024;
+
+        /**
+         * 等待锁的最长时间
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+
+        /**
+         * 乐观锁模式与热点钱包支出冲突时最多尝试的次数
+         */
+        @Min(value = 1)
+        private int maxAttempts = 5;
+
+        /**
+         * 乐观锁冲突后首次重试前的等待时间，之后每次翻倍
+         */
+        private Duration backoff = Duration.ofMillis(5);
+
+        /**
+         * 乐观锁重试的最长等待时间
+         */
+        private Duration maxBackoff = Duration.ofMillis(100);
+
+    }
+
+    @Data
+    public static final class EngineConfig {
+
+        /**
+         * 是否启用组提交交易引擎
+         */
+        private boolean enabled = false;
+
+        /**
+         * 分片数(写线程数)，小于1时使用CPU核数
+         */
+        private int shards = 0;
+
+        /**
+         * 每个分片队列的容量
+         */
+        @Min(value = 1)
+        private int queueCapacity = 10000;
+
+        /**
+         * 一个事务最多提交的交易数
+         */
+        @Min(value = 1)
+        private int maxBatchSize = 256;
+
+        /**
+         * 队列已满时的最长等待时间
+         */
+        private Duration offerTimeout = Duration.ofSeconds(1);
+
+    }
+
+    @Data
+    public static final class ExpiryConfig {
+
+        /**
+         * 是否启用过期清理
+         */
+        private boolean enabled = false;
+
+        /**
+         * 分区数(按uid取模)，修改后各分区从头开始
+         */
+        @Min(value = 1)
+        private int partitions = 16;
+
+        /**
+         * 并行处理的分区数
+         */
+        @Min(value = 1)
+        private int parallelism = 4;
+
+        /**
+         * 每页钱包数，每页保存一次检查点
+         */
+        @Min(value = 1)
+        private int pageSize = 200;
+
+        /**
+         * 一个钱包一次最多注销的收入数
+         */
+        @Min(value = 1)
+        private int maxLots = 1000;
+
+        /**
+         * 两轮清理的间隔，为0时不自动执行
+         */
+        private Duration interval = Duration.ofHours(1);
+
+    }
+
+    @Data
+    public static final class CacheConfig {
+
+        /**
+         * 是否启用余额缓存(启用后未要求一致性读的余额查询可能读到稍旧的快照)
+         */
+        private boolean enabled = false;
+
+        /**
+         * 本地缓存过期时间
+         */
+        private Duration localTtl = Duration.ofSeconds(5);
+
+        /**
+         * 本地缓存最多缓存的钱包数
+         */
+        @Min(value = 1)
+        private long localMaxSize = 100000;
+
+        /**
+         * Redis缓存过期时间
+         */
+        private Duration remoteTtl = Duration.ofSeconds(60);
+
+        /**
+         * Redis键前缀
+         */
+        private String keyPrefix = "wallet:balance:";
+
+        /**
+         * 缓存失效通知频道
+         */
+        private String channel = "wallet:changed";
+
+    }
+
+    @Data
+    public static final class AuditConfig {
+
+        /**
+         * 是否启用日志链审计
+         */
+        private boolean enabled = false;
+
+        /**
+         * 并行度，小于1时使用CPU核数
+         */
+        private int parallelism = 0;
+
+        /**
+         * 每页钱包数
+         */
+        @Min(value = 1)
+        private int pageSize = 1000;
+
+        /**
+         * 每次读取的日志数
+         */
+        @Min(value = 1)
+        private int chunkSize = 1000;
+
+        /**
+         * 两次审计的间隔，为0时不自动执行
+         */
+        private Duration interval = Duration.ofDays(1);
+
+        /**
+         * 尚无审计检查点的钱包是否从最近的钱包检查点开始(不再校验检查点之前的日志)
+         */
+        private boolean fromCheckpoint = false;
+
+    }
+
+    @Data
+    public static final class CheckpointConfig {
+
+        /**
+         * 是否定期写入钱包检查点
+         */
+        private boolean enabled = false;
+
+        /**
+         * 摘要密钥(HMAC-SHA256)，为空时只计算SHA-256
+         */
+        private String secret;
+
+        /**
+         * 每页钱包数
+         */
+        @Min(value = 1)
+        private int pageSize = 1000;
+
+        /**
+         * 两次写入的间隔，为0时不自动执行
+         */
+        private Duration interval = Duration.ofDays(1);
+
+    }
+
+    @Data
+    public static final class StatConfig {
+
+        /**
+         * 是否启用日汇总
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每批汇总的日志数
+         */
+        @Min(value = 1)
+        private int chunkSize = 1000;
+
+        /**
+         * 只汇总写入超过该时长的日志
+         */
+        private Duration lag = Duration.ofSeconds(10);
+
+        /**
+         * 被越过的日志(提交晚于lag的事务)的最长等待时间，超过后不再补汇总
+         */
+        private Duration gapTimeout = Duration.ofMinutes(5);
+
+        /**
+         * 两次汇总的间隔，为0时不自动执行
+         */
+        private Duration interval = Duration.ofMinutes(1);
+
+        /**
+         * 划分日期的时区，为空时使用系统时区
+         */
+        private String zone;
+
+    }
+
+    @Data
+    public static final class OutboxConfig {
+
+        /**
+         * 是否在交易事务中写入变更事件
+         */
+        private boolean enabled = false;
+
+        /**
+         * 是否在本实例运行中继
+         */
+        private boolean relay = true;
+
+        /**
+         * 每批投递的事件数
+         */
+        @Min(value = 1)
+        private int batchSize = 500;
+
+        /**
+         * 只投递写入超过该时长的事件
+         */
+        private Duration lag = Duration.ofMillis(500);
+
+        /**
+         * 被越过的事件(提交晚于lag的事务)的最长等待时间，超过后不再补投
+         */
+        private Duration gapTimeout = Duration.ofMinutes(5);
+
+        /**
+         * 两次投递的间隔，为0时不自动执行
+         */
+        private Duration interval = Duration.ofMillis(200);
+
+        /**
+         * 已投递事件的保留时长，为负数时不清理
+         */
+        private Duration retention = Duration.ofDays(1);
+
+        /**
+         * 本地文件投递的文件路径，为空时不启用
+         */
+        private String file;
+
+    }
+
+    @Data
+    public static final class DeferredConfig {
+
+        /**
+         * 是否在本实例运行入账任务(未运行时待入账收入只在该钱包支出前入账)
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每批入账的收入数
+         */
+        @Min(value = 1)
+        private int batchSize = 500;
+
+        /**
+         * 两次入账的间隔，为0时不自动执行
+         */
+        private Duration interval = Duration.ofMillis(200);
+
     }
 
 }
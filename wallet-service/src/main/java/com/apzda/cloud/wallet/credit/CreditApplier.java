@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.credit;
+
+import com.apzda.cloud.wallet.domain.service.CreditJournalService;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.apzda.cloud.wallet.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 入账任务: 按写入顺序找出有待入账收入的钱包，逐个钱包在一个事务中把待入账收入写入日志链.
+ * <p>
+ * 入账在钱包锁内锁定读取并删除待入账收入，多个实例同时运行或与支出前的入账并发时不会重复入账.
+ * 每轮以ID游标扫描全部待入账收入，入账失败的钱包(如已锁定)按指数退避暂停，不阻塞其它钱包.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class CreditApplier implements InitializingBean, DisposableBean {
+
+    /**
+     * 入账失败的钱包最长暂停时间
+     */
+    static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+    private final CreditJournalService creditJournalService;
+
+    private final WalletService walletService;
+
+    private final int batchSize;
+
+    private final Duration interval;
+
+    private final JobScheduler scheduler;
+
+    private final Map<WalletKey, Parked> parked = new ConcurrentHashMap<>();
+
+    public CreditApplier(@NonNull CreditJournalService creditJournalService, @NonNull WalletService walletService,
+            int batchSize, @NonNull Duration interval) {
+        this.creditJournalService = creditJournalService;
+        this.walletService = walletService;
+        this.batchSize = Math.max(1, batchSize);
+        this.interval = interval;
+        this.scheduler = new JobScheduler("wallet-credit-applier", interval);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        scheduler.start(this::applyScheduled);
+        log.info("Credit applier started, batch size: {}, interval: {}", batchSize, interval);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.stop();
+        log.info("Credit applier stopped");
+    }
+
+    /**
+     * 从头到尾扫描一遍待入账收入，逐个钱包入账；每个钱包在本轮只入账一次，暂停中的钱包跳过.
+     * @return 本次入账的收入数
+     */
+    public long apply() {
+        val now = System.currentTimeMillis();
+        val attempted = new HashSet<WalletKey>();
+        var cursor = 0L;
+        var total = 0L;
+        while (scheduler.isRunning()) {
+            val wallets = creditJournalService.pendingWallets(cursor, batchSize);
+            if (wallets.isEmpty()) {
+                break;
+            }
+            for (val entry : wallets.entrySet()) {
+                cursor = Math.max(cursor, entry.getValue());
+                val wallet = entry.getKey();
+                if (!scheduler.isRunning()) {
+                    break;
+                }
+                if (!attempted.add(wallet) || isParked(wallet, now)) {
+                    continue;
+                }
+                try {
+                    total += walletService.applyCredits(wallet.uid(), wallet.currency());
+                    parked.remove(wallet);
+                }
+                catch (Exception e) {
+                    val until = park(wallet, now);
+                    log.warn("Cannot apply credits of wallet(uid: {}, currency: {}), retry after {}ms: {}",
+                            wallet.uid(), wallet.currency(), until - now, e.getMessage());
+                }
+            }
+        }
+        return total;
+    }
+
+    private boolean isParked(@NonNull WalletKey wallet, long now) {
+        val state = parked.get(wallet);
+        return state != null && state.until() > now;
+    }
+
+    /**
+     * 暂停钱包，每次连续失败暂停时间翻倍，最长{@link #MAX_BACKOFF}.
+     * @return 暂停到的时间
+     */
+    long park(@NonNull WalletKey wallet, long now) {
+        val failures = parked.containsKey(wallet) ? parked.get(wallet).failures() + 1 : 1;
+        val backoff = Math.min(interval.toMillis() << Math.min(failures, 20), MAX_BACKOFF.toMillis());
+        val until = now + Math.max(backoff, 1);
+        parked.put(wallet, new Parked(failures, until));
+        return until;
+    }
+
+    private record Parked(int failures, long until) {
+    }
+
+    private void applyScheduled() {
+        val applied = apply();
+        if (applied > 0) {
+            log.debug("Credit applier applied {} credits", applied);
+        }
+    }
+
+}
@@ -16,7 +16,8 @@
  */
 package com.apzda.cloud.wallet.domain.entity;
 
-import cn.hutool.crypto.digest.MD5;
+import com.apzda.cloud.wallet.block.BlockHasher;
+import com.apzda.cloud.wallet.config.WalletConfig;
 import com.baomidou.mybatisplus.annotation.*;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
@@ -65,6 +66,11 @@ public class ChangeLog implements Serializable {
     @NotNull
     private String currency;
 
+    /**
+     * 子钱包序号
+     */
+    private int shard;
+
     @NotNull
     private String biz;
 
@@ -107,9 +113,17 @@ public class ChangeLog implements Serializable {
     @NotNull
     private String block;
 
+    /**
+     * 区块算法版本, 见{@link com.apzda.cloud.wallet.block.BlockAlgorithm}
+     */
+    private Integer algorithm;
+
     private String remark;
 
     public void genBlock(String preBlock) {
+        if (this.algorithm == null) {
+            this.algorithm = WalletConfig.getCurrencyConfig(currency).blockAlgorithm().getVersion();
+        }
         this.block = genBlock(this, preBlock);
     }
 
@@ -125,6 +139,7 @@ public class ChangeLog implements Serializable {
         changelog.updatedBy = changelog.createdBy;
         changelog.uid = wallet.getUid();
         changelog.currency = wallet.getCurrency();
+        changelog.shard = wallet.getShard();
         changelog.transactionId = 0L;
         changelog.preBalance = 0L;
         changelog.preFrozen = 0L;
@@ -139,39 +154,18 @@ public class ChangeLog implements Serializable {
         changelog.ip = "127.0.0.1";
         changelog.remark = "Initialize";
         changelog.parentId = 0L;
+        changelog.algorithm = WalletConfig.getCurrencyConfig(changelog.currency).blockAlgorithm().getVersion();
         changelog.block = genBlock(changelog, wallet.getBlock());
         return changelog;
     }
 
     public static String genBlock(ChangeLog changeLog, String preBlock) {
-        // @formatter:off
-        val blockStr = preBlock + ","
-            + changeLog.createdAt+ ","
-            + changeLog.createdBy + ","
-            + changeLog.updatedAt+ ","
-            + changeLog.updatedBy + ","
-            + changeLog.uid + ","
-            + changeLog.currency + ","
-            + changeLog.transactionId+","
-            + changeLog.outlay + ","
-            + changeLog.needFrozen + ","
-            + changeLog.withdrawAble + ","
-            + changeLog.biz + ","
-            + changeLog.bizSubject + ","
-            + changeLog.bizId + ","
-            + changeLog.amount+","
-            + changeLog.preBalance+","
-            + changeLog.balance+","
-            + changeLog.preFrozen+","
-            + changeLog.frozen+","
-            + changeLog.expiredAt+","
-            + changeLog.parentId+","
-            + changeLog.ip;
-        // @formatter:on
-
-        val block = MD5.create().digestHex(blockStr);
-
-        log.debug("Generated change log block({}): [{}]", block, blockStr);
+        val block = BlockHasher.hash(changeLog, preBlock);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Generated change log block({}) of wallet(uid: {}, currency: {}) with algorithm {}", block,
+                    changeLog.uid, changeLog.currency, changeLog.algorithm);
+        }
 
         return block;
     }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * 待入账收入: 延迟入账的收入交易先写入流水并立即返回，由入账任务或该钱包的下一笔支出写入日志链后删除.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Data
+@TableName("wallet_credit_journal")
+public class CreditJournal implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 7710268385416470271L;
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    @TableField(fill = FieldFill.INSERT)
+    private Long createdAt;
+
+    private Long transactionId;
+
+    private Long uid;
+
+    private String currency;
+
+    private String biz;
+
+    private String bizSubject;
+
+    private String bizId;
+
+    private Long amount;
+
+    private boolean withdrawAble;
+
+    private String ip;
+
+    private String remark;
+
+    @NonNull
+    public static CreditJournal of(@NonNull Transaction transaction) {
+        val journal = new CreditJournal();
+        journal.transactionId = transaction.getId();
+        journal.uid = transaction.getUid();
+        journal.currency = transaction.getCurrency();
+        journal.biz = transaction.getBiz();
+        journal.bizSubject = transaction.getBizSubject();
+        journal.bizId = transaction.getBizId();
+        journal.amount = transaction.getAmount();
+        journal.withdrawAble = transaction.isWithdrawAble();
+        journal.ip = transaction.getIp();
+        journal.remark = transaction.getRemark();
+        return journal;
+    }
+
+    /**
+     * 还原出生成变更日志所需的交易(交易记录已在写入流水时保存).
+     */
+    @NonNull
+    public Transaction toTransaction() {
+        val transaction = new Transaction();
+        transaction.setId(transactionId);
+        transaction.setUid(uid);
+        transaction.setCurrency(currency);
+        transaction.setBiz(biz);
+        transaction.setBizSubject(bizSubject);
+        transaction.setBizId(bizId);
+        transaction.setAmount(amount);
+        transaction.setOutlay(false);
+        transaction.setWithdrawAble(withdrawAble);
+        transaction.setIp(ip);
+        transaction.setRemark(remark);
+        return transaction;
+    }
+
+}
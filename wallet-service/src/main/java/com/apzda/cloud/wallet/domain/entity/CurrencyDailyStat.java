@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * 币种日汇总: 全部钱包当日变动的合计，日终余额为前一日日终余额加当日净变动.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Data
+@TableName("wallet_currency_daily_stat")
+public class CurrencyDailyStat implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 3371904485216650170L;
+
+    @TableId(type = IdType.ASSIGN_ID)
+    private Long id;
+
+    private Long createdAt;
+
+    private Long updatedAt;
+
+    @NotNull
+    private String currency;
+
+    /**
+     * 日期(yyyyMMdd)
+     */
+    @NotNull
+    private Integer day;
+
+    @NotNull
+    private Long income;
+
+    @NotNull
+    private Long outlay;
+
+    @NotNull
+    private Long frozenIn;
+
+    @NotNull
+    private Long frozenOut;
+
+    @NotNull
+    private Integer trades;
+
+    @NotNull
+    private Long closingBalance;
+
+    @NotNull
+    private Long closingFrozen;
+
+    /**
+     * 当日余额净变动(仅汇总时使用)
+     */
+    @TableField(exist = false)
+    private long balanceDelta;
+
+    /**
+     * 当日冻结金额净变动(仅汇总时使用)
+     */
+    @TableField(exist = false)
+    private long frozenDelta;
+
+}
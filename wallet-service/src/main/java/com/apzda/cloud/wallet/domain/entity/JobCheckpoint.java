@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Data
+@TableName("wallet_job_checkpoint")
+public class JobCheckpoint implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 3526412874613065071L;
+
+    @TableId(type = IdType.ASSIGN_ID)
+    private Long id;
+
+    @TableField(fill = FieldFill.INSERT)
+    private Long createdAt;
+
+    @TableField(fill = FieldFill.INSERT)
+    private String createdBy;
+
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private Long updatedAt;
+
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private String updatedBy;
+
+    @TableLogic(value = "0", delval = "1")
+    private boolean deleted;
+
+    @NotNull
+    private String job;
+
+    @NotNull
+    private String partKey;
+
+    private String value;
+
+}
@@ -18,22 +18,19 @@ package com.apzda.cloud.wallet.domain.entity;
 
 import cn.hutool.core.date.DateUtil;
 import com.apzda.cloud.gsvc.core.GsvcContextHolder;
+import com.apzda.cloud.wallet.config.CompiledCurrency;
 import com.apzda.cloud.wallet.config.WalletConfig;
-import com.apzda.cloud.wallet.config.WalletProperties;
 import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.money.MoneyCodec;
 import com.apzda.cloud.wallet.proto.TradeDTO;
 import com.baomidou.mybatisplus.annotation.*;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 import lombok.val;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.lang.NonNull;
 
 import java.io.Serial;
 import java.io.Serializable;
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -71,6 +68,11 @@ public class Wallet implements Serializable {
     @NotNull
     private String currency;
 
+    /**
+     * 子钱包序号，0为主钱包
+     */
+    private int shard;
+
     @NotNull
     private Long amount;
 
@@ -90,32 +92,48 @@ public class Wallet implements Serializable {
 
     private String block;
 
+    /**
+     * 链头: 最后一条变更日志的ID
+     */
+    private Long lastLogId;
+
+    /**
+     * 钱包锁的键: 主钱包为币种本身，子钱包为"币种#序号".
+     */
+    @NonNull
+    public static String lockKey(@NonNull String currency, int shard) {
+        return shard == 0 ? currency : currency + "#" + shard;
+    }
+
     public boolean isExpireAble() {
         val config = WalletConfig.getCurrencyConfig(currency);
-        return config.isEnabledExpire();
+        return config.enabledExpire();
     }
 
     public double getRate() {
         val config = WalletConfig.getCurrencyConfig(currency);
-        return config.getRate();
+        return config.rate();
     }
 
     public short getScale() {
         val config = WalletConfig.getCurrencyConfig(currency);
-        return config.getScale();
+        return config.scale();
     }
 
     public short getPrecision() {
         val config = WalletConfig.getCurrencyConfig(currency);
-        return config.getPrecision();
+        return config.precision();
     }
 
     public boolean isWithdrawAble() {
         val config = WalletConfig.getCurrencyConfig(currency);
-        return config.isWithdrawAble();
+        return config.withdrawAble();
     }
 
-    public ChangeLog newChangeLog(@NonNull Transaction transaction, ChangeLog lastLog) {
+    /**
+     * 基于钱包当前的链头(lastLogId, balance, frozen, block)生成变更日志并更新钱包.
+     */
+    public ChangeLog newChangeLog(@NonNull Transaction transaction) {
         val amount = transaction.getAmount();
         val outlay = transaction.isOutlay();
         val withdrawAble = transaction.isWithdrawAble();
@@ -124,7 +142,8 @@ public class Wallet implements Serializable {
         val changeLog = new ChangeLog();
         changeLog.setUid(transaction.getUid());
         changeLog.setCurrency(transaction.getCurrency());
-        changeLog.setParentId(lastLog.getId());
+        changeLog.setShard(this.shard);
+        changeLog.setParentId(this.lastLogId);
         changeLog.setTransactionId(transaction.getId());
         changeLog.setBiz(transaction.getBiz());
         changeLog.setBizSubject(transaction.getBizSubject());
@@ -132,8 +151,8 @@ public class Wallet implements Serializable {
         changeLog.setIp(transaction.getIp());
         changeLog.setRemark(transaction.getRemark());
         changeLog.setAmount(amount);// 交易金额
-        changeLog.setPreBalance(lastLog.getBalance());// 交易前余额
-        changeLog.setPreFrozen(lastLog.getFrozen());// 交易前冻结金额
+        changeLog.setPreBalance(this.balance);// 交易前余额
+        changeLog.setPreFrozen(this.frozen);// 交易前冻结金额
         changeLog.setOutlay(outlay);
         changeLog.setNeedFrozen(needFrozen);
         changeLog.setWithdrawAble(withdrawAble);
@@ -142,7 +161,7 @@ public class Wallet implements Serializable {
         // 1. 检测交易
         if (outlay) {
             // 支出
-            changeLog.setBalance(lastLog.getBalance() - amount);
+            changeLog.setBalance(this.balance - amount);
             if (changeLog.getBalance() < 0) {
                 WalletError.INSUFFICIENT_BALANCE.emit(this);
             }
@@ -153,24 +172,24 @@ public class Wallet implements Serializable {
             this.withdrawal = Math.max(0, this.withdrawal - amount);
 
             if (needFrozen) { // 冻结
-                changeLog.setFrozen(lastLog.getFrozen() + amount);
+                changeLog.setFrozen(this.frozen + amount);
             }
             else {
-                changeLog.setFrozen(lastLog.getFrozen());
+                changeLog.setFrozen(this.frozen);
             }
 
             this.outlay = this.outlay + amount;
         }
         else {
             // 收入
-            changeLog.setBalance(lastLog.getBalance() + amount);
+            changeLog.setBalance(this.balance + amount);
             if (withdrawAble) {// 可提现
                 this.withdrawal = this.withdrawal + amount;
             }
-            changeLog.setFrozen(lastLog.getFrozen());
+            changeLog.setFrozen(this.frozen);
         }
 
-        changeLog.genBlock(lastLog.getBlock());
+        changeLog.genBlock(this.block);
         this.balance = changeLog.getBalance();
         this.frozen = changeLog.getFrozen();
         this.amount = this.balance + this.frozen;
@@ -184,18 +203,17 @@ public class Wallet implements Serializable {
         }
         val config = WalletConfig.getCurrencyConfig(currency);
 
-        WalletProperties.BizSubject bizSubject = config.getBizSubject(currency, tradeDTO.getBiz(),
+        CompiledCurrency.Subject bizSubject = config.getBizSubject(currency, tradeDTO.getBiz(),
                 tradeDTO.getBizSubject());
 
-        val outlay = bizSubject.isOutlay();
+        val outlay = bizSubject.outlay();
         val transaction = new Transaction();
         val current = DateUtil.current();
         transaction.setCreatedAt(current);
         transaction.setUpdatedAt(current);
         transaction.setUid(uid);
         transaction.setCurrency(currency);
-        val amount = longValue(tradeDTO.getAmount());
-        transaction.setAmount(amount);
+        transaction.setAmount(amountOf(tradeDTO));
         transaction.setOutlay(outlay);
         transaction.setBizId(tradeDTO.getBizId());
         transaction.setBiz(tradeDTO.getBiz());
@@ -203,11 +221,11 @@ public class Wallet implements Serializable {
         transaction.setIp(GsvcContextHolder.getRemoteIp());
 
         if (outlay) {// 支出判断是否需要冻结
-            transaction.setNeedFrozen(bizSubject.isNeedFrozen());
+            transaction.setNeedFrozen(bizSubject.needFrozen());
         }
 
         // 特别注意：提现时withdrawAble应为true。
-        transaction.setWithdrawAble(bizSubject.isWithdrawAble());
+        transaction.setWithdrawAble(bizSubject.withdrawAble());
 
         if (tradeDTO.hasExpiredAt()) {
             transaction.setExpiredAt(tradeDTO.getExpiredAt());
@@ -218,16 +236,47 @@ public class Wallet implements Serializable {
         return transaction;
     }
 
+    /**
+     * 交易金额(最小单位)，优先使用minor_amount，其次decimal_amount，最后amount.
+     */
+    public long amountOf(@NonNull TradeDTO tradeDTO) {
+        long amount = 0;
+        if (tradeDTO.hasMinorAmount()) {
+            amount = tradeDTO.getMinorAmount();
+        }
+        else if (tradeDTO.hasDecimalAmount()) {
+            try {
+                amount = codec().toMinor(tradeDTO.getDecimalAmount());
+            }
+            catch (NumberFormatException | ArithmeticException e) {
+                WalletError.AMOUNT_INVALID.emit(this, e);
+            }
+        }
+        else {
+            try {
+                amount = longValue(tradeDTO.getAmount());
+            }
+            catch (IllegalArgumentException | ArithmeticException e) {
+                WalletError.AMOUNT_INVALID.emit(this, e);
+            }
+        }
+
+        if (amount <= 0) {
+            WalletError.AMOUNT_INVALID.emit(this);
+        }
+        return amount;
+    }
+
     public long longValue(double amount) {
-        val pre = StringUtils.rightPad("1", getPrecision() + 1, "0");
-        return BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(Long.parseLong(pre))).toBigInteger().longValue();
+        return codec().toMinor(amount);
     }
 
     public double doubleValue(long amount) {
-        val pre = StringUtils.rightPad("1", getPrecision() + 1, "0");
-        return BigDecimal.valueOf(amount)
-            .divide(BigDecimal.valueOf(Long.parseLong(pre)), new MathContext(getPrecision(), RoundingMode.DOWN))
-            .doubleValue();
+        return codec().toDouble(amount);
+    }
+
+    private MoneyCodec codec() {
+        return MoneyCodec.of(getPrecision());
     }
 
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * 钱包日汇总: 按余额、冻结金额的变动方向累计当日变动，并记录日终余额.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Data
+@TableName("wallet_daily_stat")
+public class WalletDailyStat implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = -6248123009384713425L;
+
+    @TableId(type = IdType.ASSIGN_ID)
+    private Long id;
+
+    private Long createdAt;
+
+    private Long updatedAt;
+
+    @NotNull
+    private Long uid;
+
+    @NotNull
+    private String currency;
+
+    /**
+     * 子钱包序号
+     */
+    private int shard;
+
+    /**
+     * 日期(yyyyMMdd)
+     */
+    @NotNull
+    private Integer day;
+
+    @NotNull
+    private Long income;
+
+    @NotNull
+    private Long outlay;
+
+    @NotNull
+    private Long frozenIn;
+
+    @NotNull
+    private Long frozenOut;
+
+    @NotNull
+    private Integer trades;
+
+    @NotNull
+    private Long closingBalance;
+
+    @NotNull
+    private Long closingFrozen;
+
+    /**
+     * 已汇总的最后一条变更日志
+     */
+    @NotNull
+    private Long lastLogId;
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+import lombok.val;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * 钱包变更事件: 与变更日志在同一事务中写入，由中继按ID顺序投递.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Data
+@TableName("wallet_outbox")
+public class WalletOutbox implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 2918657400127765381L;
+
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    @TableField(fill = FieldFill.INSERT)
+    private Long createdAt;
+
+    private Long uid;
+
+    private String currency;
+
+    /**
+     * 子钱包序号，余额为该子钱包的余额
+     */
+    private int shard;
+
+    private Long logId;
+
+    private Long transactionId;
+
+    private String biz;
+
+    private String bizSubject;
+
+    private String bizId;
+
+    private Long amount;
+
+    /**
+     * 交易后余额
+     */
+    private Long balance;
+
+    /**
+     * 交易后冻结金额
+     */
+    private Long frozen;
+
+    private boolean outlay;
+
+    public static WalletOutbox of(ChangeLog changeLog) {
+        val event = new WalletOutbox();
+        event.uid = changeLog.getUid();
+        event.currency = changeLog.getCurrency();
+        event.shard = changeLog.getShard();
+        event.logId = changeLog.getId();
+        event.transactionId = changeLog.getTransactionId();
+        event.biz = changeLog.getBiz();
+        event.bizSubject = changeLog.getBizSubject();
+        event.bizId = changeLog.getBizId();
+        event.amount = changeLog.getAmount();
+        event.balance = changeLog.getBalance();
+        event.frozen = changeLog.getFrozen();
+        event.outlay = changeLog.isOutlay();
+        return event;
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.mapper;
+
+import com.apzda.cloud.wallet.domain.entity.CreditJournal;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public interface CreditJournalMapper extends BaseMapper<CreditJournal> {
+
+    /**
+     * 锁定读取钱包的待入账收入(当前读)，须在已锁定钱包的事务中调用.
+     */
+    @Select("SELECT * FROM wallet_credit_journal WHERE uid = #{uid} AND currency = #{currency} ORDER BY id"
+            + " LIMIT #{limit} FOR UPDATE")
+    List<CreditJournal> pending(@Param("uid") Long uid, @Param("currency") String currency,
+            @Param("limit") int limit);
+
+    /**
+     * ID大于afterId的一批待入账收入所属的钱包，按最早的收入排序；只填充uid、currency与该钱包在这批中的最大ID.
+     */
+    @Select("SELECT t.uid, t.currency, MAX(t.id) AS id FROM (SELECT id, uid, currency FROM wallet_credit_journal"
+            + " WHERE id > #{afterId} ORDER BY id LIMIT #{limit}) t GROUP BY t.uid, t.currency ORDER BY MIN(t.id)")
+    List<CreditJournal> pendingWallets(@Param("afterId") long afterId, @Param("limit") int limit);
+
+}
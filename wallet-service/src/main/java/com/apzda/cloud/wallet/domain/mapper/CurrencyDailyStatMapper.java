@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.mapper;
+
+import com.apzda.cloud.wallet.domain.entity.CurrencyDailyStat;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public interface CurrencyDailyStatMapper extends BaseMapper<CurrencyDailyStat> {
+
+    /**
+     * 一条语句累加多个币种的日汇总，日终余额由调用方算好.
+     * @param stats 本批次的增量
+     * @param now 更新时间
+     * @return 影响的行数
+     */
+    @Insert({ "<script>",
+            "INSERT INTO wallet_currency_daily_stat (id, created_at, updated_at, currency, day, income, outlay,",
+            "frozen_in, frozen_out, trades, closing_balance, closing_frozen) VALUES",
+            "<foreach collection='stats' item='s' separator=','>",
+            "(#{s.id}, #{now}, #{now}, #{s.currency}, #{s.day}, #{s.income}, #{s.outlay}, #{s.frozenIn},",
+            "#{s.frozenOut}, #{s.trades}, #{s.closingBalance}, #{s.closingFrozen})", "</foreach>",
+            "ON DUPLICATE KEY UPDATE updated_at = VALUES(updated_at), income = income + VALUES(income),",
+            "outlay = outlay + VALUES(outlay), frozen_in = frozen_in + VALUES(frozen_in),",
+            "frozen_out = frozen_out + VALUES(frozen_out), trades = trades + VALUES(trades),",
+            "closing_balance = VALUES(closing_balance), closing_frozen = VALUES(closing_frozen)", "</script>" })
+    int upsert(@Param("stats") Collection<CurrencyDailyStat> stats, @Param("now") long now);
+
+    @Delete("DELETE FROM wallet_currency_daily_stat")
+    int clear();
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.mapper;
+
+import com.apzda.cloud.wallet.domain.entity.JobCheckpoint;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public interface JobCheckpointMapper extends BaseMapper<JobCheckpoint> {
+
+    @Insert("INSERT INTO wallet_job_checkpoint (id, created_at, updated_at, job, part_key, value) "
+            + "VALUES (#{id}, #{now}, #{now}, #{job}, #{partKey}, #{value}) "
+            + "ON DUPLICATE KEY UPDATE value = VALUES(value), updated_at = VALUES(updated_at), deleted = 0")
+    int upsert(@Param("id") long id, @Param("job") String job, @Param("partKey") String partKey,
+            @Param("value") String value, @Param("now") long now);
+
+    @Update("UPDATE wallet_job_checkpoint SET value = #{value}, updated_at = #{now} "
+            + "WHERE job = #{job} AND part_key = #{partKey} AND value = #{expect} AND deleted = 0")
+    int compareAndSet(@Param("job") String job, @Param("partKey") String partKey, @Param("expect") String expect,
+            @Param("value") String value, @Param("now") long now);
+
+}
@@ -18,6 +18,10 @@ package com.apzda.cloud.wallet.domain.mapper;
 
 import com.apzda.cloud.wallet.domain.entity.Outlay;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.Collection;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -26,4 +30,16 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  **/
 public interface OutlayMapper extends BaseMapper<Outlay> {
 
+    /**
+     * 一条语句更新多笔收入的余额.
+     * @param lots 收入(只使用id与balance)
+     * @param updatedAt 更新时间
+     * @return 更新的行数
+     */
+    @Update({ "<script>", "UPDATE wallet_outlay_log SET updated_at = #{updatedAt}, balance = CASE id",
+            "<foreach collection='lots' item='lot'>WHEN #{lot.id} THEN #{lot.balance} </foreach>",
+            "END WHERE deleted = 0 AND id IN",
+            "<foreach collection='lots' item='lot' open='(' separator=',' close=')'>#{lot.id}</foreach>", "</script>" })
+    int updateBalances(@Param("lots") Collection<Outlay> lots, @Param("updatedAt") long updatedAt);
+
 }
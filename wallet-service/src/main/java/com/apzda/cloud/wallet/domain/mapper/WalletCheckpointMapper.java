@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.mapper;
+
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public interface WalletCheckpointMapper extends BaseMapper<WalletCheckpoint> {
+
+    /**
+     * 批量写入检查点，同一日志处已有检查点(其它实例已写入)时保留原有记录.
+     * @return 新写入的行数
+     */
+    @Insert({ "<script>",
+            "INSERT INTO wallet_checkpoint (id, created_at, updated_at, uid, currency, shard, log_id, block, balance,",
+            "frozen, withdrawal, outlay, digest) VALUES",
+            "<foreach collection='checkpoints' item='c' separator=','>",
+            "(#{c.id}, #{now}, #{now}, #{c.uid}, #{c.currency}, #{c.shard}, #{c.logId}, #{c.block}, #{c.balance},",
+            "#{c.frozen}, #{c.withdrawal}, #{c.outlay}, #{c.digest})", "</foreach>",
+            "ON DUPLICATE KEY UPDATE id = id", "</script>" })
+    int insertAbsent(@Param("checkpoints") Collection<WalletCheckpoint> checkpoints, @Param("now") long now);
+
+}
@@ -18,6 +18,7 @@ package com.apzda.cloud.wallet.domain.mapper;
 
 import com.apzda.cloud.wallet.domain.entity.Wallet;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -29,7 +30,13 @@ import org.springframework.transaction.annotation.Transactional;
 public interface WalletMapper extends BaseMapper<Wallet> {
 
     @Transactional
-    @Select("SELECT * FROM wallet WHERE deleted = 0 AND uid = #{uid} AND currency = #{currency} FOR UPDATE")
-    Wallet openWallet(Long uid, String currency);
+    default Wallet openWallet(Long uid, String currency) {
+        return openWallet(uid, currency, 0);
+    }
+
+    @Transactional
+    @Select("SELECT * FROM wallet WHERE deleted = 0 AND uid = #{uid} AND currency = #{currency} AND shard = #{shard}"
+            + " FOR UPDATE")
+    Wallet openWallet(@Param("uid") Long uid, @Param("currency") String currency, @Param("shard") int shard);
 
 }
@@ -18,14 +18,18 @@ package com.apzda.cloud.wallet.domain.service;
 
 import com.apzda.cloud.wallet.domain.entity.ChangeLog;
 import com.apzda.cloud.wallet.domain.mapper.ChangeLogMapper;
+import com.apzda.cloud.wallet.domain.vo.HistoryQuery;
 import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -92,13 +96,113 @@ public class ChangeLogService extends ServiceImpl<ChangeLogMapper, ChangeLog> {
     }
 
     public ChangeLog getLastLog(Long uid, String currency) {
+        return getLastLog(uid, currency, 0);
+    }
+
+    /**
+     * 子钱包链头日志，走IDX_UID_CURRENCY_SHARD_ID.
+     */
+    public ChangeLog getLastLog(Long uid, String currency, int shard) {
         val con = Wrappers.lambdaQuery(ChangeLog.class);
         con.eq(ChangeLog::getUid, uid);
         con.eq(ChangeLog::getCurrency, currency);
+        con.eq(ChangeLog::getShard, shard);
         con.orderByDesc(ChangeLog::getId);
         con.last("LIMIT 1");
 
         return getOne(con, false);
     }
 
+    /**
+     * 按(uid, currency, id)键集倒序分页查询交易历史，指定业务时走IDX_UID_CURRENCY_BIZ_ID，否则走IDX_UID_CURRENCY_ID.
+     * <p>
+     * 子钱包之间的归集(system/rebalance)不是用户交易，不包含在历史中.
+     */
+    @NonNull
+    public List<ChangeLog> history(@NonNull HistoryQuery query) {
+        val con = Wrappers.lambdaQuery(ChangeLog.class);
+        con.select(ChangeLog::getId, ChangeLog::getCreatedAt, ChangeLog::getTransactionId, ChangeLog::getUid,
+                ChangeLog::getCurrency, ChangeLog::getBiz, ChangeLog::getBizSubject, ChangeLog::getBizId,
+                ChangeLog::getAmount, ChangeLog::getBalance, ChangeLog::isOutlay);
+        con.eq(ChangeLog::getUid, query.uid());
+        con.eq(ChangeLog::getCurrency, query.currency());
+        con.eq(query.biz() != null, ChangeLog::getBiz, query.biz());
+        con.eq(query.biz() != null && query.bizSubject() != null, ChangeLog::getBizSubject, query.bizSubject());
+        con.eq(query.outlay() != null, ChangeLog::isOutlay, query.outlay());
+        con.not(w -> w.eq(ChangeLog::getBiz, "system").eq(ChangeLog::getBizSubject, WalletService.REBALANCE));
+        con.ge(query.startTime() != null, ChangeLog::getCreatedAt, query.startTime());
+        con.lt(query.endTime() != null, ChangeLog::getCreatedAt, query.endTime());
+        con.lt(query.cursor() != null, ChangeLog::getId, query.cursor());
+        con.orderByDesc(ChangeLog::getId);
+        con.last("LIMIT " + query.size());
+
+        return list(con);
+    }
+
+    /**
+     * 指定时间点(含)之前钱包的最后一条变更日志，走IDX_UID_CURRENCY_CREATED_AT，只读一行.
+     */
+    @Nullable
+    public ChangeLog lastLogAt(@NonNull Long uid, @NonNull String currency, long timestamp) {
+        return lastLogAt(uid, currency, 0, timestamp);
+    }
+
+    /**
+     * 指定时间点(含)之前子钱包的最后一条变更日志.
+     */
+    @Nullable
+    public ChangeLog lastLogAt(@NonNull Long uid, @NonNull String currency, int shard, long timestamp) {
+        val con = Wrappers.lambdaQuery(ChangeLog.class);
+        con.eq(ChangeLog::getUid, uid);
+        con.eq(ChangeLog::getCurrency, currency);
+        con.eq(ChangeLog::getShard, shard);
+        con.le(ChangeLog::getCreatedAt, timestamp);
+        con.orderByDesc(ChangeLog::getCreatedAt, ChangeLog::getId);
+        con.last("LIMIT 1");
+        return getOne(con, false);
+    }
+
+    /**
+     * 按ID顺序读取(子)钱包(afterId, toId]区间的变更日志，走IDX_UID_CURRENCY_SHARD_ID.
+     */
+    @NonNull
+    public List<ChangeLog> listChain(@NonNull Long uid, @NonNull String currency, int shard, long afterId, long toId,
+            int limit) {
+        val con = Wrappers.lambdaQuery(ChangeLog.class);
+        con.eq(ChangeLog::getUid, uid);
+        con.eq(ChangeLog::getCurrency, currency);
+        con.eq(ChangeLog::getShard, shard);
+        con.gt(ChangeLog::getId, afterId);
+        con.le(ChangeLog::getId, toId);
+        con.orderByAsc(ChangeLog::getId);
+        con.last("LIMIT " + limit);
+        return list(con);
+    }
+
+    /**
+     * 按主键区间(afterId, toId]顺序读取一批记录，用于导出.
+     */
+    @NonNull
+    public List<ChangeLog> listAfter(long afterId, long toId, int limit) {
+        val con = Wrappers.lambdaQuery(ChangeLog.class);
+        con.gt(ChangeLog::getId, afterId);
+        con.le(ChangeLog::getId, toId);
+        con.orderByAsc(ChangeLog::getId);
+        con.last("LIMIT " + limit);
+        return list(con);
+    }
+
+    /**
+     * 写入时间不晚于createdAt的记录中最大的主键，没有记录时为0.
+     */
+    public long maxIdBefore(long createdAt) {
+        val con = Wrappers.lambdaQuery(ChangeLog.class);
+        con.select(ChangeLog::getId);
+        con.le(ChangeLog::getCreatedAt, createdAt);
+        con.orderByDesc(ChangeLog::getId);
+        con.last("LIMIT 1");
+        val last = getOne(con, false);
+        return last == null ? 0L : last.getId();
+    }
+
 }
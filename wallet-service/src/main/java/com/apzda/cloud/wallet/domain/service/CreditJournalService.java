@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.domain.entity.CreditJournal;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.mapper.CreditJournalMapper;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 待入账收入流水.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+public class CreditJournalService extends ServiceImpl<CreditJournalMapper, CreditJournal> {
+
+    /**
+     * 写入待入账收入，须在保存交易记录的事务中调用.
+     */
+    public void append(@NonNull Transaction transaction) {
+        if (!save(CreditJournal.of(transaction))) {
+            throw new IllegalStateException("Cannot save credit journal of transaction " + transaction.getId());
+        }
+    }
+
+    /**
+     * 按ID顺序锁定读取钱包的一批待入账收入，须在已锁定钱包的事务中调用.
+     */
+    @NonNull
+    public List<CreditJournal> pending(@NonNull Long uid, @NonNull String currency, int limit) {
+        return baseMapper.pending(uid, currency, limit);
+    }
+
+    /**
+     * ID大于afterId的一批待入账收入所属的钱包，按最早的收入排序.
+     * @param limit 最多查看的待入账收入数
+     * @return 钱包及其在这批中的最大ID，下一批从其中的最大值之后开始
+     */
+    @NonNull
+    public Map<WalletKey, Long> pendingWallets(long afterId, int limit) {
+        val wallets = new LinkedHashMap<WalletKey, Long>();
+        for (val journal : baseMapper.pendingWallets(afterId, limit)) {
+            wallets.put(new WalletKey(journal.getUid(), journal.getCurrency()), journal.getId());
+        }
+        return wallets;
+    }
+
+    /**
+     * 删除已入账的收入，与写入变更日志在同一事务中调用.
+     * @throws IllegalStateException 部分收入已被其它事务入账
+     */
+    public void applied(@NonNull Collection<CreditJournal> journals) {
+        if (journals.isEmpty()) {
+            return;
+        }
+        val ids = new ArrayList<Long>(journals.size());
+        for (val journal : journals) {
+            ids.add(journal.getId());
+        }
+        val deleted = baseMapper.deleteBatchIds(ids);
+        if (deleted != ids.size()) {
+            throw new IllegalStateException("Credit journals had been applied: " + deleted + " != " + ids.size());
+        }
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import cn.hutool.core.date.DateUtil;
+import com.apzda.cloud.wallet.config.WalletConfig;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.CurrencyDailyStat;
+import com.apzda.cloud.wallet.domain.entity.WalletDailyStat;
+import com.apzda.cloud.wallet.domain.mapper.CurrencyDailyStatMapper;
+import com.apzda.cloud.wallet.domain.mapper.WalletDailyStatMapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * 日汇总: 按日期折叠变更日志，批量累加到钱包与币种的日汇总行.
+ * <p>
+ * 变更日志按ID顺序汇总，汇总结果与汇总进度(检查点)在同一事务中提交，重复执行不会重复累加；提交晚于汇总进度的日志
+ * 之后单独补汇总，钱包日终余额只被更新的日志覆盖，币种日终余额顺延到之后已有的日期.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+@RequiredArgsConstructor
+public class DailyStatService extends ServiceImpl<WalletDailyStatMapper, WalletDailyStat> {
+
+    private final CurrencyDailyStatMapper currencyDailyStatMapper;
+
+    private final JobCheckpointService jobCheckpointService;
+
+    /**
+     * 汇总一批变更日志并推进检查点.
+     * @param logs 按ID升序，且都未被汇总过
+     * @param expect 当前检查点
+     * @param next 汇总这批日志之后的检查点
+     * @throws IllegalStateException 检查点已被其它实例推进
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void apply(@NonNull List<ChangeLog> logs, @NonNull ZoneId zone, @NonNull String job,
+            @NonNull String partKey, @NonNull String expect, @NonNull String next) {
+        if (logs.isEmpty()) {
+            return;
+        }
+        if (!jobCheckpointService.compareAndStore(job, partKey, expect, next)) {
+            throw new IllegalStateException("Checkpoint of " + job + " had been moved from " + expect);
+        }
+        val now = DateUtil.current();
+        val wallets = foldWallets(logs, zone);
+        for (val stat : wallets) {
+            stat.setId(IdWorker.getId());
+        }
+        baseMapper.upsert(wallets, now);
+
+        val currencies = close(foldCurrencies(logs, zone));
+        for (val stat : currencies) {
+            stat.setId(IdWorker.getId());
+        }
+        currencyDailyStatMapper.upsert(currencies, now);
+    }
+
+    /**
+     * 清空汇总结果并把检查点重置为0，之后从第一条变更日志开始重新汇总.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void reset(@NonNull String job, @NonNull String partKey) {
+        baseMapper.clear();
+        currencyDailyStatMapper.clear();
+        jobCheckpointService.store(job, partKey, "0");
+    }
+
+    /**
+     * 钱包在[fromDay, toDay]之间的日汇总，没有变更的日期不包含在结果中；分为多个子钱包时按日合计.
+     */
+    @NonNull
+    public List<WalletDailyStat> walletStats(@NonNull Long uid, @NonNull String currency, int fromDay, int toDay) {
+        val con = Wrappers.lambdaQuery(WalletDailyStat.class);
+        con.eq(WalletDailyStat::getUid, uid);
+        con.eq(WalletDailyStat::getCurrency, currency);
+        con.between(WalletDailyStat::getDay, fromDay, toDay);
+        con.orderByAsc(WalletDailyStat::getDay);
+        val stats = list(con);
+        if (WalletConfig.getCurrencyConfig(currency).shardsOf(uid) <= 1
+                && stats.stream().allMatch(stat -> stat.getShard() == 0)) {
+            return stats;
+        }
+        return mergeShards(closedBefore(uid, currency, fromDay), stats);
+    }
+
+    /**
+     * 币种在[fromDay, toDay]之间的日汇总，没有变更的日期不包含在结果中.
+     */
+    @NonNull
+    public List<CurrencyDailyStat> currencyStats(@NonNull String currency, int fromDay, int toDay) {
+        val con = Wrappers.lambdaQuery(CurrencyDailyStat.class);
+        con.eq(CurrencyDailyStat::getCurrency, currency);
+        con.between(CurrencyDailyStat::getDay, fromDay, toDay);
+        con.orderByAsc(CurrencyDailyStat::getDay);
+        return currencyDailyStatMapper.selectList(con);
+    }
+
+    /**
+     * 币种日终余额 = 截至当日已有的日终余额 + 本批次截至当日的净变动.
+     * <p>
+     * 本批次之后的日期已有汇总时(补汇总提交较晚的日志)，同时顺延这些日期的日终余额.
+     * @return 需要写入的日汇总，包括只更新日终余额的已有日期
+     */
+    private List<CurrencyDailyStat> close(List<CurrencyDailyStat> stats) {
+        val grouped = new HashMap<String, TreeMap<Integer, CurrencyDailyStat>>();
+        for (val stat : stats) {
+            grouped.computeIfAbsent(stat.getCurrency(), key -> new TreeMap<>()).put(stat.getDay(), stat);
+        }
+        val closed = new ArrayList<CurrencyDailyStat>(stats.size());
+        for (val entry : grouped.entrySet()) {
+            val currency = entry.getKey();
+            val days = entry.getValue();
+            val closing = new TreeMap<Integer, CurrencyDailyStat>();
+            for (val stat : closedSince(currency, days.firstKey())) {
+                closing.put(stat.getDay(), stat);
+            }
+            for (val day : closing.tailMap(days.firstKey()).keySet()) {
+                days.computeIfAbsent(day, key -> emptyStat(currency, key));
+            }
+            var balance = 0L;
+            var frozen = 0L;
+            for (val stat : days.values()) {
+                balance += stat.getBalanceDelta();
+                frozen += stat.getFrozenDelta();
+                val base = closing.floorEntry(stat.getDay());
+                stat.setClosingBalance((base == null ? 0L : base.getValue().getClosingBalance()) + balance);
+                stat.setClosingFrozen((base == null ? 0L : base.getValue().getClosingFrozen()) + frozen);
+                closed.add(stat);
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * 从day开始的日汇总，以及之前最近一日的日汇总.
+     */
+    private List<CurrencyDailyStat> closedSince(String currency, int day) {
+        val con = Wrappers.lambdaQuery(CurrencyDailyStat.class);
+        con.eq(CurrencyDailyStat::getCurrency, currency);
+        con.ge(CurrencyDailyStat::getDay, day);
+        val stats = new ArrayList<>(currencyDailyStatMapper.selectList(con));
+
+        val prev = Wrappers.lambdaQuery(CurrencyDailyStat.class);
+        prev.eq(CurrencyDailyStat::getCurrency, currency);
+        prev.lt(CurrencyDailyStat::getDay, day);
+        prev.orderByDesc(CurrencyDailyStat::getDay);
+        prev.last("LIMIT 1");
+        stats.addAll(currencyDailyStatMapper.selectList(prev));
+        return stats;
+    }
+
+    /**
+     * 各子钱包在day之前最近一日的日汇总.
+     */
+    private List<WalletDailyStat> closedBefore(Long uid, String currency, int day) {
+        val latest = Wrappers.query(WalletDailyStat.class);
+        latest.select("shard", "MAX(day) AS day");
+        latest.eq("uid", uid);
+        latest.eq("currency", currency);
+        latest.lt("day", day);
+        latest.groupBy("shard");
+
+        val stats = new ArrayList<WalletDailyStat>();
+        for (val shard : list(latest)) {
+            val con = Wrappers.lambdaQuery(WalletDailyStat.class);
+            con.eq(WalletDailyStat::getUid, uid);
+            con.eq(WalletDailyStat::getCurrency, currency);
+            con.eq(WalletDailyStat::getShard, shard.getShard());
+            con.eq(WalletDailyStat::getDay, shard.getDay());
+            val stat = getOne(con, false);
+            if (stat != null) {
+                stats.add(stat);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 按日合计各子钱包的日汇总: 变动相加，日终余额为各子钱包截至当日的日终余额之和.
+     * @param previous 各子钱包在查询区间之前最近一日的日汇总
+     * @param stats 按日期升序
+     */
+    @NonNull
+    static List<WalletDailyStat> mergeShards(@NonNull List<WalletDailyStat> previous,
+            @NonNull List<WalletDailyStat> stats) {
+        val closing = new HashMap<Integer, WalletDailyStat>();
+        for (val stat : previous) {
+            closing.put(stat.getShard(), stat);
+        }
+        val merged = new ArrayList<WalletDailyStat>();
+        WalletDailyStat current = null;
+        for (val stat : stats) {
+            if (current == null || !current.getDay().equals(stat.getDay())) {
+                if (current != null) {
+                    merged.add(close(current, closing.values()));
+                }
+                current = new WalletDailyStat();
+                current.setUid(stat.getUid());
+                current.setCurrency(stat.getCurrency());
+                current.setDay(stat.getDay());
+                current.setIncome(0L);
+                current.setOutlay(0L);
+                current.setFrozenIn(0L);
+                current.setFrozenOut(0L);
+                current.setTrades(0);
+                current.setLastLogId(0L);
+            }
+            current.setIncome(current.getIncome() + stat.getIncome());
+            current.setOutlay(current.getOutlay() + stat.getOutlay());
+            current.setFrozenIn(current.getFrozenIn() + stat.getFrozenIn());
+            current.setFrozenOut(current.getFrozenOut() + stat.getFrozenOut());
+            current.setTrades(current.getTrades() + stat.getTrades());
+            current.setLastLogId(Math.max(current.getLastLogId(), stat.getLastLogId()));
+            closing.put(stat.getShard(), stat);
+        }
+        if (current != null) {
+            merged.add(close(current, closing.values()));
+        }
+        return merged;
+    }
+
+    private static WalletDailyStat close(WalletDailyStat stat, Collection<WalletDailyStat> shards) {
+        var balance = 0L;
+        var frozen = 0L;
+        for (val shard : shards) {
+            balance += shard.getClosingBalance();
+            frozen += shard.getClosingFrozen();
+        }
+        stat.setClosingBalance(balance);
+        stat.setClosingFrozen(frozen);
+        return stat;
+    }
+
+    /**
+     * 子钱包之间的归集只改变余额的分布，不计入收入、支出与变更次数.
+     */
+    static boolean isRebalance(@NonNull ChangeLog changeLog) {
+        return "system".equals(changeLog.getBiz()) && WalletService.REBALANCE.equals(changeLog.getBizSubject());
+    }
+
+    /**
+     * 按(uid, currency, shard, day)折叠变更日志.
+     */
+    @NonNull
+    static List<WalletDailyStat> foldWallets(@NonNull List<ChangeLog> logs, @NonNull ZoneId zone) {
+        val stats = new LinkedHashMap<String, WalletDailyStat>();
+        for (val changeLog : logs) {
+            val day = day(changeLog.getCreatedAt(), zone);
+            val group = changeLog.getUid() + ":" + changeLog.getCurrency() + ":" + changeLog.getShard() + ":" + day;
+            val stat = stats.computeIfAbsent(group, key -> {
+                val s = new WalletDailyStat();
+                s.setUid(changeLog.getUid());
+                s.setCurrency(changeLog.getCurrency());
+                s.setShard(changeLog.getShard());
+                s.setDay(day);
+                s.setIncome(0L);
+                s.setOutlay(0L);
+                s.setFrozenIn(0L);
+                s.setFrozenOut(0L);
+                s.setTrades(0);
+                return s;
+            });
+            if (!isRebalance(changeLog)) {
+                val balance = changeLog.getBalance() - changeLog.getPreBalance();
+                val frozen = changeLog.getFrozen() - changeLog.getPreFrozen();
+                stat.setIncome(stat.getIncome() + Math.max(balance, 0));
+                stat.setOutlay(stat.getOutlay() + Math.max(-balance, 0));
+                stat.setFrozenIn(stat.getFrozenIn() + Math.max(frozen, 0));
+                stat.setFrozenOut(stat.getFrozenOut() + Math.max(-frozen, 0));
+                stat.setTrades(stat.getTrades() + 1);
+            }
+            stat.setClosingBalance(changeLog.getBalance());
+            stat.setClosingFrozen(changeLog.getFrozen());
+            stat.setLastLogId(changeLog.getId());
+        }
+        return new ArrayList<>(stats.values());
+    }
+
+    /**
+     * 按(currency, day)折叠变更日志，日终余额由{@link #close(List)}计算.
+     */
+    @NonNull
+    static List<CurrencyDailyStat> foldCurrencies(@NonNull List<ChangeLog> logs, @NonNull ZoneId zone) {
+        val stats = new LinkedHashMap<String, CurrencyDailyStat>();
+        for (val changeLog : logs) {
+            val day = day(changeLog.getCreatedAt(), zone);
+            val stat = stats.computeIfAbsent(changeLog.getCurrency() + ":" + day,
+                    key -> emptyStat(changeLog.getCurrency(), day));
+            val balance = changeLog.getBalance() - changeLog.getPreBalance();
+            val frozen = changeLog.getFrozen() - changeLog.getPreFrozen();
+            if (!isRebalance(changeLog)) {
+                stat.setIncome(stat.getIncome() + Math.max(balance, 0));
+                stat.setOutlay(stat.getOutlay() + Math.max(-balance, 0));
+                stat.setFrozenIn(stat.getFrozenIn() + Math.max(frozen, 0));
+                stat.setFrozenOut(stat.getFrozenOut() + Math.max(-frozen, 0));
+                stat.setTrades(stat.getTrades() + 1);
+            }
+            stat.setBalanceDelta(stat.getBalanceDelta() + balance);
+            stat.setFrozenDelta(stat.getFrozenDelta() + frozen);
+        }
+        return new ArrayList<>(stats.values());
+    }
+
+    private static CurrencyDailyStat emptyStat(String currency, int day) {
+        val stat = new CurrencyDailyStat();
+        stat.setCurrency(currency);
+        stat.setDay(day);
+        stat.setIncome(0L);
+        stat.setOutlay(0L);
+        stat.setFrozenIn(0L);
+        stat.setFrozenOut(0L);
+        stat.setTrades(0);
+        return stat;
+    }
+
+    /**
+     * 时间戳所在的日期(yyyyMMdd).
+     */
+    static int day(long timestamp, @NonNull ZoneId zone) {
+        val date = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+}
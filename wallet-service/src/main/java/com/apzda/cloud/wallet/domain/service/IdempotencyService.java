@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.config.WalletProperties;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.Objects;
+
+/**
+ * 交易幂等: 按(biz, biz_subject, biz_id)在有界缓存与UDX_SSID索引中查找已完成的交易，重试请求直接返回原交易，不打开钱包、不加锁.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+public class IdempotencyService {
+
+    private final TransactionService transactionService;
+
+    private final Cache<String, Transaction> completed;
+
+    public IdempotencyService(@NonNull TransactionService transactionService,
+            @NonNull WalletProperties properties) {
+        val idempotency = properties.getIdempotency();
+        this.transactionService = transactionService;
+        this.completed = Caffeine.newBuilder()
+            .expireAfterWrite(idempotency.getTtl())
+            .maximumSize(idempotency.getCacheSize())
+            .build();
+    }
+
+    /**
+     * 查找已完成的同一笔交易.
+     * @return 原交易，不存在时返回null
+     * @throws WalletException 业务单号已被用户、币种或金额不同的交易使用(DUPLICATE_TRADE)
+     */
+    @Nullable
+    public Transaction lookup(@NonNull TradeDTO tradeDTO) {
+        val key = TransactionService.bizKey(tradeDTO.getBiz(), tradeDTO.getBizSubject(), tradeDTO.getBizId());
+        var transaction = completed.getIfPresent(key);
+        if (transaction == null) {
+            transaction = transactionService.getByBizKey(tradeDTO.getBiz(), tradeDTO.getBizSubject(),
+                    tradeDTO.getBizId());
+            if (transaction == null) {
+                return null;
+            }
+            completed.put(key, transaction);
+        }
+        if (!sameTrade(transaction, tradeDTO)) {
+            throw new WalletException(WalletError.DUPLICATE_TRADE, tradeDTO.getUid(), tradeDTO.getCurrency());
+        }
+        return transaction;
+    }
+
+    /**
+     * 记录已提交的交易.
+     */
+    public void remember(@NonNull Transaction transaction) {
+        completed.put(TransactionService.bizKey(transaction.getBiz(), transaction.getBizSubject(),
+                transaction.getBizId()), transaction);
+    }
+
+    static boolean sameTrade(@NonNull Transaction transaction, @NonNull TradeDTO tradeDTO) {
+        if (!Objects.equals(transaction.getUid(), tradeDTO.getUid())
+                || !Objects.equals(transaction.getCurrency(), tradeDTO.getCurrency())) {
+            return false;
+        }
+        val wallet = new Wallet();
+        wallet.setUid(tradeDTO.getUid());
+        wallet.setCurrency(tradeDTO.getCurrency());
+        return Objects.equals(transaction.getAmount(), wallet.amountOf(tradeDTO));
+    }
+
+}
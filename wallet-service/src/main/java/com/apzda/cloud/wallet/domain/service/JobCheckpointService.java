@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import cn.hutool.core.date.DateUtil;
+import com.apzda.cloud.wallet.domain.entity.JobCheckpoint;
+import com.apzda.cloud.wallet.domain.mapper.JobCheckpointMapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 后台任务检查点: 每个任务的每个分区保存一个由任务自行解释的值，任务中断后从检查点继续.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+public class JobCheckpointService extends ServiceImpl<JobCheckpointMapper, JobCheckpoint> {
+
+    @Nullable
+    public String load(@NonNull String job, @NonNull String partKey) {
+        val con = Wrappers.lambdaQuery(JobCheckpoint.class);
+        con.eq(JobCheckpoint::getJob, job);
+        con.eq(JobCheckpoint::getPartKey, partKey);
+        val checkpoint = getOne(con, false);
+        return checkpoint == null ? null : checkpoint.getValue();
+    }
+
+    /**
+     * 批量读取检查点.
+     * @return partKey -> value，没有检查点的分区不包含在结果中
+     */
+    @NonNull
+    public Map<String, String> loadAll(@NonNull String job, @NonNull Collection<String> partKeys) {
+        if (partKeys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        val con = Wrappers.lambdaQuery(JobCheckpoint.class);
+        con.eq(JobCheckpoint::getJob, job);
+        con.in(JobCheckpoint::getPartKey, partKeys);
+        val checkpoints = new HashMap<String, String>();
+        for (val checkpoint : list(con)) {
+            if (checkpoint.getValue() != null) {
+                checkpoints.put(checkpoint.getPartKey(), checkpoint.getValue());
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * 保存检查点，value为null表示下次从头开始.
+     */
+    public void store(@NonNull String job, @NonNull String partKey, @Nullable String value) {
+        baseMapper.upsert(IdWorker.getId(), job, partKey, value, DateUtil.current());
+    }
+
+    /**
+     * 检查点仍为expect时才保存，用于多个实例争抢同一分区.
+     * @return 是否保存成功
+     */
+    public boolean compareAndStore(@NonNull String job, @NonNull String partKey, @NonNull String expect,
+            @NonNull String value) {
+        return baseMapper.compareAndSet(job, partKey, expect, value, DateUtil.current()) > 0;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.domain.entity.Outlay;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 支出在收入(按过期时间先后)上的分配结果，全部在内存中计算，分配完成后再一次性写库.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+final class LotAllocation {
+
+    private final Transaction transaction;
+
+    /**
+     * 被使用的收入(余额已扣减)
+     */
+    private final List<Outlay> consumed = new ArrayList<>();
+
+    /**
+     * 新的支出记录
+     */
+    private final List<Outlay> outlays = new ArrayList<>();
+
+    private long remaining;
+
+    LotAllocation(@NonNull Transaction transaction) {
+        this.transaction = transaction;
+        this.remaining = transaction.getAmount();
+    }
+
+    /**
+     * 从收入中扣减.
+     * @param income 收入
+     * @return 是否已全部分配
+     */
+    boolean take(@NonNull Outlay income) {
+        val balance = income.getBalance();
+        if (remaining <= 0 || balance == null || balance <= 0) {
+            return remaining <= 0;
+        }
+
+        val use = Math.min(balance, remaining);
+        remaining -= use;
+        income.setBalance(balance - use);
+
+        val out = new Outlay();
+        out.setUid(transaction.getUid());
+        out.setCurrency(transaction.getCurrency());
+        out.setTransactionId(income.getTransactionId());
+        out.setOutlayTransactionId(transaction.getId());
+        out.setIncome(0L);
+        out.setBalance(0L);
+        out.setAmount(transaction.getAmount());
+        out.setUseAmount(use);
+        out.setMargin(remaining);
+        out.setExpiredAt(income.getExpiredAt());
+
+        consumed.add(income);
+        outlays.add(out);
+        return remaining <= 0;
+    }
+
+    Transaction getTransaction() {
+        return transaction;
+    }
+
+    long getRemaining() {
+        return remaining;
+    }
+
+    List<Outlay> getConsumed() {
+        return consumed;
+    }
+
+    List<Outlay> getOutlays() {
+        return outlays;
+    }
+
+}
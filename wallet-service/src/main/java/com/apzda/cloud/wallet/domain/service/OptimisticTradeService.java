@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.config.WalletProperties;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * 乐观交易的重试: 每次尝试在独立事务中执行，冲突时按指数退避(带随机抖动)重试，超过次数后返回LOCK_TIMEOUT.
+ * <p>
+ * 乐观锁交易在链头被推进时冲突；热点钱包的支出在锁定子钱包后发现余额已被其它支出扣减时冲突.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class OptimisticTradeService {
+
+    private final WalletService walletService;
+
+    private final WalletProperties walletProperties;
+
+    @NonNull
+    public Transaction trade(@NonNull TradeDTO tradeDTO) {
+        return retry(tradeDTO, () -> walletService.tradeOptimistic(tradeDTO));
+    }
+
+    /**
+     * 热点钱包交易，调用方不能处于事务中，否则重试无法释放已持有的子钱包锁.
+     */
+    @NonNull
+    public Transaction tradeSharded(@NonNull TradeDTO tradeDTO) {
+        return retry(tradeDTO, () -> walletService.trade(tradeDTO));
+    }
+
+    @NonNull
+    private Transaction retry(@NonNull TradeDTO tradeDTO, @NonNull Supplier<Transaction> attempt) {
+        val lock = walletProperties.getLock();
+        val maxAttempts = Math.max(1, lock.getMaxAttempts());
+        for (int i = 1;; i++) {
+            try {
+                return attempt.get();
+            }
+            catch (WalletException e) {
+                if (e.getServiceError().code() != WalletError.CONCURRENT_UPDATE.getCode()) {
+                    throw e;
+                }
+                if (i >= maxAttempts) {
+                    log.warn("Wallet(uid: {}, currency: {}) is still updated concurrently after {} attempts",
+                            tradeDTO.getUid(), tradeDTO.getCurrency(), i);
+                    throw new WalletException(WalletError.LOCK_TIMEOUT, tradeDTO.getUid(), tradeDTO.getCurrency(),
+                            e);
+                }
+            }
+            pause(backoff(i, lock.getBackoff().toMillis(), lock.getMaxBackoff().toMillis()));
+        }
+    }
+
+    /**
+     * 第attempt次冲突后的等待时间: min(base * 2^(attempt-1), max)，取其一半到全部之间的随机值.
+     */
+    static long backoff(int attempt, long base, long max) {
+        if (base <= 0) {
+            return 0;
+        }
+        val exp = base << Math.min(attempt - 1, 20);
+        val delay = Math.min(exp, Math.max(base, max));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry trade", e);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.WalletOutbox;
+import com.apzda.cloud.wallet.domain.mapper.WalletOutboxMapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 钱包变更事件发件箱.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+public class OutboxService extends ServiceImpl<WalletOutboxMapper, WalletOutbox> {
+
+    /**
+     * 写入变更日志对应的事件，须在写入变更日志的事务中调用.
+     */
+    public void append(@NonNull ChangeLog changeLog) {
+        if (!save(WalletOutbox.of(changeLog))) {
+            throw new IllegalStateException("Cannot save outbox event of change log " + changeLog.getId());
+        }
+    }
+
+    /**
+     * 批量写入事件，须在写入变更日志的事务中调用.
+     */
+    public void appendAll(@NonNull Collection<ChangeLog> changeLogs) {
+        if (changeLogs.isEmpty()) {
+            return;
+        }
+        val events = new ArrayList<WalletOutbox>(changeLogs.size());
+        for (val changeLog : changeLogs) {
+            events.add(WalletOutbox.of(changeLog));
+        }
+        if (!saveBatch(events)) {
+            throw new IllegalStateException("Cannot save outbox events of batch trade");
+        }
+    }
+
+    /**
+     * 按ID顺序读取(afterId, ∞)的一批事件.
+     */
+    @NonNull
+    public List<WalletOutbox> listAfter(long afterId, int limit) {
+        val con = Wrappers.lambdaQuery(WalletOutbox.class);
+        con.gt(WalletOutbox::getId, afterId);
+        con.orderByAsc(WalletOutbox::getId);
+        con.last("LIMIT " + limit);
+        return list(con);
+    }
+
+    /**
+     * 删除已投递(ID不大于maxId)且早于before的事件.
+     * @return 删除的行数
+     */
+    public int purge(long maxId, long before, int limit) {
+        return baseMapper.purge(maxId, before, limit);
+    }
+
+}
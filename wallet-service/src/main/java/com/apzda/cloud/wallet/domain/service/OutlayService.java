@@ -20,15 +20,16 @@ import cn.hutool.core.date.DateUtil;
 import com.apzda.cloud.wallet.domain.entity.Outlay;
 import com.apzda.cloud.wallet.domain.entity.Transaction;
 import com.apzda.cloud.wallet.domain.mapper.OutlayMapper;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
 import com.apzda.cloud.wallet.error.WalletError;
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -41,6 +42,13 @@ import java.util.stream.Collectors;
 @Slf4j
 public class OutlayService extends ServiceImpl<OutlayMapper, Outlay> {
 
+    /**
+     * 第一页收入数，之后每页翻倍
+     */
+    static final int FIRST_PAGE_SIZE = 16;
+
+    static final int MAX_PAGE_SIZE = 512;
+
     @Transactional
     public void newIncome(Transaction transaction) {
         val outlay = new Outlay();
@@ -62,65 +70,70 @@ public class OutlayService extends ServiceImpl<OutlayMapper, Outlay> {
 
     @Transactional
     public void outlay(Transaction transaction) {
-        var amount = transaction.getAmount();
         val uid = transaction.getUid();
         val currency = transaction.getCurrency();
-        val outs = new ArrayList<Outlay>();
-        val newOutlays = new ArrayList<Outlay>();
-
-        while (amount > 0) {
-            outs.clear();
-            val incomes = availableTransactions(uid, currency);
-
-            if (incomes.isEmpty()) {
-                log.error("支出: {}, 余额不足, 差额: {}", transaction.getId(), amount);
-                WalletError.INSUFFICIENT_BALANCE.emit(uid, currency);
-            }
-
+        val now = DateUtil.current();
+        val allocation = new LotAllocation(transaction);
+        var pageSize = FIRST_PAGE_SIZE;
+        Outlay last = null;
+        var pages = 0;
+
+        // 先在内存中完成分配，余额不足时不会产生任何写操作
+        while (allocation.getRemaining() > 0) {
+            val incomes = availableTransactions(uid, currency, now, last, pageSize);
+            pages++;
             for (Outlay income : incomes) {
-                val out = new Outlay();
-                val balance = income.getBalance();
-
-                out.setUid(uid);
-                out.setCurrency(currency);
-                out.setTransactionId(income.getTransactionId());
-                out.setOutlayTransactionId(transaction.getId());
-                out.setIncome(0L);
-                out.setBalance(0L);
-                out.setAmount(transaction.getAmount());
-                out.setExpiredAt(income.getExpiredAt());
-
-                outs.add(income);
-                newOutlays.add(out);
-
-                if (balance >= amount) {
-                    income.setBalance(income.getBalance() - amount);
-                    out.setUseAmount(amount);
-                    out.setMargin(0L);
-                    amount = 0L;
+                if (allocation.take(income)) {
                     break;
                 }
-                else {
-                    out.setUseAmount(income.getBalance());
-                    amount = amount - income.getBalance();
-                    out.setMargin(amount);
-                    income.setBalance(0L);
-                }
             }
 
-            if ((amount > 0 && incomes.size() <= 10)) {
-                log.error("支出: {}, 余额不足, 差额: {}", transaction.getId(), amount);
+            if (allocation.getRemaining() > 0 && incomes.size() < pageSize) {
+                log.error("支出: {}, 余额不足, 差额: {}", transaction.getId(), allocation.getRemaining());
                 WalletError.INSUFFICIENT_BALANCE.emit(uid, currency);
             }
-
-            if (!updateBatchById(outs)) {
-                WalletError.LOG_CANNOT_SAVE.emit(uid, currency);
+            if (!incomes.isEmpty()) {
+                last = incomes.get(incomes.size() - 1);
             }
+            pageSize = Math.min(pageSize << 1, MAX_PAGE_SIZE);
         }
 
         if (log.isDebugEnabled()) {
-            log.debug("支出:{}, 一共使用{}条收入: {}", transaction.getId(), newOutlays.size(),
-                    newOutlays.stream().map(Outlay::getTransactionId).collect(Collectors.toList()));
+            log.debug("支出:{}, 查询{}页, 一共使用{}条收入: {}", transaction.getId(), pages,
+                    allocation.getOutlays().size(),
+                    allocation.getOutlays().stream().map(Outlay::getTransactionId).collect(Collectors.toList()));
+        }
+
+        write(allocation, now);
+    }
+
+    /**
+     * 使用已过期的收入完成支出(system/expire)，收入须已按过期时间排序且余额之和不小于支出金额.
+     */
+    @Transactional
+    public void expire(Transaction transaction, List<Outlay> expiredLots) {
+        val allocation = new LotAllocation(transaction);
+        for (Outlay lot : expiredLots) {
+            if (allocation.take(lot)) {
+                break;
+            }
+        }
+        if (allocation.getRemaining() > 0) {
+            log.error("过期: {}, 过期收入不足, 差额: {}", transaction.getId(), allocation.getRemaining());
+            WalletError.INSUFFICIENT_BALANCE.emit(transaction.getUid(), transaction.getCurrency());
+        }
+
+        write(allocation, DateUtil.current());
+    }
+
+    private void write(LotAllocation allocation, long now) {
+        val uid = allocation.getTransaction().getUid();
+        val currency = allocation.getTransaction().getCurrency();
+        val consumed = allocation.getConsumed();
+        val newOutlays = allocation.getOutlays();
+
+        if (!consumed.isEmpty() && getBaseMapper().updateBalances(consumed, now) != consumed.size()) {
+            WalletError.LOG_CANNOT_SAVE.emit(uid, currency);
         }
 
         if (!newOutlays.isEmpty() && !saveBatch(newOutlays)) {
@@ -128,14 +141,71 @@ public class OutlayService extends ServiceImpl<OutlayMapper, Outlay> {
         }
     }
 
+    /**
+     * 最先过期的至多10条可用收入，分页大小只在支出分配内部放大.
+     */
     public List<Outlay> availableTransactions(long uid, String currency) {
+        return availableTransactions(uid, currency, DateUtil.current(), null, 10);
+    }
+
+    /**
+     * 按(expired_at, id)键集分页查询可用收入，使用IDX_UID_CURRENCY_EXPIRE_AT索引.
+     * @param after 上一页最后一条，为null时查询第一页
+     */
+    public List<Outlay> availableTransactions(long uid, String currency, long now, Outlay after, int limit) {
         val con = Wrappers.lambdaQuery(Outlay.class);
         con.eq(Outlay::getUid, uid);
         con.eq(Outlay::getCurrency, currency);
         con.gt(Outlay::getBalance, 0);
-        con.ge(Outlay::getExpiredAt, DateUtil.current());
-        con.orderByAsc(Outlay::getExpiredAt);
-        con.last("LIMIT 10");
+        con.ge(Outlay::getExpiredAt, now);
+        if (after != null) {
+            val expiredAt = after.getExpiredAt();
+            val id = after.getId();
+            con.and(w -> w.gt(Outlay::getExpiredAt, expiredAt)
+                .or(o -> o.eq(Outlay::getExpiredAt, expiredAt).gt(Outlay::getId, id)));
+        }
+        con.orderByAsc(Outlay::getExpiredAt, Outlay::getId);
+        con.last("LIMIT " + limit);
+
+        return list(con);
+    }
+
+    /**
+     * 钱包已过期且有余额的收入(按过期时间先后).
+     */
+    public List<Outlay> expiredLots(long uid, String currency, long now, int limit) {
+        val con = Wrappers.lambdaQuery(Outlay.class);
+        con.eq(Outlay::getUid, uid);
+        con.eq(Outlay::getCurrency, currency);
+        con.gt(Outlay::getBalance, 0);
+        con.lt(Outlay::getExpiredAt, now);
+        con.orderByAsc(Outlay::getExpiredAt, Outlay::getId);
+        con.last("LIMIT " + limit);
+
+        return list(con);
+    }
+
+    /**
+     * 分区内(MOD(uid, partitions) = partition)有过期收入的钱包，按(uid, currency)键集分页.
+     * <p>
+     * 在IDX_EXPIRED_AT_BALANCE上按expired_at范围扫描，余额、分区与分页条件都由该索引覆盖.
+     * @param after 上一页最后一个钱包，为null时查询第一页
+     * @return 只包含uid与currency
+     */
+    public List<Outlay> expiredWallets(int partition, int partitions, @Nullable WalletKey after, long now,
+            int limit) {
+        val con = Wrappers.lambdaQuery(Outlay.class);
+        con.select(Outlay::getUid, Outlay::getCurrency);
+        con.gt(Outlay::getBalance, 0);
+        con.lt(Outlay::getExpiredAt, now);
+        con.apply("MOD(uid, {0}) = {1}", partitions, partition);
+        if (after != null) {
+            con.and(w -> w.gt(Outlay::getUid, after.uid())
+                .or(o -> o.eq(Outlay::getUid, after.uid()).gt(Outlay::getCurrency, after.currency())));
+        }
+        con.groupBy(Outlay::getUid, Outlay::getCurrency);
+        con.orderByAsc(Outlay::getUid, Outlay::getCurrency);
+        con.last("LIMIT " + limit);
 
         return list(con);
     }
@@ -18,9 +18,17 @@ package com.apzda.cloud.wallet.domain.service;
 
 import com.apzda.cloud.wallet.domain.entity.Transaction;
 import com.apzda.cloud.wallet.domain.mapper.TransactionMapper;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
+import java.util.*;
+import java.util.stream.Collectors;
+
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
@@ -29,4 +37,85 @@ import org.springframework.stereotype.Service;
 @Service
 public class TransactionService extends ServiceImpl<TransactionMapper, Transaction> {
 
+    /**
+     * 查询已存在的业务单号，按(biz, biz_subject)分组后走UDX_SSID索引.
+     * @return 已存在的{@link #bizKey(String, String, String)}
+     */
+    @NonNull
+    public Set<String> existingBizKeys(@NonNull Collection<TradeDTO> trades) {
+        if (trades.isEmpty()) {
+            return Collections.emptySet();
+        }
+        val grouped = new HashMap<String, Map<String, Set<String>>>();
+        for (val trade : trades) {
+            grouped.computeIfAbsent(trade.getBiz(), biz -> new HashMap<>())
+                .computeIfAbsent(trade.getBizSubject(), subject -> new HashSet<>())
+                .add(trade.getBizId());
+        }
+
+        val con = Wrappers.lambdaQuery(Transaction.class);
+        con.select(Transaction::getBiz, Transaction::getBizSubject, Transaction::getBizId);
+        con.and(w -> {
+            var first = true;
+            for (val biz : grouped.entrySet()) {
+                for (val subject : biz.getValue().entrySet()) {
+                    if (!first) {
+                        w.or();
+                    }
+                    w.nested(q -> q.eq(Transaction::getBiz, biz.getKey())
+                        .eq(Transaction::getBizSubject, subject.getKey())
+                        .in(Transaction::getBizId, subject.getValue()));
+                    first = false;
+                }
+            }
+        });
+
+        return list(con).stream()
+            .map(t -> bizKey(t.getBiz(), t.getBizSubject(), t.getBizId()))
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * 按业务单号查询交易，走UDX_SSID.
+     */
+    @Nullable
+    public Transaction getByBizKey(@NonNull String biz, @NonNull String bizSubject, @NonNull String bizId) {
+        val con = Wrappers.lambdaQuery(Transaction.class);
+        con.eq(Transaction::getBiz, biz);
+        con.eq(Transaction::getBizSubject, bizSubject);
+        con.eq(Transaction::getBizId, bizId);
+        return getOne(con, false);
+    }
+
+    @NonNull
+    public static String bizKey(String biz, String bizSubject, String bizId) {
+        return biz + '\n' + bizSubject + '\n' + bizId;
+    }
+
+    /**
+     * 按主键区间(afterId, toId]顺序读取一批记录，用于导出.
+     */
+    @NonNull
+    public List<Transaction> listAfter(long afterId, long toId, int limit) {
+        val con = Wrappers.lambdaQuery(Transaction.class);
+        con.gt(Transaction::getId, afterId);
+        con.le(Transaction::getId, toId);
+        con.orderByAsc(Transaction::getId);
+        con.last("LIMIT " + limit);
+        return list(con);
+    }
+
+    /**
+     * 写入时间不晚于createdAt的记录中最大的主键，没有记录时为0.
+     */
+    public long maxIdBefore(long createdAt) {
+        val con = Wrappers.lambdaQuery(Transaction.class);
+        con.select(Transaction::getId);
+        con.le(Transaction::getCreatedAt, createdAt);
+        con.orderByDesc(Transaction::getId);
+        con.last("LIMIT 1");
+        val last = getOne(con, false);
+        return last == null ? 0L : last.getId();
+    }
+
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import cn.hutool.core.date.DateUtil;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import com.apzda.cloud.wallet.domain.mapper.WalletCheckpointMapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * 钱包检查点: 定期记录的链头快照，校验与历史查询可从最近的检查点开始.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+public class WalletCheckpointService extends ServiceImpl<WalletCheckpointMapper, WalletCheckpoint> {
+
+    /**
+     * 不晚于指定日志的最近检查点，走UDX_UID_CURRENCY_LOG_ID.
+     * @param maxLogId 为null时返回最新的检查点
+     */
+    @Nullable
+    public WalletCheckpoint nearest(@NonNull Long uid, @NonNull String currency, int shard, @Nullable Long maxLogId) {
+        val con = Wrappers.lambdaQuery(WalletCheckpoint.class);
+        con.eq(WalletCheckpoint::getUid, uid);
+        con.eq(WalletCheckpoint::getCurrency, currency);
+        con.eq(WalletCheckpoint::getShard, shard);
+        con.le(maxLogId != null, WalletCheckpoint::getLogId, maxLogId);
+        con.orderByDesc(WalletCheckpoint::getLogId);
+        con.last("LIMIT 1");
+        return getOne(con, false);
+    }
+
+    /**
+     * 指定日志处的检查点.
+     */
+    @Nullable
+    public WalletCheckpoint atLog(@NonNull Long uid, @NonNull String currency, long logId) {
+        val con = Wrappers.lambdaQuery(WalletCheckpoint.class);
+        con.eq(WalletCheckpoint::getUid, uid);
+        con.eq(WalletCheckpoint::getCurrency, currency);
+        con.eq(WalletCheckpoint::getLogId, logId);
+        return getOne(con, false);
+    }
+
+    /**
+     * 批量查询(子)钱包最新检查点的日志ID.
+     * @return 以{@link #key(Wallet)}为键，没有检查点的钱包不包含在结果中
+     */
+    @NonNull
+    public Map<String, Long> latestLogIds(@NonNull Collection<Wallet> wallets) {
+        if (wallets.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        val uids = new HashSet<Long>();
+        for (val wallet : wallets) {
+            uids.add(wallet.getUid());
+        }
+        val con = Wrappers.query(WalletCheckpoint.class);
+        con.select("uid", "currency", "shard", "MAX(log_id) AS log_id");
+        con.in("uid", uids);
+        con.groupBy("uid", "currency", "shard");
+
+        val latest = new HashMap<String, Long>();
+        for (val checkpoint : list(con)) {
+            latest.put(key(checkpoint.getUid(), checkpoint.getCurrency(), checkpoint.getShard()),
+                    checkpoint.getLogId());
+        }
+        return latest;
+    }
+
+    /**
+     * 批量写入检查点，跳过其它实例已写入的检查点(UDX_UID_CURRENCY_LOG_ID).
+     * @return 新写入的检查点数
+     */
+    public int saveAbsent(@NonNull Collection<WalletCheckpoint> checkpoints) {
+        if (checkpoints.isEmpty()) {
+            return 0;
+        }
+        for (val checkpoint : checkpoints) {
+            if (checkpoint.getId() == null) {
+                checkpoint.setId(IdWorker.getId());
+            }
+        }
+        return baseMapper.insertAbsent(checkpoints, DateUtil.current());
+    }
+
+    @NonNull
+    public static String key(@NonNull Wallet wallet) {
+        return key(wallet.getUid(), wallet.getCurrency(), wallet.getShard());
+    }
+
+    private static String key(Long uid, String currency, int shard) {
+        return uid + ":" + currency + ":" + shard;
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.service;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.mapper.WalletMapper;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * 钱包只读查询: 快照读，不加锁、不创建钱包，与交易路径互不阻塞.
+ * <p>
+ * 分为多个子钱包的钱包按子钱包合计后返回，只有{@link #listWallets(long, int)}返回各子钱包本身.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Service
+@Transactional(readOnly = true)
+public class WalletQueryService extends ServiceImpl<WalletMapper, Wallet> {
+
+    /**
+     * 一条SQL最多查询的uid数
+     */
+    static final int CHUNK_SIZE = 500;
+
+    @Nullable
+    public Wallet readWallet(@NonNull Long uid, @NonNull String currency) {
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.eq(Wallet::getUid, uid);
+        con.eq(Wallet::getCurrency, currency);
+        return merge(list(con));
+    }
+
+    /**
+     * 批量读取钱包，按uid分组后走UDX_UID_CURRENCY_SHARD索引并合计子钱包；同一只读事务内各批次读取同一快照.
+     * @return 存在的钱包，不存在的钱包不包含在结果中
+     */
+    @NonNull
+    public Map<WalletKey, Wallet> readWallets(@NonNull Collection<WalletKey> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        val grouped = new LinkedHashMap<Long, Set<String>>();
+        for (val key : keys) {
+            grouped.computeIfAbsent(key.uid(), uid -> new HashSet<>()).add(key.currency());
+        }
+
+        val shards = new HashMap<WalletKey, List<Wallet>>(keys.size() * 2);
+        val chunk = new ArrayList<Map.Entry<Long, Set<String>>>(CHUNK_SIZE);
+        val it = grouped.entrySet().iterator();
+        while (it.hasNext()) {
+            chunk.add(it.next());
+            if (chunk.size() == CHUNK_SIZE || !it.hasNext()) {
+                for (val wallet : list(byKeys(chunk))) {
+                    shards.computeIfAbsent(new WalletKey(wallet.getUid(), wallet.getCurrency()),
+                            key -> new ArrayList<>(1)).add(wallet);
+                }
+                chunk.clear();
+            }
+        }
+        val wallets = new HashMap<WalletKey, Wallet>(shards.size() * 2);
+        shards.forEach((key, value) -> wallets.put(key, merge(value)));
+        return wallets;
+    }
+
+    /**
+     * 一条SQL读取多个用户的钱包: uid IN (...) [AND currency IN (...)].
+     * @param currencies 为空时读取用户的全部钱包
+     */
+    @NonNull
+    public List<Wallet> listWallets(@NonNull Collection<Long> uids, @Nullable Collection<String> currencies) {
+        if (uids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.in(Wallet::getUid, uids);
+        if (currencies != null && !currencies.isEmpty()) {
+            con.in(Wallet::getCurrency, currencies);
+        }
+        return merge(list(con), Collections.emptyList());
+    }
+
+    /**
+     * 按主键键集分页读取指定币种的全部钱包(以主钱包分页，子钱包合计到主钱包).
+     * @param afterId 上一页最后一个钱包的ID，第一页为0
+     */
+    @NonNull
+    public List<Wallet> listWallets(@NonNull Collection<String> currencies, long afterId, int limit) {
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.in(Wallet::getCurrency, currencies);
+        con.eq(Wallet::getShard, 0);
+        con.gt(Wallet::getId, afterId);
+        con.orderByAsc(Wallet::getId);
+        con.last("LIMIT " + limit);
+        val wallets = list(con);
+        if (wallets.isEmpty()) {
+            return wallets;
+        }
+
+        val uids = new HashSet<Long>();
+        for (val wallet : wallets) {
+            uids.add(wallet.getUid());
+        }
+        val siblings = Wrappers.lambdaQuery(Wallet.class);
+        siblings.in(Wallet::getUid, uids);
+        siblings.in(Wallet::getCurrency, currencies);
+        siblings.gt(Wallet::getShard, 0);
+        return merge(wallets, list(siblings));
+    }
+
+    /**
+     * 读取钱包的全部子钱包(含主钱包)，按子钱包序号升序.
+     */
+    @NonNull
+    public List<Wallet> listShards(@NonNull Long uid, @NonNull String currency) {
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.eq(Wallet::getUid, uid);
+        con.eq(Wallet::getCurrency, currency);
+        con.orderByAsc(Wallet::getShard);
+        return list(con);
+    }
+
+    /**
+     * 按主键键集分页读取全部钱包，子钱包各自返回.
+     */
+    @NonNull
+    public List<Wallet> listWallets(long afterId, int limit) {
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.gt(Wallet::getId, afterId);
+        con.orderByAsc(Wallet::getId);
+        con.last("LIMIT " + limit);
+        return list(con);
+    }
+
+    /**
+     * 按(uid, currency)合计子钱包，保持钱包首次出现的顺序.
+     */
+    private static List<Wallet> merge(List<Wallet> wallets, List<Wallet> siblings) {
+        val shards = new LinkedHashMap<WalletKey, List<Wallet>>(wallets.size() * 2);
+        for (val wallet : wallets) {
+            shards.computeIfAbsent(new WalletKey(wallet.getUid(), wallet.getCurrency()), key -> new ArrayList<>(1))
+                .add(wallet);
+        }
+        for (val wallet : siblings) {
+            val list = shards.get(new WalletKey(wallet.getUid(), wallet.getCurrency()));
+            if (list != null) {
+                list.add(wallet);
+            }
+        }
+        val merged = new ArrayList<Wallet>(shards.size());
+        for (val value : shards.values()) {
+            merged.add(merge(value));
+        }
+        return merged;
+    }
+
+    /**
+     * 合计同一钱包的各子钱包: 金额相加，链头取主钱包的区块与最大的日志ID.
+     * @return 没有子钱包时返回null，只有一个时原样返回
+     */
+    @Nullable
+    static Wallet merge(@NonNull List<Wallet> shards) {
+        if (shards.isEmpty()) {
+            return null;
+        }
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        var head = shards.get(0);
+        for (val wallet : shards) {
+            if (wallet.getShard() < head.getShard()) {
+                head = wallet;
+            }
+        }
+        val merged = BeanUtil.copyProperties(head, Wallet.class);
+        merged.setShard(0);
+        var amount = 0L;
+        var balance = 0L;
+        var withdrawal = 0L;
+        var frozen = 0L;
+        var outlay = 0L;
+        var lastLogId = 0L;
+        var locked = false;
+        for (val wallet : shards) {
+            amount += wallet.getAmount();
+            balance += wallet.getBalance();
+            withdrawal += wallet.getWithdrawal();
+            frozen += wallet.getFrozen();
+            outlay += wallet.getOutlay();
+            if (wallet.getLastLogId() != null) {
+                lastLogId = Math.max(lastLogId, wallet.getLastLogId());
+            }
+            locked |= wallet.isLocked();
+        }
+        merged.setAmount(amount);
+        merged.setBalance(balance);
+        merged.setWithdrawal(withdrawal);
+        merged.setFrozen(frozen);
+        merged.setOutlay(outlay);
+        merged.setLastLogId(lastLogId);
+        merged.setLocked(locked);
+        return merged;
+    }
+
+    private static LambdaQueryWrapper<Wallet> byKeys(List<Map.Entry<Long, Set<String>>> chunk) {
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.and(w -> {
+            var first = true;
+            for (val entry : chunk) {
+                if (!first) {
+                    w.or();
+                }
+                w.nested(q -> q.eq(Wallet::getUid, entry.getKey()).in(Wallet::getCurrency, entry.getValue()));
+                first = false;
+            }
+        });
+        return con;
+    }
+
+}
@@ -16,27 +16,42 @@
  */
 package com.apzda.cloud.wallet.domain.service;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.date.DateUtil;
 import com.apzda.cloud.gsvc.core.GsvcContextHolder;
 import com.apzda.cloud.wallet.config.WalletConfig;
+import com.apzda.cloud.wallet.config.WalletProperties;
 import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.CreditJournal;
 import com.apzda.cloud.wallet.domain.entity.Transaction;
 import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.event.WalletChangedEvent;
 import com.apzda.cloud.wallet.domain.mapper.WalletMapper;
+import com.apzda.cloud.wallet.domain.vo.TradeResult;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
 import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.BizException;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.lock.WalletLockManager;
 import com.apzda.cloud.wallet.proto.TradeDTO;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author fengz (windywany@gmail.com)
@@ -48,17 +63,59 @@ import java.util.Objects;
 @RequiredArgsConstructor
 public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
 
+    /**
+     * 子钱包余额归集的业务主题(业务线为system)
+     */
+    public static final String REBALANCE = "rebalance";
+
     private final TransactionService transactionService;
 
     private final ChangeLogService changeLogService;
 
     private final OutlayService outlayService;
 
+    private final OutboxService outboxService;
+
+    private final CreditJournalService creditJournalService;
+
+    private final WalletLockManager walletLockManager;
+
+    private final WalletProperties walletProperties;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 轮流选择支出子钱包的游标
+     */
+    private final AtomicLong shardCursor = new AtomicLong();
+
     @Transactional(rollbackFor = Exception.class)
-    public synchronized Wallet openWallet(@NonNull Long uid, @NonNull String currency) {
+    public Wallet openWallet(@NonNull Long uid, @NonNull String currency) {
+        return openWallet(uid, currency, 0);
+    }
+
+    /**
+     * 打开并锁定(子)钱包，不存在时创建.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Wallet openWallet(@NonNull Long uid, @NonNull String currency, int shard) {
         WalletConfig.getCurrencyConfig(currency);
+        val lockKey = Wallet.lockKey(currency, shard);
+        // 只串行化同一钱包上的操作，锁在事务结束后释放
+        if (walletLockManager.lockInTransaction(uid, lockKey)) {
+            return doOpenWallet(uid, currency, shard);
+        }
+
+        try {
+            return doOpenWallet(uid, currency, shard);
+        }
+        finally {
+            walletLockManager.unlock(uid, lockKey);
+        }
+    }
 
-        var wallet = baseMapper.openWallet(uid, currency);
+    private Wallet doOpenWallet(@NonNull Long uid, @NonNull String currency, int shard) {
+        var wallet = baseMapper.openWallet(uid, currency, shard);
 
         if (wallet == null) {
             wallet = new Wallet();
@@ -69,28 +126,32 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
             wallet.setUpdatedBy(wallet.getCreatedBy());
             wallet.setUid(uid);
             wallet.setCurrency(currency);
+            wallet.setShard(shard);
             try {
                 if (!save(wallet)) {
                     throw new IllegalStateException(
                             "Cannot open wallet for user(uid: " + uid + ", currency: " + currency + ")");
                 }
-                wallet = baseMapper.openWallet(uid, currency);
+                wallet = baseMapper.openWallet(uid, currency, shard);
                 val changeLog = ChangeLog.init(wallet);
-                wallet.setBlock(changeLog.getBlock());
 
-                if (!updateById(wallet)) {
+                if (!changeLogService.save(changeLog)) {
                     throw new IllegalStateException(
-                            "Cannot update wallet block for user(uid: " + uid + ", currency: " + currency + ")");
+                            "Cannot init wallet for user(uid: " + uid + ", currency: " + currency + ")");
                 }
 
-                if (!changeLogService.save(changeLog)) {
+                wallet.setBlock(changeLog.getBlock());
+                wallet.setLastLogId(changeLog.getId());
+
+                if (!updateById(wallet)) {
                     throw new IllegalStateException(
-                            "Cannot init wallet for user(uid: " + uid + ", currency: " + currency + ")");
+                            "Cannot update wallet block for user(uid: " + uid + ", currency: " + currency + ")");
                 }
+                changed(wallet);
             }
             catch (DuplicateKeyException de) {
                 log.warn("Parallel open wallet of user(uid: {}, currency: {}), try open it again", uid, currency);
-                wallet = baseMapper.openWallet(uid, currency);
+                wallet = baseMapper.openWallet(uid, currency, shard);
             }
         }
 
@@ -109,22 +170,32 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
     public Transaction trade(TradeDTO tradeDTO) {
         val uid = tradeDTO.getUid();
         val currency = tradeDTO.getCurrency();
+        val config = WalletConfig.getCurrencyConfig(currency);
+        val shards = config.shardsOf(uid);
+        if (shards > 1) {
+            return tradeSharded(tradeDTO, shards);
+        }
+        if (config.isDeferred(tradeDTO.getBiz(), tradeDTO.getBizSubject())) {
+            return defer(tradeDTO);
+        }
         // 打开用户钱包
         val wallet = openWallet(uid, currency);
-        val transaction = wallet.newTransaction(tradeDTO);
+        return doTrade(wallet, tradeDTO);
+    }
 
-        val lastLog = getLastLog(wallet);
+    /**
+     * 在已锁定的(子)钱包上完成交易.
+     */
+    private Transaction doTrade(@NonNull Wallet wallet, @NonNull TradeDTO tradeDTO) {
+        val transaction = newTransaction(wallet, tradeDTO);
 
-        checkIntegrity(lastLog, wallet);
+        checkIntegrity(wallet);
 
-        // 钱包未开启过期机制时将交易的过期时间置为null。
-        if (!wallet.isExpireAble()) {
-            transaction.setExpiredAt(null);
-        }
-        else if (transaction.getExpiredAt() == null
-                || DateUtil.date(transaction.getExpiredAt()).isBefore(DateUtil.date())) {
-            WalletError.EXPIRED_TIME_INVALID.emit(wallet);
+        if (transaction.isOutlay() && WalletConfig.getCurrencyConfig(wallet.getCurrency()).deferredCredits()) {
+            // 支出前先入账待入账收入，余额才完整
+            applyCredits(wallet);
         }
+
         // 保存交易记录
         if (!transactionService.save(transaction)) {
             WalletError.TRADE_CANNOT_SAVE.emit(wallet);
@@ -141,19 +212,599 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
         }
 
         // 生成交易日志
-        ChangeLog changeLog = wallet.newChangeLog(transaction, lastLog);
+        ChangeLog changeLog = wallet.newChangeLog(transaction);
 
         if (!changeLogService.save(changeLog)) {
             WalletError.LOG_CANNOT_SAVE.emit(wallet);
         }
+        outbox(changeLog);
         // 更新账户
+        wallet.setLastLogId(changeLog.getId());
+        if (!updateById(wallet)) {
+            WalletError.WALLET_CANNOT_UPDATE.emit(wallet);
+        }
+        changed(wallet);
+
+        return transaction;
+    }
+
+    /**
+     * 延迟入账: 只写入交易记录与待入账收入，不打开、不锁定钱包.
+     */
+    private Transaction defer(@NonNull TradeDTO tradeDTO) {
+        checkDeferrable(tradeDTO);
+        val transaction = newTransaction(transientWallet(tradeDTO), tradeDTO);
+        if (!transactionService.save(transaction)) {
+            WalletError.TRADE_CANNOT_SAVE.emit(tradeDTO.getUid(), tradeDTO.getCurrency());
+        }
+        creditJournalService.append(transaction);
+        return transaction;
+    }
+
+    /**
+     * 入账钱包的全部待入账收入.
+     * @return 入账的收入数
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int applyCredits(@NonNull Long uid, @NonNull String currency) {
+        val wallet = openWallet(uid, currency);
+        checkIntegrity(wallet);
+        val applied = applyCredits(wallet);
+        if (applied > 0) {
+            changed(wallet);
+        }
+        return applied;
+    }
+
+    /**
+     * 按写入顺序把待入账收入写入已锁定钱包的日志链，并删除已入账的收入.
+     */
+    private int applyCredits(@NonNull Wallet wallet) {
+        val batchSize = walletProperties.getDeferred().getBatchSize();
+        var applied = 0;
+        while (true) {
+            val journals = creditJournalService.pending(wallet.getUid(), wallet.getCurrency(), batchSize);
+            for (val journal : journals) {
+                val changeLog = wallet.newChangeLog(journal.toTransaction());
+                if (!changeLogService.save(changeLog)) {
+                    WalletError.LOG_CANNOT_SAVE.emit(wallet);
+                }
+                outbox(changeLog);
+                wallet.setLastLogId(changeLog.getId());
+            }
+            creditJournalService.applied(journals);
+            applied += journals.size();
+            if (journals.size() < batchSize) {
+                break;
+            }
+        }
+        if (applied > 0 && !updateById(wallet)) {
+            WalletError.WALLET_CANNOT_UPDATE.emit(wallet);
+        }
+        return applied;
+    }
+
+    /**
+     * 已锁定的钱包不能入账，与同步交易一样拒绝延迟入账的收入(不加锁读取，钱包不存在时入账时再创建).
+     */
+    private void checkDeferrable(@NonNull TradeDTO tradeDTO) {
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.select(Wallet::getId, Wallet::getUid, Wallet::getCurrency, Wallet::isLocked);
+        con.eq(Wallet::getUid, tradeDTO.getUid());
+        con.eq(Wallet::getCurrency, tradeDTO.getCurrency());
+        con.eq(Wallet::getShard, 0);
+        val wallet = getOne(con, false);
+        if (wallet != null && wallet.isLocked()) {
+            log.error("Wallet(uid: {}, currency: {}) is locked!", tradeDTO.getUid(), tradeDTO.getCurrency());
+            WalletError.LOCKED.emit(wallet);
+        }
+    }
+
+    /**
+     * 只用于生成交易记录的钱包(不读取数据库).
+     */
+    private static Wallet transientWallet(@NonNull TradeDTO tradeDTO) {
+        val wallet = new Wallet();
+        wallet.setUid(tradeDTO.getUid());
+        wallet.setCurrency(tradeDTO.getCurrency());
+        return wallet;
+    }
+
+    /**
+     * 热点钱包交易: 收入按业务单号散列到子钱包，只锁定一个子钱包；支出轮流选择余额足够的子钱包，
+     * 都不够时先把各子钱包的余额归集到主钱包再从主钱包支出. 子钱包不支持冻结.
+     * <p>
+     * 支出锁定的子钱包已被并发扣减时抛出CONCURRENT_UPDATE，须在事务外重试.
+     */
+    private Transaction tradeSharded(@NonNull TradeDTO tradeDTO, int shards) {
+        val uid = tradeDTO.getUid();
+        val currency = tradeDTO.getCurrency();
+        val subject = WalletConfig.getCurrencyConfig(currency)
+            .getBizSubject(currency, tradeDTO.getBiz(), tradeDTO.getBizSubject());
+        if (!subject.outlay()) {
+            val shard = shardOf(tradeDTO, shards);
+            if (shard > 0 && !exists(uid, currency, 0)) {
+                // 按主钱包分页的查询依赖主钱包，与子钱包一起按锁分段顺序创建
+                return doTrade(lockShards(uid, currency, List.of(0, shard)).get(shard), tradeDTO);
+            }
+            return doTrade(openWallet(uid, currency, shard), tradeDTO);
+        }
+        if (subject.needFrozen()) {
+            log.error("Wallet(uid: {}, currency: {}) has {} shards and cannot freeze amount", uid, currency, shards);
+            WalletError.TRADE_NOT_ALLOWED.emit(uid, currency);
+        }
+
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.eq(Wallet::getUid, uid);
+        con.eq(Wallet::getCurrency, currency);
+        con.orderByAsc(Wallet::getShard);
+        val snapshot = list(con);
+        if (snapshot.isEmpty()) {
+            return doTrade(openWallet(uid, currency), tradeDTO);
+        }
+        val amount = snapshot.get(0).amountOf(tradeDTO);
+        val start = shardCursor.getAndIncrement();
+        for (int i = 0; i < snapshot.size(); i++) {
+            val candidate = snapshot.get(Math.floorMod(start + i, snapshot.size()));
+            if (!affordable(candidate, amount, subject.withdrawAble())) {
+                continue;
+            }
+            val wallet = openWallet(uid, currency, candidate.getShard());
+            if (!affordable(wallet, amount, subject.withdrawAble())) {
+                // 读取快照后被其它支出扣减；已持有该子钱包的锁，不能再按锁分段顺序归集，
+                // 回滚后由OptimisticTradeService.tradeSharded在新事务中重新读取快照重试
+                throw new WalletException(WalletError.CONCURRENT_UPDATE, uid, currency);
+            }
+            return doTrade(wallet, tradeDTO);
+        }
+
+        return doTrade(consolidate(uid, currency, snapshot), tradeDTO);
+    }
+
+    /**
+     * 按锁分段顺序锁定主钱包与各子钱包，以一笔system/rebalance交易把余额归集到主钱包.
+     * @param snapshot 读取到的子钱包，之后新建的子钱包不参与本次归集
+     * @return 已锁定的主钱包
+     */
+    private Wallet consolidate(@NonNull Long uid, @NonNull String currency, @NonNull List<Wallet> snapshot) {
+        val shards = new ArrayList<Integer>(snapshot.size() + 1);
+        shards.add(0);
+        for (val shard : snapshot) {
+            if (shard.getShard() != 0) {
+                shards.add(shard.getShard());
+            }
+        }
+        val locked = lockShards(uid, currency, shards);
+        val head = locked.get(0);
+        checkIntegrity(head);
+        val sources = new ArrayList<Wallet>(snapshot.size());
+        var total = 0L;
+        for (val shard : shards) {
+            if (shard == 0) {
+                continue;
+            }
+            val wallet = locked.get(shard);
+            checkIntegrity(wallet);
+            if (wallet.getBalance() > 0) {
+                sources.add(wallet);
+                total += wallet.getBalance();
+            }
+        }
+        if (total == 0) {
+            return head;
+        }
+
+        val transaction = new Transaction();
+        transaction.setUid(uid);
+        transaction.setCurrency(currency);
+        transaction.setAmount(total);
+        transaction.setIp(GsvcContextHolder.getRemoteIp());
+        transaction.setBiz("system");
+        transaction.setBizSubject(REBALANCE);
+        transaction.setBizId(String.valueOf(IdWorker.getId()));
+        if (!transactionService.save(transaction)) {
+            WalletError.TRADE_CANNOT_SAVE.emit(head);
+        }
+
+        var withdrawal = 0L;
+        for (val wallet : sources) {
+            withdrawal += wallet.getWithdrawal();
+            wallet.setWithdrawal(0L);
+            move(wallet, transaction, transaction.getBizId() + ":" + wallet.getShard(), wallet.getBalance(), true);
+        }
+        head.setWithdrawal(head.getWithdrawal() + withdrawal);
+        move(head, transaction, transaction.getBizId(), total, false);
+        log.debug("Wallet(uid: {}, currency: {}) consolidated {} from {} shards", uid, currency, total,
+                sources.size());
+
+        return head;
+    }
+
+    /**
+     * 按锁分段顺序(与{@link #tradeBatch(List)}一致)打开并锁定多个子钱包，避免与批量交易相互等待.
+     * @return 子钱包序号 -> 已锁定的子钱包，按序号升序
+     */
+    private Map<Integer, Wallet> lockShards(@NonNull Long uid, @NonNull String currency,
+            @NonNull List<Integer> shards) {
+        val ordered = new ArrayList<>(shards);
+        ordered.sort(Comparator
+            .comparingInt((Integer shard) -> walletLockManager.stripeOf(uid, Wallet.lockKey(currency, shard)))
+            .thenComparingInt(Integer::intValue));
+        val locked = new TreeMap<Integer, Wallet>();
+        for (val shard : ordered) {
+            locked.put(shard, openWallet(uid, currency, shard));
+        }
+        return locked;
+    }
+
+    /**
+     * 子钱包之间划转余额，不计入支出；可提现金额由调用方调整.
+     */
+    private void move(@NonNull Wallet wallet, @NonNull Transaction transaction, @NonNull String bizId, long amount,
+            boolean outlay) {
+        val changeLog = new ChangeLog();
+        changeLog.setTransactionId(transaction.getId());
+        changeLog.setUid(wallet.getUid());
+        changeLog.setCurrency(wallet.getCurrency());
+        changeLog.setShard(wallet.getShard());
+        changeLog.setBiz(transaction.getBiz());
+        changeLog.setBizSubject(transaction.getBizSubject());
+        changeLog.setBizId(bizId);
+        changeLog.setAmount(amount);
+        changeLog.setPreBalance(wallet.getBalance());
+        changeLog.setBalance(outlay ? wallet.getBalance() - amount : wallet.getBalance() + amount);
+        changeLog.setPreFrozen(wallet.getFrozen());
+        changeLog.setFrozen(wallet.getFrozen());
+        changeLog.setOutlay(outlay);
+        changeLog.setParentId(wallet.getLastLogId());
+        changeLog.setIp(transaction.getIp());
+        changeLog.genBlock(wallet.getBlock());
+        if (!changeLogService.save(changeLog)) {
+            WalletError.LOG_CANNOT_SAVE.emit(wallet);
+        }
+        outbox(changeLog);
+
+        wallet.setBalance(changeLog.getBalance());
+        wallet.setAmount(changeLog.getBalance() + changeLog.getFrozen());
+        wallet.setBlock(changeLog.getBlock());
+        wallet.setLastLogId(changeLog.getId());
+        if (!updateById(wallet)) {
+            WalletError.WALLET_CANNOT_UPDATE.emit(wallet);
+        }
+    }
+
+    private boolean exists(@NonNull Long uid, @NonNull String currency, int shard) {
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.eq(Wallet::getUid, uid);
+        con.eq(Wallet::getCurrency, currency);
+        con.eq(Wallet::getShard, shard);
+        return count(con) > 0;
+    }
+
+    private static boolean affordable(@NonNull Wallet wallet, long amount, boolean withdrawAble) {
+        return wallet.getBalance() >= amount && (!withdrawAble || wallet.getWithdrawal() >= amount);
+    }
+
+    /**
+     * 收入所在的子钱包: 按业务单号散列，同一笔交易重试时落在同一子钱包.
+     */
+    static int shardOf(@NonNull TradeDTO tradeDTO, int shards) {
+        var h = TransactionService.bizKey(tradeDTO.getBiz(), tradeDTO.getBizSubject(), tradeDTO.getBizId())
+            .hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, shards);
+    }
+
+    /**
+     * 乐观锁交易: 不加锁读取钱包，计算新状态与变更日志后以{@code UPDATE ... WHERE id = ? AND block = ?}提交.
+     * 每次调用都在新事务中执行，链头已被其它交易推进时抛出CONCURRENT_UPDATE并回滚，由调用方重试.
+     * @see OptimisticTradeService
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = Exception.class)
+    public Transaction tradeOptimistic(@NonNull TradeDTO tradeDTO) {
+        val uid = tradeDTO.getUid();
+        val currency = tradeDTO.getCurrency();
+        val con = Wrappers.lambdaQuery(Wallet.class);
+        con.eq(Wallet::getUid, uid);
+        con.eq(Wallet::getCurrency, currency);
+        con.eq(Wallet::getShard, 0);
+        var wallet = getOne(con, false);
+        if (wallet == null) {
+            // 首次交易时按悲观方式创建钱包
+            wallet = openWallet(uid, currency);
+        }
+        if (wallet.isLocked()) {
+            log.error("Wallet(uid: {}, currency: {}) is locked!", uid, currency);
+            WalletError.LOCKED.emit(wallet);
+        }
+        val transaction = newTransaction(wallet, tradeDTO);
+
+        checkIntegrity(wallet);
+
+        if (!transactionService.save(transaction)) {
+            WalletError.TRADE_CANNOT_SAVE.emit(wallet);
+        }
+
+        val expectedBlock = wallet.getBlock();
+        val changeLog = wallet.newChangeLog(transaction);
+        if (!changeLogService.save(changeLog)) {
+            WalletError.LOG_CANNOT_SAVE.emit(wallet);
+        }
+        outbox(changeLog);
+
+        wallet.setLastLogId(changeLog.getId());
+        val cas = Wrappers.lambdaUpdate(Wallet.class);
+        cas.eq(Wallet::getId, wallet.getId());
+        cas.eq(Wallet::getBlock, expectedBlock);
+        if (!update(wallet, cas)) {
+            throw new WalletException(WalletError.CONCURRENT_UPDATE, uid, currency);
+        }
+        changed(wallet);
+
+        return transaction;
+    }
+
+    /**
+     * 以一笔system/expire支出注销钱包已过期的收入余额.
+     * @param now 过期判定时间
+     * @param maxLots 本次最多处理的收入数，余下的由下一次处理
+     * @return 过期交易，没有可过期的余额时返回null
+     */
+    @Transactional(rollbackFor = Exception.class)
+    @Nullable
+    public Transaction expire(@NonNull Long uid, @NonNull String currency, long now, int maxLots) {
+        val wallet = openWallet(uid, currency);
+        if (!wallet.isExpireAble()) {
+            return null;
+        }
+        val lots = outlayService.expiredLots(uid, currency, now, maxLots);
+        if (lots.isEmpty()) {
+            return null;
+        }
+
+        checkIntegrity(wallet);
+
+        var expired = 0L;
+        for (val lot : lots) {
+            expired += lot.getBalance();
+        }
+        // 收入明细与钱包不一致时以钱包余额为准
+        val amount = Math.min(expired, wallet.getBalance());
+        if (amount <= 0) {
+            log.warn("Wallet(uid: {}, currency: {}) has {} expired lots but balance is {}", uid, currency,
+                    lots.size(), wallet.getBalance());
+            return null;
+        }
+
+        val tradeDTO = TradeDTO.newBuilder()
+            .setUid(uid)
+            .setCurrency(currency)
+            .setBiz("system")
+            .setBizSubject("expire")
+            .setBizId(uid + ":" + currency + ":" + now)
+            .setMinorAmount(amount)
+            .setRemark("expired " + lots.size() + " lots")
+            .build();
+        // 过期交易本身没有过期时间，不经过newTransaction的过期时间校验
+        val transaction = wallet.newTransaction(tradeDTO);
+
+        if (!transactionService.save(transaction)) {
+            WalletError.TRADE_CANNOT_SAVE.emit(wallet);
+        }
+
+        outlayService.expire(transaction, lots);
+
+        ChangeLog changeLog = wallet.newChangeLog(transaction);
+
+        if (!changeLogService.save(changeLog)) {
+            WalletError.LOG_CANNOT_SAVE.emit(wallet);
+        }
+        outbox(changeLog);
+        wallet.setLastLogId(changeLog.getId());
         if (!updateById(wallet)) {
             WalletError.WALLET_CANNOT_UPDATE.emit(wallet);
         }
+        changed(wallet);
 
         return transaction;
     }
 
+    /**
+     * 批量交易: 同一钱包的交易只加锁、校验一次，交易记录与钱包批量写入；业务错误按条返回，不影响其它交易.
+     * <p>
+     * 钱包按锁分段顺序加锁. 热点钱包的交易要按子钱包加锁且可能需要重试，不能放入批量事务，
+     * 以TRADE_NOT_ALLOWED返回，由调用方拆出后逐笔提交. 写入失败(*_CANNOT_SAVE等)时整批回滚.
+     * <p>
+     * 交易记录与钱包的批量写入是JDBC批处理，MySQL须在连接串中设置rewriteBatchedStatements=true才会合并为多行INSERT.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<TradeResult> tradeBatch(@NonNull List<TradeDTO> trades) {
+        if (trades.size() > walletProperties.getMaxBatchSize()) {
+            throw new IllegalArgumentException(
+                    "Too many trades: " + trades.size() + " > " + walletProperties.getMaxBatchSize());
+        }
+        val results = new TradeResult[trades.size()];
+        val existing = transactionService.existingBizKeys(trades);
+        val seen = new HashSet<String>();
+        val deferred = new ArrayList<Integer>();
+        val groups = new TreeMap<WalletKey, List<Integer>>(Comparator
+            .comparingInt((WalletKey key) -> walletLockManager.stripeOf(key.uid(), key.currency()))
+            .thenComparing(WalletKey::uid)
+            .thenComparing(WalletKey::currency));
+
+        for (int i = 0; i < trades.size(); i++) {
+            val tradeDTO = trades.get(i);
+            val bizKey = TransactionService.bizKey(tradeDTO.getBiz(), tradeDTO.getBizSubject(), tradeDTO.getBizId());
+            if (existing.contains(bizKey) || !seen.add(bizKey)) {
+                results[i] = TradeResult.failure(i, WalletError.DUPLICATE_TRADE);
+                continue;
+            }
+            val config = WalletConfig.getCurrencyConfig(tradeDTO.getCurrency());
+            if (config.shardsOf(tradeDTO.getUid()) > 1) {
+                results[i] = TradeResult.failure(i, WalletError.TRADE_NOT_ALLOWED);
+                continue;
+            }
+            if (config.isDeferred(tradeDTO.getBiz(), tradeDTO.getBizSubject())) {
+                deferred.add(i);
+                continue;
+            }
+            groups.computeIfAbsent(new WalletKey(tradeDTO.getUid(), tradeDTO.getCurrency()), key -> new ArrayList<>())
+                .add(i);
+        }
+
+        val transactions = new ArrayList<Transaction>(trades.size());
+        val changeLogs = new ArrayList<ChangeLog>(trades.size());
+        val wallets = new ArrayList<Wallet>(groups.size());
+        // 按锁分段顺序依次处理各钱包，避免相互等待
+        for (val group : groups.entrySet()) {
+            val key = group.getKey();
+            val indexes = group.getValue();
+            Wallet wallet;
+            var folded = false;
+            try {
+                wallet = openWallet(key.uid(), key.currency());
+                checkIntegrity(wallet);
+                if (WalletConfig.getCurrencyConfig(key.currency()).deferredCredits()) {
+                    folded = applyCredits(wallet) > 0;
+                }
+            }
+            catch (WalletException | BizException e) {
+                if (e instanceof WalletException fatal && isWriteFailure(fatal)) {
+                    throw fatal;
+                }
+                val error = e instanceof WalletException we ? we.getServiceError()
+                        : ((BizException) e).getServiceError();
+                for (val index : indexes) {
+                    results[index] = TradeResult.failure(index, error);
+                }
+                continue;
+            }
+
+            val lastLogId = wallet.getLastLogId();
+            for (val index : indexes) {
+                try {
+                    val transaction = tradeInBatch(wallet, trades.get(index), changeLogs);
+                    transactions.add(transaction);
+                    results[index] = TradeResult.success(index, transaction);
+                }
+                catch (WalletException e) {
+                    if (isWriteFailure(e)) {
+                        // 钱包已按失败的交易推进，整批回滚
+                        throw e;
+                    }
+                    results[index] = TradeResult.failure(index, e.getServiceError());
+                }
+                catch (BizException e) {
+                    results[index] = TradeResult.failure(index, e.getServiceError());
+                }
+            }
+
+            if (folded || !Objects.equals(lastLogId, wallet.getLastLogId())) {
+                wallets.add(wallet);
+            }
+        }
+        // 延迟入账的收入只生成交易记录与待入账收入，与其它交易记录一起批量写入
+        val journals = new ArrayList<CreditJournal>(deferred.size());
+        for (val index : deferred) {
+            val tradeDTO = trades.get(index);
+            try {
+                checkDeferrable(tradeDTO);
+                val transaction = newTransaction(transientWallet(tradeDTO), tradeDTO);
+                transaction.setId(IdWorker.getId());
+                transactions.add(transaction);
+                journals.add(CreditJournal.of(transaction));
+                results[index] = TradeResult.success(index, transaction);
+            }
+            catch (WalletException e) {
+                results[index] = TradeResult.failure(index, e.getServiceError());
+            }
+            catch (BizException e) {
+                results[index] = TradeResult.failure(index, e.getServiceError());
+            }
+        }
+        // 保存交易记录
+        if (!transactions.isEmpty() && !transactionService.saveBatch(transactions)) {
+            throw new IllegalStateException("Cannot save transactions of batch trade");
+        }
+        if (!journals.isEmpty() && !creditJournalService.saveBatch(journals)) {
+            throw new IllegalStateException("Cannot save credit journals of batch trade");
+        }
+        // 更新账户
+        if (!wallets.isEmpty() && !updateBatchById(wallets)) {
+            throw new IllegalStateException("Cannot update wallets of batch trade");
+        }
+        if (walletProperties.getOutbox().isEnabled()) {
+            outboxService.appendAll(changeLogs);
+        }
+        wallets.forEach(this::changed);
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 写入失败: 内存中的钱包可能已按该交易推进，不能只让这一笔失败.
+     */
+    private static boolean isWriteFailure(@NonNull WalletException e) {
+        val code = e.getServiceError().code();
+        return code == WalletError.TRADE_CANNOT_SAVE.getCode() || code == WalletError.LOG_CANNOT_SAVE.getCode()
+                || code == WalletError.WALLET_CANNOT_UPDATE.getCode()
+                || code == WalletError.OUTLAY_CANNOT_SAVE.getCode();
+    }
+
+    private Transaction tradeInBatch(@NonNull Wallet wallet, @NonNull TradeDTO tradeDTO,
+            @NonNull List<ChangeLog> changeLogs) {
+        val transaction = newTransaction(wallet, tradeDTO);
+        // 预先分配ID, 交易记录最后批量写入
+        transaction.setId(IdWorker.getId());
+
+        ChangeLog changeLog;
+        if (wallet.isExpireAble()) {
+            // 过期机制涉及收入/支出明细的写入，失败时回滚到保存点并恢复钱包
+            val status = TransactionAspectSupport.currentTransactionStatus();
+            val savepoint = status.createSavepoint();
+            val backup = BeanUtil.copyProperties(wallet, Wallet.class);
+            try {
+                if (transaction.isOutlay()) {
+                    outlayService.outlay(transaction);
+                }
+                else {
+                    outlayService.newIncome(transaction);
+                }
+                changeLog = wallet.newChangeLog(transaction);
+            }
+            catch (WalletException | BizException e) {
+                status.rollbackToSavepoint(savepoint);
+                BeanUtil.copyProperties(backup, wallet);
+                throw e;
+            }
+            status.releaseSavepoint(savepoint);
+        }
+        else {
+            changeLog = wallet.newChangeLog(transaction);
+        }
+        // 变更日志的parent_id依赖上一条日志的自增ID，只能逐条写入；写入失败时钱包已推进，由tradeBatch整批回滚
+        if (!changeLogService.save(changeLog)) {
+            WalletError.LOG_CANNOT_SAVE.emit(wallet);
+        }
+        changeLogs.add(changeLog);
+        wallet.setLastLogId(changeLog.getId());
+
+        return transaction;
+    }
+
+    private Transaction newTransaction(@NonNull Wallet wallet, @NonNull TradeDTO tradeDTO) {
+        val transaction = wallet.newTransaction(tradeDTO);
+        // 钱包未开启过期机制时将交易的过期时间置为null。
+        if (!wallet.isExpireAble()) {
+            transaction.setExpiredAt(null);
+        }
+        else if (transaction.getExpiredAt() == null
+                || DateUtil.date(transaction.getExpiredAt()).isBefore(DateUtil.date())) {
+            WalletError.EXPIRED_TIME_INVALID.emit(wallet);
+        }
+        return transaction;
+    }
+
     @Transactional(rollbackFor = Exception.class)
     public boolean confirm(Long transactionId) {
         // 用于确认冻结
@@ -165,13 +816,11 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
         val currency = trans.getCurrency();
         val wallet = openWallet(uid, currency);
 
-        val lastLog = getLastLog(wallet);
-
-        checkIntegrity(lastLog, wallet);
+        checkIntegrity(wallet);
 
         val amount = trans.getAmount();
         val frozen = wallet.getFrozen();
-        if (amount > frozen || !frozen.equals(Objects.requireNonNull(lastLog).getFrozen())) {
+        if (amount > frozen) {
             WalletError.FROZEN_AMOUNT_INVALID.emit(wallet);
         }
 
@@ -187,25 +836,28 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
         changeLog.setBalance(wallet.getBalance());
         changeLog.setPreFrozen(frozen);
         changeLog.setFrozen(frozen - amount);
-        changeLog.setParentId(lastLog.getId());
+        changeLog.setParentId(wallet.getLastLogId());
         changeLog.setIp(GsvcContextHolder.getRemoteIp());
         // changeLog.setRemark("confirm frozen amount");
         changeLog.genBlock(wallet.getBlock());
 
+        if (!changeLogService.save(changeLog)) {
+            WalletError.LOG_CANNOT_SAVE.emit(wallet);
+        }
+        outbox(changeLog);
+
         // 扣减冻结金额
         wallet.setFrozen(changeLog.getFrozen());
         // 重新计算总余额
         wallet.setAmount(wallet.getBalance() + wallet.getFrozen());
         // 更新区块
         wallet.setBlock(changeLog.getBlock());
+        wallet.setLastLogId(changeLog.getId());
 
         if (!updateById(wallet)) {
             WalletError.WALLET_CANNOT_UPDATE.emit(wallet);
         }
-
-        if (!changeLogService.save(changeLog)) {
-            WalletError.LOG_CANNOT_SAVE.emit(wallet);
-        }
+        changed(wallet);
 
         return true;
     }
@@ -220,12 +872,11 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
         val uid = trans.getUid();
         val currency = trans.getCurrency();
         val wallet = openWallet(uid, currency);
-        val lastLog = getLastLog(wallet);
-        checkIntegrity(lastLog, wallet);
+        checkIntegrity(wallet);
 
         val amount = trans.getAmount();
         val frozen = wallet.getFrozen();
-        if (amount > frozen || !frozen.equals(Objects.requireNonNull(lastLog).getFrozen())) {
+        if (amount > frozen) {
             WalletError.FROZEN_AMOUNT_INVALID.emit(wallet);
         }
         // 这里要弄一个交易（系统交易 - ）
@@ -250,18 +901,20 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
         changeLog.setBizSubject("unfreeze");
         changeLog.setBizId(transactionId.toString());
         changeLog.setAmount(amount);
-        changeLog.setPreBalance(lastLog.getBalance());
-        changeLog.setBalance(lastLog.getBalance() + amount);
+        changeLog.setPreBalance(wallet.getBalance());
+        changeLog.setBalance(wallet.getBalance() + amount);
         changeLog.setPreFrozen(frozen);
         changeLog.setFrozen(frozen - amount);
-        changeLog.setParentId(lastLog.getId());
+        changeLog.setParentId(wallet.getLastLogId());
         changeLog.setIp(GsvcContextHolder.getRemoteIp());
         changeLog.genBlock(wallet.getBlock());
         if (!changeLogService.save(changeLog)) {
             WalletError.LOG_CANNOT_SAVE.emit(wallet);
         }
+        outbox(changeLog);
 
         wallet.setBlock(changeLog.getBlock());
+        wallet.setLastLogId(changeLog.getId());
         wallet.setBalance(changeLog.getBalance());
         wallet.setFrozen(changeLog.getFrozen());
         wallet.setAmount(changeLog.getBalance() + changeLog.getFrozen());
@@ -272,13 +925,31 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
         if (!updateById(wallet)) {
             WalletError.WALLET_CANNOT_UPDATE.emit(wallet);
         }
+        changed(wallet);
 
         return true;
     }
 
+    /**
+     * 启用发件箱时在当前事务中写入变更事件.
+     */
+    private void outbox(@NonNull ChangeLog changeLog) {
+        if (walletProperties.getOutbox().isEnabled()) {
+            outboxService.append(changeLog);
+        }
+    }
+
+    /**
+     * 发布钱包变更事件，监听者应在事务提交后处理.
+     */
+    private void changed(@NonNull Wallet wallet) {
+        eventPublisher
+            .publishEvent(new WalletChangedEvent(wallet.getUid(), wallet.getCurrency(), wallet.getLastLogId()));
+    }
+
     @Nullable
     public ChangeLog getLastLog(@NonNull Wallet wallet) {
-        return changeLogService.getLastLog(wallet.getUid(), wallet.getCurrency());
+        return changeLogService.getLastLog(wallet.getUid(), wallet.getCurrency(), wallet.getShard());
     }
 
     @Nullable
@@ -286,6 +957,35 @@ public class WalletService extends ServiceImpl<WalletMapper, Wallet> {
         return changeLogService.getLastLog(uid, currency);
     }
 
+    /**
+     * 以钱包(已锁定)记录的链头做完整性校验，开启verify-head时再按主键与链头日志交叉校验.
+     */
+    public void checkIntegrity(@NonNull Wallet wallet) {
+        val uid = wallet.getUid();
+        val currency = wallet.getCurrency();
+        val lastLogId = wallet.getLastLogId();
+
+        if (lastLogId == null || lastLogId <= 0) {
+            log.error("Wallet(uid: {}, currency: {}) change log not found!", uid, currency);
+            WalletError.INTEGRITY_FAILED.emit(wallet);
+        }
+
+        if (walletProperties.isVerifyHead()) {
+            val lastLog = changeLogService.getById(lastLogId);
+            if (lastLog != null && (!lastLog.getUid().equals(uid) || !lastLog.getCurrency().equals(currency))) {
+                log.error("Wallet(uid: {}, currency: {}) integrity verification failed: log({}) belongs to ({}, {})",
+                        uid, currency, lastLogId, lastLog.getUid(), lastLog.getCurrency());
+                WalletError.INTEGRITY_FAILED.emit(wallet);
+            }
+            checkIntegrity(lastLog, wallet);
+        }
+        else if (!wallet.getAmount().equals(wallet.getBalance() + wallet.getFrozen())) {
+            log.error(
+                    "Wallet(uid: {}, currency: {}) integrity verification failed: amount{}) != balance({})+frozen({})",
+                    uid, currency, wallet.getAmount(), wallet.getBalance(), wallet.getFrozen());
+        }
+    }
+
     public static void checkIntegrity(ChangeLog lastLog, Wallet wallet) {
         val uid = wallet.getUid();
         val currency = wallet.getCurrency();
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.vo;
+
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * 交易历史查询条件，按变更日志ID倒序分页.
+ *
+ * @param uid 用户ID
+ * @param currency 币种
+ * @param biz 业务类型
+ * @param bizSubject 业务主题(需同时指定biz)
+ * @param outlay 方向: true-支出; false-收入; null-全部
+ * @param startTime 开始时间(含)
+ * @param endTime 结束时间(不含)
+ * @param cursor 上一页最后一条的ID，第一页为null
+ * @param size 每页条数
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public record HistoryQuery(@NonNull Long uid, @NonNull String currency, @Nullable String biz,
+        @Nullable String bizSubject, @Nullable Boolean outlay, @Nullable Long startTime, @Nullable Long endTime,
+        @Nullable Long cursor, int size) {
+
+}
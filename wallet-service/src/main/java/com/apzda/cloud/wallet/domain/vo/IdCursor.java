@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.vo;
+
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+/**
+ * 自增ID游标: 记录已处理到的位置以及位置之前尚未出现的ID(空洞).
+ * <p>
+ * 自增ID在分配时确定、在提交时才可见，长事务会让较小的ID晚于较大的ID出现。游标越过某个ID时把它记为空洞，
+ * 空洞在补齐或超过等待期限前需要重新查询；回滚的事务永远不会补齐空洞，只能等待超时.
+ * <p>
+ * 格式: {@code position[;id:firstSeen,id:firstSeen...]}，只有位置时与旧的检查点格式兼容.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public final class IdCursor {
+
+    /**
+     * 最多记录的空洞数，超出时丢弃最旧的空洞
+     */
+    public static final int MAX_GAPS = 1000;
+
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    private long position;
+
+    private IdCursor(long position) {
+        this.position = position;
+    }
+
+    @NonNull
+    public static IdCursor parse(@Nullable String value) {
+        if (value == null || value.isBlank()) {
+            return new IdCursor(0);
+        }
+        val parts = value.split(";", 2);
+        val cursor = new IdCursor(Long.parseLong(parts[0].trim()));
+        if (parts.length > 1 && !parts[1].isBlank()) {
+            for (val gap : parts[1].split(",")) {
+                val pair = gap.split(":", 2);
+                cursor.gaps.put(Long.parseLong(pair[0].trim()), Long.parseLong(pair[1].trim()));
+            }
+        }
+        return cursor;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    /**
+     * 尚未出现的ID，按ID升序.
+     */
+    @NonNull
+    public NavigableSet<Long> gaps() {
+        return Collections.unmodifiableNavigableSet(gaps.navigableKeySet());
+    }
+
+    /**
+     * 处理了ID为id的记录: 补齐空洞，或推进位置并把跳过的ID记为空洞(从头开始时不记录).
+     * @param id 已处理的ID
+     * @param now 当前时间(毫秒)
+     * @return 因超出{@link #MAX_GAPS}被丢弃的空洞
+     */
+    @NonNull
+    public List<Long> advance(long id, long now) {
+        if (id <= position) {
+            gaps.remove(id);
+            return Collections.emptyList();
+        }
+        if (position > 0) {
+            val from = Math.max(position + 1, id - MAX_GAPS);
+            for (var gap = from; gap < id; gap++) {
+                gaps.put(gap, now);
+            }
+        }
+        position = id;
+        val dropped = new ArrayList<Long>();
+        while (gaps.size() > MAX_GAPS) {
+            dropped.add(gaps.pollFirstEntry().getKey());
+        }
+        return dropped;
+    }
+
+    /**
+     * 移除在deadline之前出现的空洞，不再等待它们.
+     * @return 被移除的空洞
+     */
+    @NonNull
+    public List<Long> expire(long deadline) {
+        val expired = new ArrayList<Long>();
+        val it = gaps.entrySet().iterator();
+        while (it.hasNext()) {
+            val gap = it.next();
+            if (gap.getValue() < deadline) {
+                expired.add(gap.getKey());
+                it.remove();
+            }
+        }
+        return expired;
+    }
+
+    @NonNull
+    public String format() {
+        if (gaps.isEmpty()) {
+            return String.valueOf(position);
+        }
+        val sb = new StringBuilder().append(position).append(';');
+        for (val gap : gaps.entrySet()) {
+            sb.append(gap.getKey()).append(':').append(gap.getValue()).append(',');
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+}
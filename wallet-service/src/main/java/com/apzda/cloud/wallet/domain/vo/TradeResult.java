@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.domain.vo;
+
+import com.apzda.cloud.gsvc.IServiceError;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.error.WalletServiceError;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * 批量交易中单笔交易的结果.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public record TradeResult(int index, @Nullable Transaction transaction, @Nullable IServiceError error) {
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public static TradeResult success(int index, @NonNull Transaction transaction) {
+        return new TradeResult(index, transaction, null);
+    }
+
+    public static TradeResult failure(int index, @NonNull IServiceError error) {
+        return new TradeResult(index, null, error);
+    }
+
+    public static TradeResult failure(int index, @NonNull WalletError error) {
+        return new TradeResult(index, null, new WalletServiceError(error));
+    }
+
+}
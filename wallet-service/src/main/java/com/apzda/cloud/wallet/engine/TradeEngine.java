@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.engine;
+
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 组提交交易引擎: 交易按uid散列到分片队列，每个分片由一个线程串行写入，
+ * 一次事务提交多个钱包的一批交易，事务提交后再通知调用方.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class TradeEngine implements InitializingBean, DisposableBean {
+
+    /**
+     * 停止时等待各分片写完队列的最长时间
+     */
+    static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final WalletService walletService;
+
+    private final Shard[] shards;
+
+    private final int maxBatchSize;
+
+    private final long offerTimeout;
+
+    private volatile boolean running;
+
+    public TradeEngine(@NonNull WalletService walletService, int shards, int queueCapacity, int maxBatchSize,
+            @NonNull Duration offerTimeout) {
+        this.walletService = walletService;
+        this.shards = new Shard[Math.max(1, shards)];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard(i, new ArrayBlockingQueue<>(queueCapacity));
+        }
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.offerTimeout = offerTimeout.toNanos();
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        running = true;
+        for (val shard : shards) {
+            shard.thread = new Thread(() -> writeLoop(shard), "wallet-trade-engine-" + shard.index);
+            shard.thread.setDaemon(true);
+            shard.thread.start();
+        }
+        log.info("Trade engine started with {} shards", shards.length);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        destroy(SHUTDOWN_TIMEOUT);
+    }
+
+    /**
+     * 停止接收交易，等待各分片写完队列；超时后仍在队列中的交易以失败完成.
+     */
+    void destroy(@NonNull Duration timeout) throws InterruptedException {
+        running = false;
+        val deadline = System.nanoTime() + timeout.toNanos();
+        for (val shard : shards) {
+            if (shard.thread != null) {
+                shard.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        }
+        var abandoned = 0;
+        for (val shard : shards) {
+            abandoned += abandon(shard);
+        }
+        if (abandoned > 0) {
+            log.warn("Trade engine stopped with {} trades not committed", abandoned);
+        }
+        log.info("Trade engine stopped");
+    }
+
+    private int abandon(Shard shard) {
+        val left = new ArrayList<PendingTrade>();
+        shard.queue.drainTo(left);
+        for (val pending : left) {
+            pending.future().completeExceptionally(new IllegalStateException("Trade engine is stopped"));
+        }
+        return left.size();
+    }
+
+    /**
+     * 提交交易，所在批次提交后完成.
+     */
+    @NonNull
+    public CompletableFuture<Transaction> submit(@NonNull TradeDTO tradeDTO) {
+        val pending = new PendingTrade(tradeDTO, new CompletableFuture<>());
+        if (!running) {
+            pending.future().completeExceptionally(new IllegalStateException("Trade engine is not running"));
+            return pending.future();
+        }
+        val shard = shards[shardOf(tradeDTO.getUid())];
+        try {
+            if (!shard.queue.offer(pending, offerTimeout, TimeUnit.NANOSECONDS)) {
+                log.warn("Trade engine shard({}) is full, reject trade of user(uid: {}, currency: {})", shard.index,
+                        tradeDTO.getUid(), tradeDTO.getCurrency());
+                pending.future().completeExceptionally(
+                        new WalletException(WalletError.SERVER_BUSY, tradeDTO.getUid(), tradeDTO.getCurrency()));
+            }
+            else if (!running && shard.queue.remove(pending)) {
+                // 停止期间放入的交易不会再被写线程取出
+                pending.future().completeExceptionally(new IllegalStateException("Trade engine is not running"));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future().completeExceptionally(e);
+        }
+        return pending.future();
+    }
+
+    /**
+     * 提交交易并等待结果.
+     */
+    @NonNull
+    public Transaction trade(@NonNull TradeDTO tradeDTO) {
+        try {
+            return submit(tradeDTO).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    int shardOf(long uid) {
+        var h = Long.hashCode(uid);
+        h ^= (h >>> 16);
+        return Math.floorMod(h, shards.length);
+    }
+
+    private void writeLoop(Shard shard) {
+        val batch = new ArrayList<PendingTrade>(maxBatchSize);
+        while (running || !shard.queue.isEmpty()) {
+            try {
+                val first = shard.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 上一批提交期间积累的交易一起提交
+                shard.queue.drainTo(batch, maxBatchSize - 1);
+                commit(batch);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (Throwable e) {
+                log.error("Trade engine shard({}) failed: {}", shard.index, e.getMessage(), e);
+                batch.forEach(pending -> pending.future().completeExceptionally(e));
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingTrade> batch) {
+        val trades = batch.stream().map(PendingTrade::tradeDTO).toList();
+        try {
+            val results = walletService.tradeBatch(trades);
+            for (val result : results) {
+                val pending = batch.get(result.index());
+                if (result.isSuccess()) {
+                    pending.future().complete(result.transaction());
+                }
+                else {
+                    val tradeDTO = pending.tradeDTO();
+                    pending.future().completeExceptionally(
+                            new WalletException(result.error(), tradeDTO.getUid(), tradeDTO.getCurrency(), null));
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            // 整批失败(如并发重复单号)时逐笔重试，互不影响
+            log.warn("Trade engine batch({} trades) failed, retry one by one: {}", batch.size(), e.getMessage());
+            for (val pending : batch) {
+                try {
+                    pending.future().complete(walletService.trade(pending.tradeDTO()));
+                }
+                catch (RuntimeException te) {
+                    pending.future().completeExceptionally(te);
+                }
+            }
+        }
+    }
+
+    private record PendingTrade(TradeDTO tradeDTO, CompletableFuture<Transaction> future) {
+    }
+
+    private static final class Shard {
+
+        private final int index;
+
+        private final BlockingQueue<PendingTrade> queue;
+
+        private Thread thread;
+
+        private Shard(int index, BlockingQueue<PendingTrade> queue) {
+            this.index = index;
+            this.queue = queue;
+        }
+
+    }
+
+}
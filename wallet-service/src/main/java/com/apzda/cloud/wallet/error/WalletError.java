@@ -46,7 +46,12 @@ public enum WalletError {
     INSUFFICIENT_BALANCE1(90310,"withdrawal is not enough"),
     EXPIRED_TIME_INVALID(90310,"expire time is invalid"),
     OUTLAY_CANNOT_SAVE(90311,"outlay log cannot be saved"),
-    FROZEN_AMOUNT_INVALID(90312,"frozen amount is invalid")
+    FROZEN_AMOUNT_INVALID(90312,"frozen amount is invalid"),
+    LOCK_TIMEOUT(90313,"wallet is busy, please try again later"),
+    DUPLICATE_TRADE(90314,"duplicate trade"),
+    AMOUNT_INVALID(90315,"amount is invalid"),
+    CONCURRENT_UPDATE(90316,"wallet was updated concurrently"),
+    SERVER_BUSY(90317,"server is busy, please try again later")
     ;
     // @formatter:on
 
@@ -30,6 +30,8 @@ import lombok.Getter;
 @Getter
 public class BizException extends GsvcException {
 
+    private final IServiceError serviceError;
+
     private final String currency;
 
     private final String biz;
@@ -38,6 +40,7 @@ public class BizException extends GsvcException {
 
     public BizException(IServiceError error, String biz, String subject, String currency, Throwable e) {
         super(error, e);
+        this.serviceError = error;
         this.currency = currency;
         this.biz = biz;
         this.subject = subject;
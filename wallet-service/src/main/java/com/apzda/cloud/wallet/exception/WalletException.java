@@ -30,12 +30,15 @@ import lombok.Getter;
 @Getter
 public class WalletException extends GsvcException {
 
+    private final IServiceError serviceError;
+
     private final Long userId;
 
     private final String currency;
 
     public WalletException(IServiceError error, Long userId, String currency, Throwable e) {
         super(error, e);
+        this.serviceError = error;
         this.userId = userId;
         this.currency = currency;
     }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.expire;
+
+import cn.hutool.core.date.DateUtil;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import com.apzda.cloud.wallet.domain.service.OutlayService;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.apzda.cloud.wallet.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 过期清理: 按MOD(uid, partitions)分区并行扫描有过期收入的钱包，每个钱包每轮以一笔system/expire支出注销过期余额.
+ * <p>
+ * 每处理完一页钱包保存一次检查点，中断后从检查点继续；每个钱包单独一个事务，锁只在该钱包的事务内持有.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class ExpirySweeper implements InitializingBean, DisposableBean {
+
+    static final String JOB = "expiry";
+
+    private final WalletService walletService;
+
+    private final OutlayService outlayService;
+
+    private final JobCheckpointService checkpointService;
+
+    private final int partitions;
+
+    private final int parallelism;
+
+    private final int pageSize;
+
+    private final int maxLots;
+
+    private final Duration interval;
+
+    private final JobScheduler scheduler;
+
+    private ExecutorService workers;
+
+    public ExpirySweeper(@NonNull WalletService walletService, @NonNull OutlayService outlayService,
+            @NonNull JobCheckpointService checkpointService, int partitions, int parallelism, int pageSize,
+            int maxLots, @NonNull Duration interval) {
+        this.walletService = walletService;
+        this.outlayService = outlayService;
+        this.checkpointService = checkpointService;
+        this.partitions = Math.max(1, partitions);
+        this.parallelism = Math.max(1, Math.min(parallelism, this.partitions));
+        this.pageSize = Math.max(1, pageSize);
+        this.maxLots = Math.max(1, maxLots);
+        this.interval = interval;
+        this.scheduler = new JobScheduler("wallet-expiry-scheduler", interval);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        val counter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(parallelism, r -> {
+            val thread = new Thread(r, "wallet-expiry-sweeper-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.start(this::sweep);
+        log.info("Expiry sweeper started with {} partitions, parallelism: {}, interval: {}", partitions, parallelism,
+                interval);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.stop();
+        if (workers != null) {
+            workers.shutdown();
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        }
+        log.info("Expiry sweeper stopped");
+    }
+
+    /**
+     * 执行一轮清理.
+     * @return 本轮过期的钱包数
+     */
+    public int sweep() throws InterruptedException {
+        val now = DateUtil.current();
+        val futures = new ArrayList<Future<Integer>>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            val partition = i;
+            futures.add(workers.submit(() -> sweep(partition, now)));
+        }
+        var total = 0;
+        for (val future : futures) {
+            try {
+                total += future.get();
+            }
+            catch (ExecutionException e) {
+                log.error("Expiry sweeper partition failed: {}", e.getCause().getMessage(), e.getCause());
+            }
+        }
+        log.info("Expiry sweeper expired {} wallets", total);
+        return total;
+    }
+
+    int sweep(int partition, long now) {
+        val partKey = partition + "/" + partitions;
+        var after = parse(checkpointService.load(JOB, partKey));
+        var expired = 0;
+
+        while (scheduler.isRunning()) {
+            val wallets = outlayService.expiredWallets(partition, partitions, after, now, pageSize);
+            for (val wallet : wallets) {
+                after = new WalletKey(wallet.getUid(), wallet.getCurrency());
+                try {
+                    if (walletService.expire(wallet.getUid(), wallet.getCurrency(), now, maxLots) != null) {
+                        expired++;
+                    }
+                }
+                catch (Exception e) {
+                    log.warn("Cannot expire wallet(uid: {}, currency: {}): {}", wallet.getUid(), wallet.getCurrency(),
+                            e.getMessage());
+                }
+            }
+
+            if (wallets.size() < pageSize) {
+                // 本分区已扫描完，下一轮从头开始
+                checkpointService.store(JOB, partKey, null);
+                break;
+            }
+            checkpointService.store(JOB, partKey, format(after));
+        }
+        return expired;
+    }
+
+    @Nullable
+    static WalletKey parse(@Nullable String checkpoint) {
+        if (checkpoint == null || checkpoint.isEmpty()) {
+            return null;
+        }
+        val idx = checkpoint.indexOf(':');
+        return new WalletKey(Long.parseLong(checkpoint.substring(0, idx)), checkpoint.substring(idx + 1));
+    }
+
+    static String format(@NonNull WalletKey key) {
+        return key.uid() + ":" + key.currency();
+    }
+
+}
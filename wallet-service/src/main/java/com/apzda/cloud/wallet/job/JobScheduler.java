@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.job;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 后台任务调度: 在一个守护线程中按固定间隔执行任务，任务抛出的异常只记录日志，不影响下一次执行.
+ * <p>
+ * 间隔为空或不足1毫秒时不定时执行，任务仍可手动调用. 任务应在每批之间检查{@link #isRunning()}，停止后尽快返回.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public final class JobScheduler {
+
+    /**
+     * 定时执行的任务.
+     */
+    @FunctionalInterface
+    public interface Job {
+
+        void run() throws Exception;
+
+    }
+
+    private final String name;
+
+    private final Duration interval;
+
+    private ScheduledExecutorService executor;
+
+    private volatile boolean running;
+
+    /**
+     * @param name 线程名，也用于日志
+     * @param interval 两次执行的间隔(上一次结束到下一次开始)
+     */
+    public JobScheduler(@NonNull String name, @Nullable Duration interval) {
+        this.name = name;
+        this.interval = interval;
+    }
+
+    /**
+     * 间隔是否可以定时执行.
+     */
+    public static boolean isScheduled(@Nullable Duration interval) {
+        return interval != null && !interval.isNegative() && interval.toMillis() > 0;
+    }
+
+    /**
+     * 标记为运行中，间隔有效时开始定时执行job.
+     */
+    public synchronized void start(@NonNull Job job) {
+        running = true;
+        if (!isScheduled(interval)) {
+            log.info("{} is not scheduled, interval: {}", name, interval);
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            val thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        val delay = interval.toMillis();
+        executor.scheduleWithFixedDelay(() -> runQuietly(job), delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时执行并中断正在执行的任务.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * 已启动且尚未停止.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void runQuietly(Job job) {
+        try {
+            job.run();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            log.error("{} failed: {}", name, e.getMessage(), e);
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.lock;
+
+/**
+ * 交易时钱包的并发控制方式.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public enum LockMode {
+
+    /**
+     * 悲观锁: 进程内锁 + SELECT ... FOR UPDATE，锁持有到事务结束
+     */
+    PESSIMISTIC,
+    /**
+     * 乐观锁: 不加锁读取钱包，以UPDATE ... WHERE id = ? AND block = ?提交，冲突时重试；适合竞争少的钱包
+     */
+    OPTIMISTIC
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.lock;
+
+import com.apzda.cloud.wallet.error.WalletError;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 钱包锁(按uid+currency分段)，只串行化同一个钱包上的操作.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class WalletLockManager {
+
+    private static final int MAX_STRIPES = 1 << 16;
+
+    private static final long SLOW_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ReentrantLock[] locks;
+
+    private final int mask;
+
+    private final long timeout;
+
+    private final LongAdder acquired = new LongAdder();
+
+    private final LongAdder contended = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0L);
+
+    public WalletLockManager(int stripes, @NonNull Duration timeout) {
+        var size = 1;
+        while (size < stripes && size < MAX_STRIPES) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        this.timeout = timeout.toNanos();
+    }
+
+    /**
+     * 钱包所在的锁分段，同时锁定多个钱包时应按此值升序加锁.
+     */
+    public int stripeOf(long uid, @NonNull String currency) {
+        var h = Long.hashCode(uid) * 31 + currency.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    public void lock(long uid, @NonNull String currency) {
+        val lock = locks[stripeOf(uid, currency)];
+        if (lock.tryLock()) {
+            acquired.increment();
+            return;
+        }
+
+        contended.increment();
+        val start = System.nanoTime();
+        var locked = false;
+        try {
+            locked = lock.tryLock(timeout, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        val waited = System.nanoTime() - start;
+        waitNanos.add(waited);
+        maxWaitNanos.accumulate(waited);
+
+        if (!locked) {
+            timeouts.increment();
+            log.error("Cannot lock wallet(uid: {}, currency: {}) in {}ms", uid, currency,
+                    TimeUnit.NANOSECONDS.toMillis(waited));
+            WalletError.LOCK_TIMEOUT.emit(uid, currency);
+        }
+
+        acquired.increment();
+        if (waited > SLOW_WAIT_NANOS) {
+            log.warn("Wallet(uid: {}, currency: {}) waited {}ms for lock", uid, currency,
+                    TimeUnit.NANOSECONDS.toMillis(waited));
+        }
+    }
+
+    public void unlock(long uid, @NonNull String currency) {
+        locks[stripeOf(uid, currency)].unlock();
+    }
+
+    /**
+     * 锁定钱包直到当前事务结束(提交或回滚)，没有事务时调用方需自行调用{@link #unlock(long, String)}.
+     * @return 锁是否绑定到了当前事务
+     */
+    public boolean lockInTransaction(long uid, @NonNull String currency) {
+        lock(uid, currency);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        try {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    unlock(uid, currency);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            unlock(uid, currency);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean isHeldByCurrentThread(long uid, @NonNull String currency) {
+        return locks[stripeOf(uid, currency)].isHeldByCurrentThread();
+    }
+
+    public int getStripes() {
+        return locks.length;
+    }
+
+    @NonNull
+    public Stats getStats() {
+        return new Stats(acquired.sum(), contended.sum(), timeouts.sum(), waitNanos.sum(), maxWaitNanos.get());
+    }
+
+    /**
+     * 锁统计.
+     *
+     * @param acquired 成功加锁次数
+     * @param contended 需要等待的加锁次数
+     * @param timeouts 加锁超时次数
+     * @param waitNanos 累计等待时间(纳秒)
+     * @param maxWaitNanos 最长等待时间(纳秒)
+     */
+    public record Stats(long acquired, long contended, long timeouts, long waitNanos, long maxWaitNanos) {
+
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.lock;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.lang.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把{@link WalletLockManager#getStats()}导出为Micrometer指标.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class WalletLockMetrics implements MeterBinder {
+
+    private final WalletLockManager lockManager;
+
+    public WalletLockMetrics(@NonNull WalletLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        FunctionCounter.builder("wallet.lock.acquired", lockManager, m -> m.getStats().acquired())
+            .description("成功加锁次数")
+            .register(registry);
+        FunctionCounter.builder("wallet.lock.contended", lockManager, m -> m.getStats().contended())
+            .description("需要等待的加锁次数")
+            .register(registry);
+        FunctionCounter.builder("wallet.lock.timeouts", lockManager, m -> m.getStats().timeouts())
+            .description("加锁超时次数")
+            .register(registry);
+        FunctionCounter.builder("wallet.lock.wait", lockManager, m -> m.getStats().waitNanos() / 1e9)
+            .description("累计等待时间")
+            .baseUnit("seconds")
+            .register(registry);
+        TimeGauge.builder("wallet.lock.wait.max", lockManager, TimeUnit.NANOSECONDS, m -> m.getStats().maxWaitNanos())
+            .description("最长等待时间")
+            .register(registry);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.money;
+
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 定点金额编解码: 金额以最小单位(10^-precision)的long保存.
+ * <p>
+ * double转最小单位时，若存在唯一的最小单位值其十进制表示舍入后正好是该double，则取该值；否则按该double的十进制表示向零截断(与原实现一致).
+ * 最小单位转double时返回离精确值最近的double.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public final class MoneyCodec {
+
+    public static final int MAX_PRECISION = 18;
+
+    private static final long[] POW10 = new long[MAX_PRECISION + 1];
+
+    private static final MoneyCodec[] CODECS = new MoneyCodec[MAX_PRECISION + 1];
+
+    /**
+     * 小于该值的double可精确区分相差1的整数，快速路径可用
+     */
+    private static final double FAST_LIMIT = 0x1p52;
+
+    private static final long EXACT_LIMIT = 1L << 53;
+
+    static {
+        POW10[0] = 1L;
+        for (int i = 1; i <= MAX_PRECISION; i++) {
+            POW10[i] = POW10[i - 1] * 10L;
+        }
+        for (int i = 0; i <= MAX_PRECISION; i++) {
+            CODECS[i] = new MoneyCodec(i);
+        }
+    }
+
+    private final int precision;
+
+    private final long factor;
+
+    private final double doubleFactor;
+
+    private MoneyCodec(int precision) {
+        this.precision = precision;
+        this.factor = POW10[precision];
+        this.doubleFactor = (double) factor;
+    }
+
+    @NonNull
+    public static MoneyCodec of(int precision) {
+        if (precision < 0 || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be in [0, " + MAX_PRECISION + "]: " + precision);
+        }
+        return CODECS[precision];
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public long getFactor() {
+        return factor;
+    }
+
+    /**
+     * double金额转为最小单位.
+     * @throws IllegalArgumentException 非有限数值
+     * @throws ArithmeticException 超出long范围
+     */
+    public long toMinor(double amount) {
+        if (!Double.isFinite(amount)) {
+            throw new IllegalArgumentException("amount is not a finite number: " + amount);
+        }
+        val scaled = amount * doubleFactor;
+        if (Math.abs(scaled) < FAST_LIMIT) {
+            val minor = Math.round(scaled);
+            if ((double) minor / doubleFactor == amount) {
+                return minor;
+            }
+        }
+        return BigDecimal.valueOf(amount).movePointRight(precision).toBigInteger().longValueExact();
+    }
+
+    /**
+     * 十进制字符串金额转为最小单位，小数位不能超过精度.
+     * @throws NumberFormatException 格式错误
+     * @throws ArithmeticException 小数位超过精度或超出long范围
+     */
+    public long toMinor(@NonNull String amount) {
+        return new BigDecimal(amount.trim()).setScale(precision, RoundingMode.UNNECESSARY)
+            .unscaledValue()
+            .longValueExact();
+    }
+
+    /**
+     * 最小单位转为最接近的double金额.
+     */
+    public double toDouble(long minor) {
+        if (minor > -EXACT_LIMIT && minor < EXACT_LIMIT) {
+            return (double) minor / doubleFactor;
+        }
+        return BigDecimal.valueOf(minor, precision).doubleValue();
+    }
+
+    /**
+     * 最小单位转为十进制字符串(不含指数).
+     */
+    @NonNull
+    public String toPlainString(long minor) {
+        return BigDecimal.valueOf(minor, precision).toPlainString();
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.outbox;
+
+import com.apzda.cloud.wallet.domain.entity.WalletOutbox;
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 本地文件投递: 每个事件追加一行CSV，每批写完后刷盘，供离线对账或由日志采集转发.
+ * <p>
+ * 行格式: id,created_at,uid,currency,log_id,transaction_id,biz,biz_subject,biz_id,amount,balance,frozen,outlay
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class FileSink implements OutboxSink {
+
+    private final Path file;
+
+    public FileSink(@NonNull Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void publish(@NonNull List<WalletOutbox> events) throws IOException {
+        val text = new StringBuilder(events.size() * 128);
+        for (val event : events) {
+            text.append(encode(event)).append('\n');
+        }
+        val parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (val channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            val buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    @NonNull
+    static String encode(@NonNull WalletOutbox event) {
+        return event.getId() + "," + event.getCreatedAt() + "," + event.getUid() + "," + event.getCurrency() + ","
+                + event.getLogId() + "," + event.getTransactionId() + "," + escape(event.getBiz()) + ","
+                + escape(event.getBizSubject()) + "," + escape(event.getBizId()) + "," + event.getAmount() + ","
+                + event.getBalance() + "," + event.getFrozen() + "," + event.isOutlay();
+    }
+
+    /**
+     * 含逗号、引号或换行的字段按RFC 4180加引号.
+     */
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.outbox;
+
+import com.apzda.cloud.wallet.domain.entity.WalletOutbox;
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 进程内投递: 在中继线程中依次回调订阅者，任一订阅者抛出异常时整批重试.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public class InProcessSink implements OutboxSink {
+
+    private final List<Consumer<List<WalletOutbox>>> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 订阅事件.
+     * @return 取消订阅
+     */
+    @NonNull
+    public Runnable subscribe(@NonNull Consumer<List<WalletOutbox>> subscriber) {
+        subscribers.add(subscriber);
+        return () -> subscribers.remove(subscriber);
+    }
+
+    @Override
+    public void publish(@NonNull List<WalletOutbox> events) {
+        val view = List.copyOf(events);
+        for (val subscriber : subscribers) {
+            subscriber.accept(view);
+        }
+    }
+
+}
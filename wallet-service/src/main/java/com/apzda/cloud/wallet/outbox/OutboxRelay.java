@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.outbox;
+
+import cn.hutool.core.date.DateUtil;
+import com.apzda.cloud.wallet.domain.entity.WalletOutbox;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import com.apzda.cloud.wallet.domain.service.OutboxService;
+import com.apzda.cloud.wallet.domain.vo.IdCursor;
+import com.apzda.cloud.wallet.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 发件箱中继: 按ID顺序分批读取变更事件，投递给全部{@link OutboxSink}后推进检查点(至少一次).
+ * <p>
+ * 事件ID全局有序，同一钱包的事件按交易顺序投递；只投递写入超过lag的事件，避免跳过尚未提交的较小ID.
+ * 事务提交晚于lag时较小的ID会被越过，越过的ID作为空洞记在检查点中，每轮重新查询并补投，
+ * 超过gapTimeout仍未出现的空洞(通常是回滚的事务)不再等待；补投的事件晚于其后的事件送达.
+ * 检查点以CAS推进，多个实例同时运行时只有一个能推进.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class OutboxRelay implements InitializingBean, DisposableBean {
+
+    static final String JOB = "outbox-relay";
+
+    static final String PART_KEY = "all";
+
+    /**
+     * 一次最多删除的过期事件数
+     */
+    private static final int PURGE_LIMIT = 10000;
+
+    private final OutboxService outboxService;
+
+    private final JobCheckpointService checkpointService;
+
+    private final List<OutboxSink> sinks;
+
+    private final int batchSize;
+
+    private final Duration lag;
+
+    private final Duration gapTimeout;
+
+    private final Duration interval;
+
+    private final Duration retention;
+
+    private final JobScheduler scheduler;
+
+    public OutboxRelay(@NonNull OutboxService outboxService, @NonNull JobCheckpointService checkpointService,
+            @NonNull List<OutboxSink> sinks, int batchSize, @NonNull Duration lag, @NonNull Duration gapTimeout,
+            @NonNull Duration interval, @NonNull Duration retention) {
+        this.outboxService = outboxService;
+        this.checkpointService = checkpointService;
+        this.sinks = List.copyOf(sinks);
+        this.batchSize = Math.max(1, batchSize);
+        this.lag = lag;
+        this.gapTimeout = gapTimeout;
+        this.interval = interval;
+        this.scheduler = new JobScheduler("wallet-outbox-relay", interval);
+        this.retention = retention;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        scheduler.start(this::relay);
+        log.info("Outbox relay started with {} sinks, interval: {}, lag: {}", sinks.size(), interval, lag);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.stop();
+        log.info("Outbox relay stopped");
+    }
+
+    /**
+     * 补投检查点中的空洞，投递检查点之后的事件，并清理已投递的过期事件.
+     * @return 本次投递的事件数
+     */
+    public long relay() throws Exception {
+        var checkpoint = checkpointService.load(JOB, PART_KEY);
+        if (checkpoint == null) {
+            checkpointService.store(JOB, PART_KEY, "0");
+            checkpoint = "0";
+        }
+        val cursor = IdCursor.parse(checkpoint);
+        var total = 0L;
+        if (!cursor.gaps().isEmpty()) {
+            val now = DateUtil.current();
+            val late = new ArrayList<>(outboxService.listByIds(cursor.gaps()));
+            if (!late.isEmpty()) {
+                late.sort(Comparator.comparing(WalletOutbox::getId));
+                publish(late, cursor, now);
+                total += late.size();
+            }
+            val expired = cursor.expire(now - gapTimeout.toMillis());
+            if (!expired.isEmpty()) {
+                log.warn("Outbox relay gave up waiting for events: {}", expired);
+            }
+            if (!late.isEmpty() || !expired.isEmpty()) {
+                val next = cursor.format();
+                if (!checkpointService.compareAndStore(JOB, PART_KEY, checkpoint, next)) {
+                    log.warn("Outbox relay checkpoint had been moved by another instance, skip this round");
+                    return total;
+                }
+                checkpoint = next;
+            }
+        }
+        while (scheduler.isRunning()) {
+            val now = DateUtil.current();
+            val events = settled(outboxService.listAfter(cursor.position(), batchSize), now - lag.toMillis());
+            if (events.isEmpty()) {
+                break;
+            }
+            publish(events, cursor, now);
+            val next = cursor.format();
+            if (!checkpointService.compareAndStore(JOB, PART_KEY, checkpoint, next)) {
+                log.warn("Outbox relay checkpoint had been moved by another instance, skip this round");
+                return total;
+            }
+            checkpoint = next;
+            total += events.size();
+        }
+        if (!retention.isNegative()) {
+            val purged = outboxService.purge(cursor.position(), DateUtil.current() - retention.toMillis(),
+                    PURGE_LIMIT);
+            if (purged > 0) {
+                log.debug("Outbox relay purged {} events", purged);
+            }
+        }
+        return total;
+    }
+
+    private void publish(List<WalletOutbox> events, IdCursor cursor, long now) throws Exception {
+        for (val sink : sinks) {
+            sink.publish(events);
+        }
+        for (val event : events) {
+            val dropped = cursor.advance(event.getId(), now);
+            if (!dropped.isEmpty()) {
+                log.warn("Outbox relay tracks too many missing events, gave up waiting for: {}", dropped);
+            }
+        }
+    }
+
+    /**
+     * 截取写入时间不晚于horizon的前缀.
+     */
+    @NonNull
+    static List<WalletOutbox> settled(@NonNull List<WalletOutbox> events, long horizon) {
+        val settled = new ArrayList<WalletOutbox>(events.size());
+        for (val event : events) {
+            if (event.getCreatedAt() == null || event.getCreatedAt() > horizon) {
+                break;
+            }
+            settled.add(event);
+        }
+        return settled;
+    }
+
+}
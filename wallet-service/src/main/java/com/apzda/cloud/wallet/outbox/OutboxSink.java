@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.outbox;
+
+import com.apzda.cloud.wallet.domain.entity.WalletOutbox;
+import org.springframework.lang.NonNull;
+
+import java.util.List;
+
+/**
+ * 变更事件的投递目标. 中继按ID顺序逐批投递，投递成功后才推进检查点，所以同一事件可能被重复投递，消费者应按事件ID去重.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+public interface OutboxSink {
+
+    /**
+     * 投递一批事件，抛出异常时中继稍后重试整批.
+     * @param events 按ID升序
+     */
+    void publish(@NonNull List<WalletOutbox> events) throws Exception;
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.service;
+
+import lombok.val;
+import org.springframework.lang.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 导出断点: 表、已导出的最后一个ID与导出的结束ID.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+record ExportToken(int table, long afterId, long toId) {
+
+    private static final String VERSION = "v1";
+
+    boolean isDone() {
+        return afterId >= toId;
+    }
+
+    @NonNull
+    ExportToken next(long lastId) {
+        return new ExportToken(table, lastId, toId);
+    }
+
+    @NonNull
+    String encode() {
+        val raw = VERSION + ":" + table + ":" + afterId + ":" + toId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException token无效
+     */
+    @NonNull
+    static ExportToken decode(@NonNull String token) {
+        try {
+            val parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 4 || !VERSION.equals(parts[0])) {
+                throw new IllegalArgumentException("Invalid export token: " + token);
+            }
+            return new ExportToken(Integer.parseInt(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid export token: " + token, e);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.service;
+
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import com.apzda.cloud.wallet.proto.*;
+import lombok.val;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * 领域对象与接口对象之间的转换.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+final class WalletConverter {
+
+    private WalletConverter() {
+    }
+
+    @NonNull
+    static TransactionVO toTransactionVO(@NonNull Transaction transaction) {
+        val wallet = new Wallet();
+        wallet.setUid(transaction.getUid());
+        wallet.setCurrency(transaction.getCurrency());
+
+        val builder = TransactionVO.newBuilder();
+        builder.setId(transaction.getId());
+        builder.setUid(transaction.getUid());
+        builder.setCurrency(transaction.getCurrency());
+        builder.setAmount(wallet.doubleValue(transaction.getAmount()));
+        builder.setOutlay(transaction.isOutlay());
+        builder.setBiz(transaction.getBiz());
+        builder.setBizSubject(transaction.getBizSubject());
+        builder.setBizId(transaction.getBizId());
+        if (transaction.getCreatedAt() != null) {
+            builder.setCreatedAt(transaction.getCreatedAt());
+        }
+        if (transaction.getExpiredAt() != null) {
+            builder.setExpiredAt(transaction.getExpiredAt());
+        }
+        builder.setScale(wallet.getScale());
+        builder.setPrecision(wallet.getPrecision());
+        return builder.build();
+    }
+
+    /**
+     * 交易历史: 以变更日志转换，id为交易流水ID.
+     * @param withBalance 是否返回交易后余额，热点钱包的日志只有所在子钱包的余额，不返回
+     */
+    @NonNull
+    static TransactionVO toTransactionVO(@NonNull ChangeLog changeLog, boolean withBalance) {
+        val wallet = new Wallet();
+        wallet.setUid(changeLog.getUid());
+        wallet.setCurrency(changeLog.getCurrency());
+
+        val builder = TransactionVO.newBuilder();
+        builder.setId(changeLog.getTransactionId());
+        builder.setUid(changeLog.getUid());
+        builder.setCurrency(changeLog.getCurrency());
+        builder.setAmount(wallet.doubleValue(changeLog.getAmount()));
+        if (withBalance) {
+            builder.setBalance(wallet.doubleValue(changeLog.getBalance()));
+        }
+        builder.setOutlay(changeLog.isOutlay());
+        builder.setBiz(changeLog.getBiz());
+        builder.setBizSubject(changeLog.getBizSubject());
+        builder.setBizId(changeLog.getBizId());
+        if (changeLog.getCreatedAt() != null) {
+            builder.setCreatedAt(changeLog.getCreatedAt());
+        }
+        builder.setScale(wallet.getScale());
+        builder.setPrecision(wallet.getPrecision());
+        return builder.build();
+    }
+
+    @NonNull
+    static ChangeLogRecord toChangeLogRecord(@NonNull ChangeLog changeLog) {
+        val builder = ChangeLogRecord.newBuilder();
+        builder.setId(changeLog.getId());
+        if (changeLog.getCreatedAt() != null) {
+            builder.setCreatedAt(changeLog.getCreatedAt());
+        }
+        builder.setTransactionId(changeLog.getTransactionId());
+        builder.setUid(changeLog.getUid());
+        builder.setCurrency(changeLog.getCurrency());
+        builder.setBiz(changeLog.getBiz());
+        builder.setBizSubject(changeLog.getBizSubject());
+        builder.setBizId(changeLog.getBizId());
+        builder.setAmount(changeLog.getAmount());
+        builder.setPreBalance(changeLog.getPreBalance());
+        builder.setBalance(changeLog.getBalance());
+        builder.setPreFrozen(changeLog.getPreFrozen());
+        builder.setFrozen(changeLog.getFrozen());
+        builder.setOutlay(changeLog.isOutlay());
+        if (changeLog.getParentId() != null) {
+            builder.setParentId(changeLog.getParentId());
+        }
+        builder.setBlock(changeLog.getBlock());
+        if (changeLog.getAlgorithm() != null) {
+            builder.setAlgorithm(changeLog.getAlgorithm());
+        }
+        return builder.build();
+    }
+
+    @NonNull
+    static TransactionRecord toTransactionRecord(@NonNull Transaction transaction) {
+        val builder = TransactionRecord.newBuilder();
+        builder.setId(transaction.getId());
+        if (transaction.getCreatedAt() != null) {
+            builder.setCreatedAt(transaction.getCreatedAt());
+        }
+        builder.setUid(transaction.getUid());
+        builder.setCurrency(transaction.getCurrency());
+        builder.setBiz(transaction.getBiz());
+        builder.setBizSubject(transaction.getBizSubject());
+        builder.setBizId(transaction.getBizId());
+        builder.setAmount(transaction.getAmount());
+        builder.setOutlay(transaction.isOutlay());
+        builder.setNeedFrozen(transaction.isNeedFrozen());
+        builder.setWithdrawAble(transaction.isWithdrawAble());
+        if (transaction.getExpiredAt() != null) {
+            builder.setExpiredAt(transaction.getExpiredAt());
+        }
+        if (transaction.getRemark() != null) {
+            builder.setRemark(transaction.getRemark());
+        }
+        return builder.build();
+    }
+
+    @NonNull
+    static WalletDTO toWalletDTO(@NonNull Wallet wallet) {
+        val builder = WalletDTO.newBuilder();
+        if (wallet.getId() != null) {
+            builder.setId(wallet.getId());
+        }
+        builder.setUid(wallet.getUid());
+        builder.setCurrency(wallet.getCurrency());
+        builder.setAmount(wallet.doubleValue(wallet.getAmount()));
+        builder.setBalance(wallet.doubleValue(wallet.getBalance()));
+        builder.setFrozen(wallet.doubleValue(wallet.getFrozen()));
+        builder.setWithdrawal(wallet.doubleValue(wallet.getWithdrawal()));
+        builder.setOutlay(wallet.doubleValue(wallet.getOutlay()));
+        builder.setLocked(wallet.isLocked());
+        builder.setExpireAble(wallet.isExpireAble());
+        builder.setWithdrawAble(wallet.isWithdrawAble());
+        builder.setRate(wallet.getRate());
+        builder.setPrecision(wallet.getPrecision());
+        builder.setScale(wallet.getScale());
+        return builder.build();
+    }
+
+    /**
+     * 时间点余额: 余额与冻结金额取自时间点之前的最后一条变更日志，可提现与支出金额取自该日志处的钱包检查点.
+     */
+    @NonNull
+    static BalanceAtRes toBalanceAtRes(@NonNull BalanceAtReq request, @Nullable ChangeLog changeLog,
+            @Nullable WalletCheckpoint checkpoint) {
+        val wallet = new Wallet();
+        wallet.setUid(request.getUid());
+        wallet.setCurrency(request.getCurrency());
+
+        val builder = BalanceAtRes.newBuilder();
+        builder.setUid(request.getUid());
+        builder.setCurrency(request.getCurrency());
+        builder.setTimestamp(request.getTimestamp());
+        if (changeLog != null) {
+            builder.setAmount(wallet.doubleValue(changeLog.getBalance() + changeLog.getFrozen()));
+            builder.setBalance(wallet.doubleValue(changeLog.getBalance()));
+            builder.setFrozen(wallet.doubleValue(changeLog.getFrozen()));
+            builder.setLogId(changeLog.getId());
+            if (changeLog.getCreatedAt() != null) {
+                builder.setChangedAt(changeLog.getCreatedAt());
+            }
+        }
+        if (checkpoint != null) {
+            builder.setWithdrawal(wallet.doubleValue(checkpoint.getWithdrawal()));
+            builder.setOutlay(wallet.doubleValue(checkpoint.getOutlay()));
+        }
+        builder.setPrecision(wallet.getPrecision());
+        builder.setScale(wallet.getScale());
+        return builder.build();
+    }
+
+    @NonNull
+    static TradeResult toTradeResult(@NonNull com.apzda.cloud.wallet.domain.vo.TradeResult result) {
+        val builder = TradeResult.newBuilder();
+        builder.setIndex(result.index());
+        val error = result.error();
+        if (error != null) {
+            builder.setErrCode(error.code());
+            builder.setErrMsg(error.message());
+        }
+        else if (result.transaction() != null) {
+            builder.setTransaction(toTransactionVO(result.transaction()));
+        }
+        return builder.build();
+    }
+
+}
@@ -16,41 +16,452 @@
  */
 package com.apzda.cloud.wallet.service;
 
-import com.apzda.cloud.wallet.proto.TradeDTO;
-import com.apzda.cloud.wallet.proto.TransactionVO;
-import com.apzda.cloud.wallet.proto.WalletDTO;
-import com.apzda.cloud.wallet.proto.WalletService;
+import cn.hutool.core.date.DateUtil;
+import com.apzda.cloud.wallet.block.CheckpointSigner;
+import com.apzda.cloud.wallet.cache.WalletCache;
+import com.apzda.cloud.wallet.config.WalletConfig;
+import com.apzda.cloud.wallet.config.WalletProperties;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import com.apzda.cloud.wallet.domain.service.ChangeLogService;
+import com.apzda.cloud.wallet.domain.service.IdempotencyService;
+import com.apzda.cloud.wallet.domain.service.OptimisticTradeService;
+import com.apzda.cloud.wallet.domain.service.TransactionService;
+import com.apzda.cloud.wallet.domain.service.WalletCheckpointService;
+import com.apzda.cloud.wallet.domain.service.WalletQueryService;
+import com.apzda.cloud.wallet.domain.vo.HistoryQuery;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.apzda.cloud.wallet.engine.TradeEngine;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.BizException;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.lock.LockMode;
+import com.apzda.cloud.wallet.proto.*;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 /**
  * @author fengz (windywany@gmail.com)
  * @version 1.0.0
  * @since 1.0.0
  **/
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class WalletServiceImpl implements WalletService {
 
+    static final int DEFAULT_HISTORY_SIZE = 20;
+
+    static final int DEFAULT_EXPORT_CHUNK_SIZE = 1000;
+
     private final com.apzda.cloud.wallet.domain.service.WalletService walletService;
 
+    private final WalletQueryService walletQueryService;
+
+    private final ChangeLogService changeLogService;
+
+    private final TransactionService transactionService;
+
+    private final IdempotencyService idempotencyService;
+
+    private final OptimisticTradeService optimisticTradeService;
+
+    private final WalletCheckpointService walletCheckpointService;
+
+    private final CheckpointSigner checkpointSigner;
+
+    private final WalletProperties walletProperties;
+
+    private final ObjectProvider<TradeEngine> tradeEngine;
+
+    private final ObjectProvider<WalletCache> walletCache;
+
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public TransactionVO trade(TradeDTO request) {
+        val idempotent = walletProperties.getIdempotency().isEnabled();
+        if (idempotent) {
+            // 重试的请求只需一次索引读取，不打开钱包、不加锁
+            val existing = idempotencyService.lookup(request);
+            if (existing != null) {
+                return WalletConverter.toTransactionVO(existing);
+            }
+        }
 
+        val engine = tradeEngine.getIfAvailable();
+        Transaction trans;
+        try {
+            val currencyConfig = WalletConfig.getCurrencyConfig(request.getCurrency());
+            if (currencyConfig.shardsOf(request.getUid()) > 1) {
+                // 热点钱包的交易分散到各子钱包，不经过按uid分片的写线程；支出与并发支出冲突时重试
+                trans = optimisticTradeService.tradeSharded(request);
+            }
+            else if (currencyConfig.isDeferred(request.getBiz(), request.getBizSubject())) {
+                // 延迟入账的收入只写入流水，不锁定钱包
+                trans = walletService.trade(request);
+            }
+            else if (currencyConfig.lockMode() == LockMode.OPTIMISTIC) {
+                trans = optimisticTradeService.trade(request);
+            }
+            else {
+                // 启用组提交引擎时由分片写线程批量提交
+                trans = engine != null ? engine.trade(request) : walletService.trade(request);
+            }
+        }
+        catch (DuplicateKeyException e) {
+            // 并发重试在UDX_SSID上冲突，原交易已提交
+            trans = original(request, e);
+        }
+        catch (WalletException e) {
+            if (e.getServiceError().code() != WalletError.DUPLICATE_TRADE.getCode()) {
+                throw e;
+            }
+            trans = original(request, e);
+        }
+        if (idempotent) {
+            idempotencyService.remember(trans);
+        }
 
-        val trans = walletService.trade(request);
-        val builder = TransactionVO.newBuilder();
+        return WalletConverter.toTransactionVO(trans);
+    }
 
-        return builder.build();
+    private Transaction original(TradeDTO request, RuntimeException e) {
+        val existing = idempotencyService.lookup(request);
+        if (existing == null) {
+            throw e;
+        }
+        return existing;
+    }
+
+    @Override
+    public TradeBatchRes tradeBatch(TradeBatchReq request) {
+        val trades = request.getTradesList();
+        if (trades.size() > walletProperties.getMaxBatchSize()) {
+            throw new IllegalArgumentException(
+                    "Too many trades: " + trades.size() + " > " + walletProperties.getMaxBatchSize());
+        }
+        // 热点钱包的交易拆出批量事务，逐笔在独立事务中提交，不打乱批量事务按锁分段的加锁顺序
+        val batch = new ArrayList<TradeDTO>(trades.size());
+        val indexes = new ArrayList<Integer>(trades.size());
+        val sharded = new ArrayList<Integer>();
+        for (int i = 0; i < trades.size(); i++) {
+            val trade = trades.get(i);
+            if (WalletConfig.getCurrencyConfig(trade.getCurrency()).shardsOf(trade.getUid()) > 1) {
+                sharded.add(i);
+            }
+            else {
+                batch.add(trade);
+                indexes.add(i);
+            }
+        }
+
+        val idempotent = walletProperties.getIdempotency().isEnabled();
+        val results = new TradeResult[trades.size()];
+        if (!batch.isEmpty()) {
+            for (val result : walletService.tradeBatch(batch)) {
+                val index = indexes.get(result.index());
+                results[index] = resolve(index, trades.get(index), result, idempotent);
+            }
+        }
+        for (val index : sharded) {
+            results[index] = resolve(index, trades.get(index), tradeSharded(index, trades.get(index)), idempotent);
+        }
+        return TradeBatchRes.newBuilder().addAllResults(Arrays.asList(results)).build();
+    }
+
+    /**
+     * 以重复交易失败的交易按幂等规则取回原交易，与单笔交易的重试语义一致；业务单号被不同交易使用时仍返回错误.
+     */
+    private TradeResult resolve(int index, TradeDTO trade, com.apzda.cloud.wallet.domain.vo.TradeResult result,
+            boolean idempotent) {
+        var transaction = result.transaction();
+        if (!result.isSuccess() && result.error().code() == WalletError.DUPLICATE_TRADE.getCode()) {
+            try {
+                transaction = idempotencyService.lookup(trade);
+            }
+            catch (WalletException e) {
+                transaction = null;
+            }
+        }
+        if (transaction == null) {
+            return WalletConverter
+                .toTradeResult(com.apzda.cloud.wallet.domain.vo.TradeResult.failure(index, result.error()));
+        }
+        if (idempotent) {
+            idempotencyService.remember(transaction);
+        }
+        return WalletConverter
+            .toTradeResult(com.apzda.cloud.wallet.domain.vo.TradeResult.success(index, transaction));
+    }
+
+    private com.apzda.cloud.wallet.domain.vo.TradeResult tradeSharded(int index, TradeDTO trade) {
+        try {
+            return com.apzda.cloud.wallet.domain.vo.TradeResult.success(index,
+                    optimisticTradeService.tradeSharded(trade));
+        }
+        catch (DuplicateKeyException e) {
+            return com.apzda.cloud.wallet.domain.vo.TradeResult.failure(index, WalletError.DUPLICATE_TRADE);
+        }
+        catch (WalletException e) {
+            return com.apzda.cloud.wallet.domain.vo.TradeResult.failure(index, e.getServiceError());
+        }
+        catch (BizException e) {
+            return com.apzda.cloud.wallet.domain.vo.TradeResult.failure(index, e.getServiceError());
+        }
     }
 
     @Override
     public WalletDTO wallet(WalletDTO request) {
-        val builder = WalletDTO.getDefaultInstance();
-        return builder;
+        val uid = request.getUid();
+        val currency = request.getCurrency();
+        // 校验币种
+        WalletConfig.getCurrencyConfig(currency);
+
+        val cache = walletCache.getIfAvailable();
+        Wallet wallet;
+        if (cache == null || request.getConsistent()) {
+            wallet = walletQueryService.readWallet(uid, currency);
+            if (wallet == null) {
+                wallet = WalletCache.empty(new WalletKey(uid, currency));
+            }
+        }
+        else {
+            wallet = cache.get(uid, currency);
+        }
+
+        return WalletConverter.toWalletDTO(wallet);
+    }
+
+    @Override
+    public WalletsRes wallets(WalletsReq request) {
+        val uids = request.getUidsList();
+        if (uids.isEmpty()) {
+            throw new IllegalArgumentException("uids is required");
+        }
+        if (uids.size() > walletProperties.getMaxBatchSize()) {
+            throw new IllegalArgumentException(
+                    "Too many uids: " + uids.size() + " > " + walletProperties.getMaxBatchSize());
+        }
+        val builder = WalletsRes.newBuilder();
+        builder.addAllWallets(wallets(uids, request.getCurrenciesList()));
+        return builder.build();
+    }
+
+    @Override
+    public Flux<WalletDTO> walletStream(WalletsReq request) {
+        val uids = request.getUidsList();
+        val currencies = request.getCurrenciesList();
+        if (uids.isEmpty() && currencies.isEmpty()) {
+            return Flux.error(new IllegalArgumentException("uids or currencies is required"));
+        }
+        currencies.forEach(WalletConfig::getCurrencyConfig);
+
+        Flux<List<WalletDTO>> pages;
+        if (!uids.isEmpty()) {
+            // 按批次查询，每批一条SQL
+            val batchSize = walletProperties.getMaxBatchSize();
+            pages = Flux.range(0, (uids.size() + batchSize - 1) / batchSize)
+                .map(i -> wallets(uids.subList(i * batchSize, Math.min(uids.size(), (i + 1) * batchSize)),
+                        currencies));
+        }
+        else {
+            // 按主键键集分页遍历币种下的全部钱包
+            pages = Flux.generate(() -> 0L, (afterId, sink) -> {
+                val page = walletQueryService.listWallets(currencies, afterId, walletProperties.getMaxBatchSize());
+                if (page.isEmpty()) {
+                    sink.complete();
+                    return afterId;
+                }
+                sink.next(page.stream().map(WalletConverter::toWalletDTO).toList());
+                return page.get(page.size() - 1).getId();
+            });
+        }
+
+        return pages.flatMapIterable(page -> page).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public HistoryRes history(HistoryReq request) {
+        val currency = request.getCurrency();
+        WalletConfig.getCurrencyConfig(currency);
+        val size = request.getSize() > 0 ? request.getSize() : DEFAULT_HISTORY_SIZE;
+        val query = new HistoryQuery(request.getUid(), currency, request.hasBiz() ? request.getBiz() : null,
+                request.hasBizSubject() ? request.getBizSubject() : null,
+                request.hasOutlay() ? request.getOutlay() : null,
+                request.hasStartTime() ? request.getStartTime() : null,
+                request.hasEndTime() ? request.getEndTime() : null, request.hasCursor() ? request.getCursor() : null,
+                size);
+        val logs = changeLogService.history(query);
+        // 分为多个子钱包时日志中的余额只是所在子钱包的余额
+        val withBalance = logs.isEmpty() || walletQueryService.listShards(request.getUid(), currency).size() <= 1;
+
+        val builder = HistoryRes.newBuilder();
+        for (val changeLog : logs) {
+            builder.addTransactions(WalletConverter.toTransactionVO(changeLog, withBalance));
+        }
+        if (logs.size() == size) {
+            builder.setNextCursor(logs.get(logs.size() - 1).getId());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public BalanceAtRes balanceAt(BalanceAtReq request) {
+        val currency = request.getCurrency();
+        WalletConfig.getCurrencyConfig(currency);
+        val shards = walletQueryService.listShards(request.getUid(), currency);
+        if (shards.size() > 1) {
+            return WalletConverter.toBalanceAtRes(request, balanceAt(request, shards), null);
+        }
+        val changeLog = changeLogService.lastLogAt(request.getUid(), currency, request.getTimestamp());
+        WalletCheckpoint checkpoint = null;
+        if (changeLog != null) {
+            checkpoint = walletCheckpointService.atLog(request.getUid(), currency, changeLog.getId());
+            if (checkpoint != null && !checkpointSigner.verify(checkpoint)) {
+                log.warn("Checkpoint({}) of wallet(uid: {}, currency: {}) has an invalid digest", checkpoint.getId(),
+                        request.getUid(), currency);
+                checkpoint = null;
+            }
+        }
+        return WalletConverter.toBalanceAtRes(request, changeLog, checkpoint);
+    }
+
+    /**
+     * 各子钱包在指定时间点的余额合计，日志ID与变更时间取最后一次变更的.
+     */
+    @Nullable
+    private ChangeLog balanceAt(BalanceAtReq request, List<Wallet> shards) {
+        ChangeLog merged = null;
+        for (val shard : shards) {
+            val changeLog = changeLogService.lastLogAt(request.getUid(), request.getCurrency(), shard.getShard(),
+                    request.getTimestamp());
+            if (changeLog == null) {
+                continue;
+            }
+            if (merged == null) {
+                merged = new ChangeLog();
+                merged.setId(0L);
+                merged.setBalance(0L);
+                merged.setFrozen(0L);
+            }
+            merged.setBalance(merged.getBalance() + changeLog.getBalance());
+            merged.setFrozen(merged.getFrozen() + changeLog.getFrozen());
+            if (changeLog.getId() > merged.getId()) {
+                merged.setId(changeLog.getId());
+                merged.setCreatedAt(changeLog.getCreatedAt());
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public Flux<ExportRow> export(ExportReq request) {
+        val table = request.getTableValue();
+        if (table != ExportTable.CHANGE_LOG_VALUE && table != ExportTable.TRANSACTION_VALUE) {
+            return Flux.error(new IllegalArgumentException("Unsupported export table: " + table));
+        }
+        val chunkSize = request.getChunkSize() > 0 ? request.getChunkSize() : DEFAULT_EXPORT_CHUNK_SIZE;
+
+        return Flux.defer(() -> {
+            ExportToken start;
+            if (request.hasToken()) {
+                start = ExportToken.decode(request.getToken());
+                if (start.table() != table) {
+                    throw new IllegalArgumentException("Export token does not belong to table " + table);
+                }
+            }
+            else {
+                // 未指定结束ID时以写入超过exportLag的最大ID为界: ID在写入时分配、提交时才可见，
+                // 以当前最大ID为界会漏掉尚未提交的更小ID；执行时间超过exportLag的事务仍可能被漏掉
+                val horizon = DateUtil.current() - walletProperties.getExportLag().toMillis();
+                val toId = request.hasToId() ? request.getToId()
+                        : table == ExportTable.CHANGE_LOG_VALUE ? changeLogService.maxIdBefore(horizon)
+                                : transactionService.maxIdBefore(horizon);
+                val afterId = request.hasFromId() ? Math.max(0, request.getFromId() - 1) : 0L;
+                start = new ExportToken(table, afterId, toId);
+            }
+
+            // 按主键键集分批读取，下游请求时才读取下一批，内存中最多保留一批
+            return Flux.<List<ExportRow>, ExportToken>generate(() -> start, (token, sink) -> {
+                if (token.isDone()) {
+                    sink.complete();
+                    return token;
+                }
+                val rows = exportChunk(token, chunkSize);
+                if (rows.isEmpty()) {
+                    sink.complete();
+                    return token;
+                }
+                sink.next(rows);
+                val last = rows.get(rows.size() - 1);
+                return token.next(last.hasChangeLog() ? last.getChangeLog().getId() : last.getTransaction().getId());
+            }).flatMapIterable(rows -> rows, 1);
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private List<ExportRow> exportChunk(ExportToken token, int chunkSize) {
+        val rows = new ArrayList<ExportRow>(chunkSize);
+        if (token.table() == ExportTable.CHANGE_LOG_VALUE) {
+            for (val changeLog : changeLogService.listAfter(token.afterId(), token.toId(), chunkSize)) {
+                rows.add(ExportRow.newBuilder()
+                    .setChangeLog(WalletConverter.toChangeLogRecord(changeLog))
+                    .setToken(token.next(changeLog.getId()).encode())
+                    .build());
+            }
+        }
+        else {
+            for (val transaction : transactionService.listAfter(token.afterId(), token.toId(), chunkSize)) {
+                rows.add(ExportRow.newBuilder()
+                    .setTransaction(WalletConverter.toTransactionRecord(transaction))
+                    .setToken(token.next(transaction.getId()).encode())
+                    .build());
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 一条SQL读取多个用户的钱包；指定币种时不存在的钱包以余额为0返回，未指定时只返回已配置币种的钱包.
+     */
+    private List<WalletDTO> wallets(List<Long> uids, List<String> currencies) {
+        currencies.forEach(WalletConfig::getCurrencyConfig);
+        val wallets = walletQueryService.listWallets(uids, currencies);
+        val result = new ArrayList<WalletDTO>();
+        if (currencies.isEmpty()) {
+            for (val wallet : wallets) {
+                if (WalletConfig.hasCurrency(wallet.getCurrency())) {
+                    result.add(WalletConverter.toWalletDTO(wallet));
+                }
+            }
+            return result;
+        }
+
+        val found = new HashMap<WalletKey, Wallet>(wallets.size() * 2);
+        for (val wallet : wallets) {
+            found.put(new WalletKey(wallet.getUid(), wallet.getCurrency()), wallet);
+        }
+        for (val uid : new LinkedHashSet<>(uids)) {
+            for (val currency : new LinkedHashSet<>(currencies)) {
+                val key = new WalletKey(uid, currency);
+                val wallet = found.get(key);
+                result.add(WalletConverter.toWalletDTO(wallet != null ? wallet : WalletCache.empty(key)));
+            }
+        }
+        return result;
     }
 
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2023-2024 Fengz Ning (windywany@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.apzda.cloud.wallet.stat;
+
+import cn.hutool.core.date.DateUtil;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.service.ChangeLogService;
+import com.apzda.cloud.wallet.domain.service.DailyStatService;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import com.apzda.cloud.wallet.domain.vo.IdCursor;
+import com.apzda.cloud.wallet.job.JobScheduler;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.NonNull;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 日汇总更新: 定期按ID顺序读取新的变更日志，分批折叠进日汇总.
+ * <p>
+ * 只汇总写入超过lag的日志，尽量不越过尚未提交的较小ID；提交仍晚于lag的日志在检查点中记为空洞，之后每轮重新查询并补汇总，
+ * 超过gapTimeout仍未出现时不再等待(事务已回滚)。没有检查点时从第一条日志开始，即完成回填.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@Slf4j
+public class DailyStatAggregator implements InitializingBean, DisposableBean {
+
+    static final String JOB = "daily-stat";
+
+    static final String PART_KEY = "all";
+
+    private final ChangeLogService changeLogService;
+
+    private final DailyStatService dailyStatService;
+
+    private final JobCheckpointService checkpointService;
+
+    private final int chunkSize;
+
+    private final Duration lag;
+
+    private final Duration gapTimeout;
+
+    private final Duration interval;
+
+    private final ZoneId zone;
+
+    private final JobScheduler scheduler;
+
+    public DailyStatAggregator(@NonNull ChangeLogService changeLogService, @NonNull DailyStatService dailyStatService,
+            @NonNull JobCheckpointService checkpointService, int chunkSize, @NonNull Duration lag,
+            @NonNull Duration gapTimeout, @NonNull Duration interval, @NonNull ZoneId zone) {
+        this.changeLogService = changeLogService;
+        this.dailyStatService = dailyStatService;
+        this.checkpointService = checkpointService;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.lag = lag;
+        this.gapTimeout = gapTimeout;
+        this.interval = interval;
+        this.scheduler = new JobScheduler("wallet-daily-stat", interval);
+        this.zone = zone;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        scheduler.start(this::aggregate);
+        log.info("Daily stat aggregator started, interval: {}, lag: {}, zone: {}", interval, lag, zone);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.stop();
+        log.info("Daily stat aggregator stopped");
+    }
+
+    /**
+     * 汇总检查点之后的变更日志.
+     * @return 本次汇总的日志数
+     */
+    public long aggregate() {
+        var checkpoint = checkpointService.load(JOB, PART_KEY);
+        if (checkpoint == null) {
+            checkpointService.store(JOB, PART_KEY, "0");
+            checkpoint = "0";
+        }
+        val cursor = IdCursor.parse(checkpoint);
+        var total = 0L;
+        if (!cursor.gaps().isEmpty()) {
+            val now = DateUtil.current();
+            val late = new ArrayList<>(changeLogService.listByIds(cursor.gaps()));
+            late.sort(Comparator.comparing(ChangeLog::getId));
+            advance(cursor, late, now);
+            val expired = cursor.expire(now - gapTimeout.toMillis());
+            if (!expired.isEmpty()) {
+                log.warn("Daily stat aggregator gave up waiting for change logs: {}", expired);
+            }
+            if (!late.isEmpty() || !expired.isEmpty()) {
+                val next = cursor.format();
+                if (!late.isEmpty()) {
+                    dailyStatService.apply(late, zone, JOB, PART_KEY, checkpoint, next);
+                }
+                else if (!checkpointService.compareAndStore(JOB, PART_KEY, checkpoint, next)) {
+                    throw new IllegalStateException("Checkpoint of " + JOB + " had been moved from " + checkpoint);
+                }
+                checkpoint = next;
+                total += late.size();
+            }
+        }
+        while (scheduler.isRunning()) {
+            val now = DateUtil.current();
+            val logs = settled(changeLogService.listAfter(cursor.position(), Long.MAX_VALUE, chunkSize),
+                    now - lag.toMillis());
+            if (logs.isEmpty()) {
+                break;
+            }
+            advance(cursor, logs, now);
+            val next = cursor.format();
+            dailyStatService.apply(logs, zone, JOB, PART_KEY, checkpoint, next);
+            checkpoint = next;
+            total += logs.size();
+        }
+        if (total > 0) {
+            log.info("Daily stat aggregator folded {} change logs, checkpoint: {}", total, checkpoint);
+        }
+        return total;
+    }
+
+    /**
+     * 清空汇总结果并从第一条变更日志开始重新汇总.
+     * @return 汇总的日志数
+     */
+    public synchronized long backfill() {
+        dailyStatService.reset(JOB, PART_KEY);
+        return aggregate();
+    }
+
+    private static void advance(IdCursor cursor, List<ChangeLog> logs, long now) {
+        for (val changeLog : logs) {
+            val dropped = cursor.advance(changeLog.getId(), now);
+            if (!dropped.isEmpty()) {
+                log.warn("Daily stat aggregator tracks too many missing change logs, gave up waiting for: {}", dropped);
+            }
+        }
+    }
+
+    /**
+     * 截取写入时间不晚于horizon的前缀.
+     */
+    @NonNull
+    static List<ChangeLog> settled(@NonNull List<ChangeLog> logs, long horizon) {
+        val settled = new ArrayList<ChangeLog>(logs.size());
+        for (val changeLog : logs) {
+            if (changeLog.getCreatedAt() == null || changeLog.getCreatedAt() > horizon) {
+                break;
+            }
+            settled.add(changeLog);
+        }
+        return settled;
+    }
+
+}
@@ -0,0 +1,17 @@
+CREATE TABLE wallet_credit_journal
+(
+    id             BIGINT UNSIGNED  NOT NULL AUTO_INCREMENT COMMENT 'id',
+    created_at     BIGINT UNSIGNED  NULL     DEFAULT NULL,
+    transaction_id BIGINT UNSIGNED  NOT NULL COMMENT '交易流水ID',
+    uid            BIGINT UNSIGNED  NOT NULL COMMENT '用户ID',
+    currency       VARCHAR(6)       NOT NULL COMMENT '货币（币种）',
+    biz            VARCHAR(12)      NOT NULL COMMENT '业务类型',
+    biz_subject    VARCHAR(24)      NOT NULL COMMENT '业务主题',
+    biz_id         VARCHAR(48)      NOT NULL COMMENT '业务订单编号',
+    amount         BIGINT UNSIGNED  NOT NULL COMMENT '交易金额',
+    withdraw_able  TINYINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '是否可提现',
+    ip             VARCHAR(256)     NOT NULL COMMENT '业务发生时的IP',
+    remark         TEXT             NULL     DEFAULT NULL COMMENT '说明',
+    primary key (id),
+    INDEX IDX_UID_CURRENCY_ID (uid, currency, id)
+) COMMENT '待入账收入流水(入账后删除)';
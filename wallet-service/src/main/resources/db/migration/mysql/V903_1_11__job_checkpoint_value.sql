@@ -0,0 +1,2 @@
+ALTER TABLE wallet_job_checkpoint
+    MODIFY value TEXT NULL DEFAULT NULL COMMENT '检查点(由任务自行解释, NULL表示从头开始)';
@@ -0,0 +1,3 @@
+-- 过期清理按expired_at范围扫描(不会过期的收入expired_at为NULL，不在范围内)，其余条件由索引覆盖
+ALTER TABLE wallet_outlay_log
+    ADD INDEX IDX_EXPIRED_AT_BALANCE (expired_at, balance, deleted, uid, currency);
@@ -0,0 +1,7 @@
+ALTER TABLE wallet
+    ADD last_log_id BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '链头: 最后一条变更日志ID' AFTER block;
+
+UPDATE wallet w
+    INNER JOIN (SELECT uid, currency, MAX(id) AS id FROM wallet_change_log GROUP BY uid, currency) l
+    ON l.uid = w.uid AND l.currency = w.currency
+SET w.last_log_id = l.id;
@@ -0,0 +1,2 @@
+ALTER TABLE wallet_change_log
+    ADD algorithm TINYINT UNSIGNED NOT NULL DEFAULT 1 COMMENT '区块算法: 1-MD5; 2-SHA-256(前128位)' AFTER block;
@@ -0,0 +1,14 @@
+CREATE TABLE wallet_job_checkpoint
+(
+    id         BIGINT UNSIGNED  NOT NULL COMMENT 'id',
+    created_at BIGINT UNSIGNED  NULL     DEFAULT NULL,
+    created_by VARCHAR(32)      NULL COMMENT 'Create User Id',
+    updated_at BIGINT UNSIGNED  NULL     DEFAULT NULL,
+    updated_by VARCHAR(32)      NULL COMMENT 'Last updated by who',
+    deleted    TINYINT UNSIGNED NOT NULL DEFAULT 0 COMMENT 'Soft Deleted Flag',
+    job        VARCHAR(32)      NOT NULL COMMENT '任务名',
+    part_key   VARCHAR(64)      NOT NULL COMMENT '分区',
+    value      VARCHAR(255)     NULL     DEFAULT NULL COMMENT '检查点(由任务自行解释, NULL表示从头开始)',
+    primary key (id),
+    UNIQUE KEY UDX_JOB_PART (job, part_key)
+) COMMENT '后台任务检查点';
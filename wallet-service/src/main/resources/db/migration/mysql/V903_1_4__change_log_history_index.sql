@@ -0,0 +1,3 @@
+ALTER TABLE wallet_change_log
+    ADD INDEX IDX_UID_CURRENCY_ID (uid, currency, id),
+    ADD INDEX IDX_UID_CURRENCY_BIZ_ID (uid, currency, biz, biz_subject, id);
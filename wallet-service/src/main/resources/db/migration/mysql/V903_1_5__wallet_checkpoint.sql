@@ -0,0 +1,20 @@
+CREATE TABLE wallet_checkpoint
+(
+    id         BIGINT UNSIGNED  NOT NULL COMMENT 'id',
+    created_at BIGINT UNSIGNED  NULL     DEFAULT NULL,
+    created_by VARCHAR(32)      NULL COMMENT 'Create User Id',
+    updated_at BIGINT UNSIGNED  NULL     DEFAULT NULL,
+    updated_by VARCHAR(32)      NULL COMMENT 'Last updated by who',
+    deleted    TINYINT UNSIGNED NOT NULL DEFAULT 0 COMMENT 'Soft Deleted Flag',
+    uid        BIGINT UNSIGNED  NOT NULL COMMENT '用户ID',
+    currency   VARCHAR(6)       NOT NULL COMMENT '货币（币种）',
+    log_id     BIGINT UNSIGNED  NOT NULL COMMENT '检查点对应的变更日志ID',
+    block      VARCHAR(32)      NOT NULL COMMENT '变更日志的区块',
+    balance    BIGINT UNSIGNED  NOT NULL DEFAULT 0 COMMENT '可用余额',
+    frozen     BIGINT UNSIGNED  NOT NULL DEFAULT 0 COMMENT '冻结金额',
+    withdrawal BIGINT UNSIGNED  NOT NULL DEFAULT 0 COMMENT '可提现金额',
+    outlay     BIGINT UNSIGNED  NOT NULL DEFAULT 0 COMMENT '总支出金额',
+    digest     VARCHAR(64)      NOT NULL COMMENT 'HMAC-SHA256(十六进制)',
+    primary key (id),
+    UNIQUE KEY UDX_UID_CURRENCY_LOG_ID (uid, currency, log_id)
+) COMMENT '钱包检查点(定期记录的链头快照)';
@@ -0,0 +1,2 @@
+ALTER TABLE wallet_change_log
+    ADD INDEX IDX_UID_CURRENCY_CREATED_AT (uid, currency, created_at);
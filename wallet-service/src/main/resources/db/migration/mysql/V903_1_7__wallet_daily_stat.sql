@@ -0,0 +1,38 @@
+CREATE TABLE wallet_daily_stat
+(
+    id              BIGINT UNSIGNED NOT NULL COMMENT 'id',
+    created_at      BIGINT UNSIGNED NULL     DEFAULT NULL,
+    updated_at      BIGINT UNSIGNED NULL     DEFAULT NULL,
+    uid             BIGINT UNSIGNED NOT NULL COMMENT '用户ID',
+    currency        VARCHAR(6)      NOT NULL COMMENT '货币（币种）',
+    day             INT UNSIGNED    NOT NULL COMMENT '日期(yyyyMMdd)',
+    income          BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '余额增加额',
+    outlay          BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '余额减少额',
+    frozen_in       BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '冻结增加额',
+    frozen_out      BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '冻结减少额',
+    trades          INT UNSIGNED    NOT NULL DEFAULT 0 COMMENT '变更次数',
+    closing_balance BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '日终余额',
+    closing_frozen  BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '日终冻结金额',
+    last_log_id     BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '已汇总的最后一条变更日志',
+    primary key (id),
+    UNIQUE KEY UDX_UID_CURRENCY_DAY (uid, currency, day),
+    INDEX IDX_CURRENCY_DAY (currency, day)
+) COMMENT '钱包日汇总(由变更日志生成，可重建)';
+
+CREATE TABLE wallet_currency_daily_stat
+(
+    id              BIGINT UNSIGNED NOT NULL COMMENT 'id',
+    created_at      BIGINT UNSIGNED NULL     DEFAULT NULL,
+    updated_at      BIGINT UNSIGNED NULL     DEFAULT NULL,
+    currency        VARCHAR(6)      NOT NULL COMMENT '货币（币种）',
+    day             INT UNSIGNED    NOT NULL COMMENT '日期(yyyyMMdd)',
+    income          BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '余额增加额',
+    outlay          BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '余额减少额',
+    frozen_in       BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '冻结增加额',
+    frozen_out      BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '冻结减少额',
+    trades          INT UNSIGNED    NOT NULL DEFAULT 0 COMMENT '变更次数',
+    closing_balance BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '日终余额合计',
+    closing_frozen  BIGINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '日终冻结金额合计',
+    primary key (id),
+    UNIQUE KEY UDX_CURRENCY_DAY (currency, day)
+) COMMENT '币种日汇总(由变更日志生成，可重建)';
@@ -0,0 +1,18 @@
+CREATE TABLE wallet_outbox
+(
+    id             BIGINT UNSIGNED  NOT NULL AUTO_INCREMENT COMMENT 'id',
+    created_at     BIGINT UNSIGNED  NULL     DEFAULT NULL,
+    uid            BIGINT UNSIGNED  NOT NULL COMMENT '用户ID',
+    currency       VARCHAR(6)       NOT NULL COMMENT '货币（币种）',
+    log_id         BIGINT UNSIGNED  NOT NULL COMMENT '变更日志ID',
+    transaction_id BIGINT UNSIGNED  NOT NULL COMMENT '交易流水ID',
+    biz            VARCHAR(12)      NOT NULL COMMENT '业务类型',
+    biz_subject    VARCHAR(24)      NOT NULL COMMENT '业务主题',
+    biz_id         VARCHAR(48)      NOT NULL COMMENT '业务订单编号',
+    amount         BIGINT UNSIGNED  NOT NULL COMMENT '交易金额',
+    balance        BIGINT UNSIGNED  NOT NULL COMMENT '交易后余额',
+    frozen         BIGINT UNSIGNED  NOT NULL COMMENT '交易后冻结金额',
+    outlay         TINYINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '是否支出',
+    primary key (id),
+    INDEX IDX_CREATED_AT (created_at)
+) COMMENT '钱包变更事件发件箱';
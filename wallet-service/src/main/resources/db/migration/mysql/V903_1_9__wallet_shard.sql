@@ -0,0 +1,19 @@
+ALTER TABLE wallet
+    ADD COLUMN shard SMALLINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '子钱包序号(0为主钱包)' AFTER currency,
+    DROP INDEX UDX_UID_CURRENCY,
+    ADD UNIQUE KEY UDX_UID_CURRENCY_SHARD (uid, currency, shard);
+
+ALTER TABLE wallet_change_log
+    ADD COLUMN shard SMALLINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '子钱包序号' AFTER currency,
+    ADD INDEX IDX_UID_CURRENCY_SHARD_ID (uid, currency, shard, id);
+
+ALTER TABLE wallet_checkpoint
+    ADD COLUMN shard SMALLINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '子钱包序号' AFTER currency;
+
+ALTER TABLE wallet_daily_stat
+    ADD COLUMN shard SMALLINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '子钱包序号' AFTER currency,
+    DROP INDEX UDX_UID_CURRENCY_DAY,
+    ADD UNIQUE KEY UDX_UID_CURRENCY_SHARD_DAY (uid, currency, shard, day);
+
+ALTER TABLE wallet_outbox
+    ADD COLUMN shard SMALLINT UNSIGNED NOT NULL DEFAULT 0 COMMENT '子钱包序号' AFTER currency;
@@ -0,0 +1,98 @@
+package com.apzda.cloud.wallet.audit;
+
+import com.apzda.cloud.wallet.block.BlockHasher;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class ChainAuditorTest {
+
+    static List<ChangeLog> chain(int size) {
+        val logs = new ArrayList<ChangeLog>();
+        var preBlock = ChainAuditor.GENESIS;
+        var balance = 0L;
+        for (int i = 1; i <= size; i++) {
+            val changeLog = new ChangeLog();
+            changeLog.setId((long) i);
+            changeLog.setParentId((long) i - 1);
+            changeLog.setUid(1L);
+            changeLog.setCurrency("INT");
+            changeLog.setTransactionId(100L + i);
+            changeLog.setBiz("test");
+            changeLog.setBizSubject("deposit");
+            changeLog.setBizId(String.valueOf(i));
+            changeLog.setAmount(10L);
+            changeLog.setPreBalance(balance);
+            changeLog.setBalance(balance + 10);
+            changeLog.setPreFrozen(0L);
+            changeLog.setFrozen(0L);
+            changeLog.setAlgorithm(i % 2 == 0 ? 2 : 1);
+            changeLog.setBlock(BlockHasher.hash(changeLog, preBlock));
+            preBlock = changeLog.getBlock();
+            balance = changeLog.getBalance();
+            logs.add(changeLog);
+        }
+        return logs;
+    }
+
+    @Test
+    void valid_chain_should_pass_and_resume_from_checkpoint() {
+        // given
+        val logs = chain(4);
+        val chain = ChainAuditor.Chain.genesis();
+
+        // when
+        assertThat(chain.append(logs.get(0))).isNull();
+        assertThat(chain.append(logs.get(1))).isNull();
+        val resumed = ChainAuditor.Chain.parse(chain.format());
+
+        // then
+        assertThat(resumed.append(logs.get(2))).isNull();
+        assertThat(resumed.append(logs.get(3))).isNull();
+        assertThat(resumed.id).isEqualTo(4L);
+        assertThat(resumed.balance).isEqualTo(40L);
+        assertThat(resumed.block).isEqualTo(logs.get(3).getBlock());
+    }
+
+    @Test
+    void tampered_chain_should_fail() {
+        // given
+        val logs = chain(3);
+        logs.get(1).setBalance(1000L);
+        val chain = ChainAuditor.Chain.genesis();
+
+        // when
+        val first = chain.append(logs.get(0));
+        val second = chain.append(logs.get(1));
+
+        // then
+        assertThat(first).isNull();
+        assertThat(second).contains("block");
+        assertThat(chain.id).isEqualTo(1L);
+    }
+
+    @Test
+    void broken_link_should_fail() {
+        // given
+        val logs = chain(3);
+        val chain = ChainAuditor.Chain.genesis();
+        chain.append(logs.get(0));
+
+        // when
+        val error = chain.append(logs.get(2));
+
+        // then
+        assertThat(error).contains("parent_id");
+    }
+
+}
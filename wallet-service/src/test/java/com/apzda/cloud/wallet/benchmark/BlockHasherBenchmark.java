@@ -0,0 +1,108 @@
+package com.apzda.cloud.wallet.benchmark;
+
+import cn.hutool.crypto.digest.MD5;
+import com.apzda.cloud.wallet.block.BlockAlgorithm;
+import com.apzda.cloud.wallet.block.BlockHasher;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import lombok.val;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 区块计算: 原先的字符串拼接+MD5 与 {@link BlockHasher} 的对比.
+ * <p>
+ * 运行: 在IDE中执行main方法，或 mvn test-compile 后以测试classpath运行本类.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockHasherBenchmark {
+
+    private static final String PRE_BLOCK = "0cc175b9c0f1b6a831c399e269772661";
+
+    private ChangeLog md5Log;
+
+    private ChangeLog sha256Log;
+
+    @Setup
+    public void setup() {
+        md5Log = newChangeLog(BlockAlgorithm.MD5);
+        sha256Log = newChangeLog(BlockAlgorithm.SHA256);
+    }
+
+    @Benchmark
+    public String legacyStringMd5() {
+        val c = md5Log;
+        // @formatter:off
+        val blockStr = PRE_BLOCK + ","
+            + c.getCreatedAt() + ","
+            + c.getCreatedBy() + ","
+            + c.getUpdatedAt() + ","
+            + c.getUpdatedBy() + ","
+            + c.getUid() + ","
+            + c.getCurrency() + ","
+            + c.getTransactionId() + ","
+            + c.isOutlay() + ","
+            + c.isNeedFrozen() + ","
+            + c.isWithdrawAble() + ","
+            + c.getBiz() + ","
+            + c.getBizSubject() + ","
+            + c.getBizId() + ","
+            + c.getAmount() + ","
+            + c.getPreBalance() + ","
+            + c.getBalance() + ","
+            + c.getPreFrozen() + ","
+            + c.getFrozen() + ","
+            + c.getExpiredAt() + ","
+            + c.getParentId() + ","
+            + c.getIp();
+        // @formatter:on
+        return MD5.create().digestHex(blockStr);
+    }
+
+    @Benchmark
+    public String hasherMd5() {
+        return BlockHasher.hash(md5Log, PRE_BLOCK);
+    }
+
+    @Benchmark
+    public String hasherSha256() {
+        return BlockHasher.hash(sha256Log, PRE_BLOCK);
+    }
+
+    private static ChangeLog newChangeLog(BlockAlgorithm algorithm) {
+        val changeLog = new ChangeLog();
+        changeLog.setUid(10086L);
+        changeLog.setCurrency("CNY");
+        changeLog.setTransactionId(1785432198765432101L);
+        changeLog.setOutlay(true);
+        changeLog.setBiz("mall");
+        changeLog.setBizSubject("pay");
+        changeLog.setBizId("202410180000123456");
+        changeLog.setAmount(12345000000L);
+        changeLog.setPreBalance(99999900000000L);
+        changeLog.setBalance(99987555000000L);
+        changeLog.setPreFrozen(0L);
+        changeLog.setFrozen(0L);
+        changeLog.setParentId(123456789L);
+        changeLog.setIp("192.168.100.200");
+        changeLog.setAlgorithm(algorithm.getVersion());
+        return changeLog;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BlockHasherBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
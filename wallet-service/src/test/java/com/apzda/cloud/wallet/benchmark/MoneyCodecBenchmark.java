@@ -0,0 +1,69 @@
+package com.apzda.cloud.wallet.benchmark;
+
+import com.apzda.cloud.wallet.money.MoneyCodec;
+import lombok.val;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 金额转换: 原先的BigDecimal实现与 {@link MoneyCodec} 的对比.
+ * <p>
+ * 运行: 在IDE中执行main方法，或 mvn test-compile 后以测试classpath运行本类.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyCodecBenchmark {
+
+    private static final int PRECISION = 8;
+
+    private final MoneyCodec codec = MoneyCodec.of(PRECISION);
+
+    private double amount = 10.250001;
+
+    private long minor = 1025000100L;
+
+    @Benchmark
+    public long legacyLongValue() {
+        val pre = StringUtils.rightPad("1", PRECISION + 1, "0");
+        return BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(Long.parseLong(pre))).toBigInteger().longValue();
+    }
+
+    @Benchmark
+    public long codecLongValue() {
+        return codec.toMinor(amount);
+    }
+
+    @Benchmark
+    public double legacyDoubleValue() {
+        val pre = StringUtils.rightPad("1", PRECISION + 1, "0");
+        return BigDecimal.valueOf(minor)
+            .divide(BigDecimal.valueOf(Long.parseLong(pre)), new MathContext(PRECISION, RoundingMode.DOWN))
+            .doubleValue();
+    }
+
+    @Benchmark
+    public double codecDoubleValue() {
+        return codec.toDouble(minor);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MoneyCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
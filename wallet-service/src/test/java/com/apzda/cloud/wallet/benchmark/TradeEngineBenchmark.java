@@ -0,0 +1,118 @@
+package com.apzda.cloud.wallet.benchmark;
+
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.domain.vo.TradeResult;
+import com.apzda.cloud.wallet.engine.TradeEngine;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import lombok.val;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+/**
+ * 组提交 {@link TradeEngine} 与逐笔提交的吞吐量对比.
+ * <p>
+ * 不连接数据库: 每次事务提交模拟为独占一次日志刷盘(commitMicros)，逐笔提交每笔交易刷盘一次，
+ * 组提交每批刷盘一次. 结果反映刷盘次数减少带来的提升，不包含SQL执行本身的开销.
+ * <p>
+ * 运行: 在IDE中执行main方法，或 mvn test-compile 后以测试classpath运行本类.
+ *
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class TradeEngineBenchmark {
+
+    @Param({ "200" })
+    private long commitMicros;
+
+    @Param({ "4" })
+    private int shards;
+
+    private final Object logDevice = new Object();
+
+    private final AtomicLong bizId = new AtomicLong();
+
+    private WalletService walletService;
+
+    private TradeEngine engine;
+
+    @Setup
+    public void setup() {
+        walletService = Mockito.mock(WalletService.class);
+        when(walletService.trade(any())).thenAnswer(invocation -> {
+            flush();
+            return new Transaction();
+        });
+        when(walletService.tradeBatch(anyList())).thenAnswer(invocation -> {
+            List<TradeDTO> trades = invocation.getArgument(0);
+            flush();
+            val results = new ArrayList<TradeResult>(trades.size());
+            for (int i = 0; i < trades.size(); i++) {
+                results.add(TradeResult.success(i, new Transaction()));
+            }
+            return results;
+        });
+        engine = new TradeEngine(walletService, shards, 10000, 256, Duration.ofSeconds(1));
+        engine.afterPropertiesSet();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        engine.destroy();
+    }
+
+    @Benchmark
+    public Transaction single() {
+        return walletService.trade(trade());
+    }
+
+    @Benchmark
+    public Transaction groupCommit() {
+        return engine.trade(trade());
+    }
+
+    private TradeDTO trade() {
+        return TradeDTO.newBuilder()
+            .setUid(ThreadLocalRandom.current().nextLong(1, 100000))
+            .setCurrency("CNY")
+            .setBiz("test")
+            .setBizSubject("deposit")
+            .setBizId(String.valueOf(bizId.incrementAndGet()))
+            .setAmount(1D)
+            .build();
+    }
+
+    private void flush() {
+        synchronized (logDevice) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(commitMicros));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TradeEngineBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.apzda.cloud.wallet.block;
+
+import cn.hutool.crypto.digest.MD5;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class BlockHasherTest {
+
+    static ChangeLog changeLog() {
+        val changeLog = new ChangeLog();
+        changeLog.setUid(1L);
+        changeLog.setCurrency("CNY");
+        changeLog.setTransactionId(1785432198765432101L);
+        changeLog.setOutlay(true);
+        changeLog.setNeedFrozen(true);
+        changeLog.setWithdrawAble(false);
+        changeLog.setBiz("test");
+        changeLog.setBizSubject("withdraw");
+        changeLog.setBizId("订单-10001");
+        changeLog.setAmount(5000000L);
+        changeLog.setPreBalance(1025000000L);
+        changeLog.setBalance(1020000000L);
+        changeLog.setPreFrozen(0L);
+        changeLog.setFrozen(5000000L);
+        changeLog.setParentId(12L);
+        changeLog.setIp("127.0.0.1");
+        return changeLog;
+    }
+
+    static String legacy(ChangeLog c, String preBlock) {
+        // @formatter:off
+        val blockStr = preBlock + ","
+            + c.getCreatedAt() + ","
+            + c.getCreatedBy() + ","
+            + c.getUpdatedAt() + ","
+            + c.getUpdatedBy() + ","
+            + c.getUid() + ","
+            + c.getCurrency() + ","
+            + c.getTransactionId() + ","
+            + c.isOutlay() + ","
+            + c.isNeedFrozen() + ","
+            + c.isWithdrawAble() + ","
+            + c.getBiz() + ","
+            + c.getBizSubject() + ","
+            + c.getBizId() + ","
+            + c.getAmount() + ","
+            + c.getPreBalance() + ","
+            + c.getBalance() + ","
+            + c.getPreFrozen() + ","
+            + c.getFrozen() + ","
+            + c.getExpiredAt() + ","
+            + c.getParentId() + ","
+            + c.getIp();
+        // @formatter:on
+        return MD5.create().digestHex(blockStr);
+    }
+
+    @Test
+    void md5_block_should_match_legacy_block() {
+        // given
+        val changeLog = changeLog();
+        val preBlock = "00000000000000000000000000000000";
+
+        // when
+        val block = BlockHasher.hash(changeLog, preBlock);
+
+        // then
+        assertThat(block).isEqualTo(legacy(changeLog, preBlock));
+
+        // when
+        changeLog.setCreatedAt(1710000000000L);
+        changeLog.setCreatedBy("1");
+        changeLog.setExpiredAt(-1L);
+        changeLog.setRemark("not hashed");
+
+        // then
+        assertThat(BlockHasher.hash(changeLog, block)).isEqualTo(legacy(changeLog, block));
+    }
+
+    @Test
+    void legacy_block_should_be_verified_after_audit_fields_filled() {
+        // given
+        val changeLog = changeLog();
+        val preBlock = "00000000000000000000000000000000";
+        changeLog.setBlock(legacy(changeLog, preBlock));
+
+        // when
+        changeLog.setCreatedAt(1710000000000L);
+        changeLog.setUpdatedAt(1710000000000L);
+        changeLog.setCreatedBy("1");
+        changeLog.setUpdatedBy("1");
+
+        // then
+        assertThat(BlockHasher.verify(changeLog, preBlock)).isTrue();
+        changeLog.setBalance(1020000001L);
+        assertThat(BlockHasher.verify(changeLog, preBlock)).isFalse();
+    }
+
+    @Test
+    void sha256_block_should_be_verified() {
+        // given
+        val changeLog = changeLog();
+        changeLog.setAlgorithm(BlockAlgorithm.SHA256.getVersion());
+        val preBlock = "00000000000000000000000000000000";
+
+        // when
+        val block = BlockHasher.hash(changeLog, preBlock);
+        changeLog.setBlock(block);
+
+        // then
+        assertThat(block).hasSize(32).isNotEqualTo(legacy(changeLog, preBlock));
+        assertThat(BlockHasher.hash(changeLog, preBlock)).isEqualTo(block);
+        assertThat(BlockHasher.verify(changeLog, preBlock)).isTrue();
+
+        // when
+        changeLog.setBizId("订单-10002");
+
+        // then
+        assertThat(BlockHasher.verify(changeLog, preBlock)).isFalse();
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.apzda.cloud.wallet.block;
+
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class CheckpointSignerTest {
+
+    static WalletCheckpoint checkpoint() {
+        val checkpoint = new WalletCheckpoint();
+        checkpoint.setUid(1L);
+        checkpoint.setCurrency("CNY");
+        checkpoint.setLogId(1024L);
+        checkpoint.setBlock("0123456789abcdef0123456789abcdef");
+        checkpoint.setBalance(1020000000L);
+        checkpoint.setFrozen(5000000L);
+        checkpoint.setWithdrawal(1000000L);
+        checkpoint.setOutlay(300000L);
+        return checkpoint;
+    }
+
+    @Test
+    void signed_checkpoint_should_be_verified() {
+        // given
+        val signer = new CheckpointSigner("secret");
+        val checkpoint = checkpoint();
+
+        // when
+        checkpoint.setDigest(signer.sign(checkpoint));
+
+        // then
+        assertThat(checkpoint.getDigest()).hasSize(64);
+        assertThat(signer.verify(checkpoint)).isTrue();
+    }
+
+    @Test
+    void tampered_checkpoint_should_not_be_verified() {
+        // given
+        val signer = new CheckpointSigner("secret");
+        val checkpoint = checkpoint();
+        checkpoint.setDigest(signer.sign(checkpoint));
+
+        // when
+        checkpoint.setBalance(checkpoint.getBalance() + 1);
+
+        // then
+        assertThat(signer.verify(checkpoint)).isFalse();
+    }
+
+    @Test
+    void checkpoint_signed_with_other_key_should_not_be_verified() {
+        // given
+        val checkpoint = checkpoint();
+        checkpoint.setDigest(new CheckpointSigner("other").sign(checkpoint));
+
+        // then
+        assertThat(new CheckpointSigner("secret").verify(checkpoint)).isFalse();
+        assertThat(new CheckpointSigner(null).verify(checkpoint)).isFalse();
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.apzda.cloud.wallet.cache;
+
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.event.WalletChangedEvent;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class WalletCacheTest {
+
+    @Test
+    void should_read_through_and_evict_on_change() {
+        // given
+        val loads = new AtomicInteger();
+        val cache = new WalletCache(key -> {
+            val wallet = WalletCache.empty(key);
+            wallet.setId(1L);
+            wallet.setBalance((long) loads.incrementAndGet());
+            return wallet;
+        }, null, Duration.ofMinutes(1), 100, Duration.ofMinutes(1), "wallet:balance:", "wallet:changed");
+
+        // when
+        val first = cache.get(1L, "INT");
+        val second = cache.get(1L, "INT");
+        cache.onWalletChanged(new WalletChangedEvent(1L, "INT", 2L));
+        val third = cache.get(1L, "INT");
+
+        // then
+        assertThat(first.getBalance()).isEqualTo(1L);
+        assertThat(second).isSameAs(first);
+        assertThat(third.getBalance()).isEqualTo(2L);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void missing_wallet_should_be_empty() {
+        // given
+        val cache = new WalletCache(key -> null, null, Duration.ofMinutes(1), 100, Duration.ofMinutes(1),
+                "wallet:balance:", "wallet:changed");
+
+        // when
+        val wallet = cache.get(2L, "INT");
+
+        // then
+        assertThat(wallet.getId()).isNull();
+        assertThat(wallet.getBalance()).isZero();
+        assertThat(wallet.getUid()).isEqualTo(2L);
+    }
+
+    @Test
+    void snapshot_should_round_trip() {
+        // given
+        val key = new WalletKey(3L, "INT");
+        val wallet = WalletCache.empty(key);
+        wallet.setId(99L);
+        wallet.setAmount(300L);
+        wallet.setBalance(200L);
+        wallet.setFrozen(100L);
+        wallet.setWithdrawal(50L);
+        wallet.setOutlay(10L);
+        wallet.setLocked(true);
+        wallet.setLastLogId(7L);
+
+        // when
+        val decoded = WalletCache.decode(key, WalletCache.encode(wallet));
+
+        // then
+        assertThat(decoded).isEqualTo(wallet);
+        assertThat(WalletCache.decode(key, WalletCache.encode(WalletCache.empty(key))))
+            .isEqualTo(WalletCache.empty(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    static StringRedisTemplate redis(ValueOperations<String, String> ops) {
+        val redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        when(redisTemplate.opsForValue()).thenReturn(ops);
+        return redisTemplate;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void change_should_leave_versioned_tombstone() {
+        // given
+        ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+        val redisTemplate = redis(ops);
+        val cache = new WalletCache(key -> null, redisTemplate, Duration.ofMinutes(1), 100, Duration.ofMinutes(1),
+                "wallet:balance:", "wallet:changed");
+
+        // when
+        cache.onWalletChanged(new WalletChangedEvent(1L, "INT", 7L));
+
+        // then
+        verify(ops).set("wallet:balance:1:INT", "~7", Duration.ofMinutes(1));
+        verify(redisTemplate).convertAndSend("wallet:changed", "1:INT");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void read_through_should_fill_redis_only_if_unchanged_since_read() {
+        // given: Redis中是变更留下的墓碑
+        ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+        when(ops.get("wallet:balance:1:INT")).thenReturn("~7");
+        val redisTemplate = redis(ops);
+        val cache = new WalletCache(key -> {
+            val wallet = WalletCache.empty(key);
+            wallet.setId(1L);
+            wallet.setBalance(100L);
+            wallet.setLastLogId(7L);
+            return wallet;
+        }, redisTemplate, Duration.ofMinutes(1), 100, Duration.ofMinutes(1), "wallet:balance:", "wallet:changed");
+
+        // when
+        val wallet = cache.get(1L, "INT");
+
+        // then
+        assertThat(wallet.getBalance()).isEqualTo(100L);
+        verify(redisTemplate).execute(any(RedisScript.class), eq(List.of("wallet:balance:1:INT")), eq("~7"),
+                eq(WalletCache.encode(wallet)), eq("60000"));
+        verify(ops, never()).set(eq("wallet:balance:1:INT"), eq(WalletCache.encode(wallet)), any(Duration.class));
+    }
+
+}
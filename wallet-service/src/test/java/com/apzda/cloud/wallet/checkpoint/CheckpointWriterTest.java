@@ -0,0 +1,140 @@
+package com.apzda.cloud.wallet.checkpoint;
+
+import com.apzda.cloud.wallet.block.CheckpointSigner;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.entity.WalletCheckpoint;
+import com.apzda.cloud.wallet.domain.service.ChangeLogService;
+import com.apzda.cloud.wallet.domain.service.WalletCheckpointService;
+import com.apzda.cloud.wallet.domain.service.WalletQueryService;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class CheckpointWriterTest {
+
+    static Wallet wallet(long id, long uid, long head, long balance) {
+        val wallet = new Wallet();
+        wallet.setId(id);
+        wallet.setUid(uid);
+        wallet.setCurrency("CNY");
+        wallet.setLastLogId(head);
+        wallet.setBlock("block-" + head);
+        wallet.setBalance(balance);
+        wallet.setFrozen(0L);
+        wallet.setWithdrawal(0L);
+        wallet.setOutlay(0L);
+        return wallet;
+    }
+
+    static ChangeLog head(Wallet wallet) {
+        val changeLog = new ChangeLog();
+        changeLog.setId(wallet.getLastLogId());
+        changeLog.setUid(wallet.getUid());
+        changeLog.setCurrency(wallet.getCurrency());
+        changeLog.setShard(wallet.getShard());
+        changeLog.setBlock(wallet.getBlock());
+        changeLog.setBalance(wallet.getBalance());
+        changeLog.setFrozen(wallet.getFrozen());
+        return changeLog;
+    }
+
+    @Test
+    void only_wallets_matching_their_head_log_should_be_signed() {
+        // given: 钱包2的余额被绕过交易流程修改，钱包3已有最新检查点
+        val w1 = wallet(1, 101, 10, 100);
+        val w2 = wallet(2, 102, 20, 200);
+        val w3 = wallet(3, 103, 30, 300);
+        val tampered = head(w2);
+        tampered.setBalance(150L);
+        val walletQueryService = Mockito.mock(WalletQueryService.class);
+        when(walletQueryService.listWallets(0L, 10)).thenReturn(List.of(w1, w2, w3));
+        when(walletQueryService.listWallets(3L, 10)).thenReturn(List.of());
+        val checkpointService = Mockito.mock(WalletCheckpointService.class);
+        when(checkpointService.latestLogIds(anyCollection()))
+            .thenReturn(Map.of(WalletCheckpointService.key(w3), 30L));
+        when(checkpointService.saveAbsent(anyCollection())).thenAnswer(inv -> inv.<Collection<?>>getArgument(0).size());
+        val changeLogService = Mockito.mock(ChangeLogService.class);
+        when(changeLogService.listByIds(anyCollection())).thenReturn(List.of(head(w1), tampered));
+        val signer = new CheckpointSigner("secret");
+        val writer = new CheckpointWriter(walletQueryService, checkpointService, changeLogService, signer, 10,
+                Duration.ofHours(1));
+        writer.afterPropertiesSet();
+        try {
+            // when
+            val total = writer.write();
+
+            // then
+            @SuppressWarnings("unchecked")
+            ArgumentCaptor<Collection<WalletCheckpoint>> saved = ArgumentCaptor.forClass(Collection.class);
+            verify(checkpointService).saveAbsent(saved.capture());
+            assertThat(total).isEqualTo(1);
+            assertThat(saved.getValue()).singleElement().satisfies(checkpoint -> {
+                assertThat(checkpoint.getUid()).isEqualTo(101L);
+                assertThat(checkpoint.getLogId()).isEqualTo(10L);
+                assertThat(signer.verify(checkpoint)).isTrue();
+            });
+        }
+        finally {
+            writer.destroy();
+        }
+    }
+
+    @Test
+    void checkpoints_written_by_another_instance_should_not_be_counted() {
+        // given
+        val w1 = wallet(1, 101, 10, 100);
+        val walletQueryService = Mockito.mock(WalletQueryService.class);
+        when(walletQueryService.listWallets(0L, 10)).thenReturn(List.of(w1));
+        when(walletQueryService.listWallets(1L, 10)).thenReturn(List.of());
+        val checkpointService = Mockito.mock(WalletCheckpointService.class);
+        when(checkpointService.latestLogIds(anyCollection())).thenReturn(Map.of());
+        when(checkpointService.saveAbsent(anyCollection())).thenReturn(0);
+        val changeLogService = Mockito.mock(ChangeLogService.class);
+        when(changeLogService.listByIds(anyCollection())).thenReturn(List.of(head(w1)));
+        val writer = new CheckpointWriter(walletQueryService, checkpointService, changeLogService,
+                new CheckpointSigner("secret"), 10, Duration.ofHours(1));
+        writer.afterPropertiesSet();
+        try {
+            // when
+            val total = writer.write();
+
+            // then
+            assertThat(total).isZero();
+            verify(checkpointService, times(1)).saveAbsent(anyCollection());
+        }
+        finally {
+            writer.destroy();
+        }
+    }
+
+    @Test
+    void missing_head_log_should_not_match() {
+        // given
+        val wallet = wallet(1, 101, 10, 100);
+
+        // when
+        val missing = CheckpointWriter.matches(wallet, null);
+        val same = CheckpointWriter.matches(wallet, head(wallet));
+
+        // then
+        assertThat(missing).isFalse();
+        assertThat(same).isTrue();
+    }
+
+}
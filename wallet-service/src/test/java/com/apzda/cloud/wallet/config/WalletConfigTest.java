@@ -0,0 +1,57 @@
+package com.apzda.cloud.wallet.config;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class WalletConfigTest {
+
+    @Test
+    void currency_config_should_be_compiled() {
+        // given
+        val properties = new WalletProperties();
+        val currency = new WalletProperties.CurrencyConfig();
+        currency.setName("金豆子");
+        currency.setPrecision((short) 0);
+        currency.setEnabledExpire(true);
+        val biz = new WalletProperties.BizConfig();
+        biz.setName("测试业务线");
+        val subject = new WalletProperties.BizSubject();
+        subject.setName("新增");
+        subject.setOutlay(false);
+        biz.getSubjects().put("add", subject);
+        currency.getBiz().put("test", biz);
+        properties.getCurrency().put("INT", currency);
+
+        // when
+        val compiled = WalletConfig.compile(properties);
+
+        // then
+        val config = compiled.get("INT");
+        assertThat(config.precision()).isEqualTo((short) 0);
+        assertThat(config.getBizSubject("INT", "test", "add").outlay()).isFalse();
+        val expire = config.getBizSubject("INT", "system", "expire");
+        assertThat(expire.outlay()).isTrue();
+        assertThat(expire.withdrawAble()).isFalse();
+        assertThat(config.deferredCredits()).isFalse();
+        // 原始配置不被修改，编译结果不可修改
+        assertThat(currency.getBiz()).doesNotContainKey("system");
+        assertThatThrownBy(() -> compiled.put("CNY", config)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> config.biz().remove("test")).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> config.biz().get("test").remove("add"))
+            .isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> config.shards().put(1L, 2)).isInstanceOf(UnsupportedOperationException.class);
+        currency.setPrecision((short) 2);
+        subject.setOutlay(true);
+        assertThat(config.precision()).isEqualTo((short) 0);
+        assertThat(config.getBizSubject("INT", "test", "add").outlay()).isFalse();
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.apzda.cloud.wallet.credit;
+
+import com.apzda.cloud.wallet.domain.service.CreditJournalService;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.WalletException;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class CreditApplierTest {
+
+    static Map<WalletKey, Long> wallets(Object... pairs) {
+        val wallets = new LinkedHashMap<WalletKey, Long>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            wallets.put((WalletKey) pairs[i], (Long) pairs[i + 1]);
+        }
+        return wallets;
+    }
+
+    @Test
+    void failing_wallet_should_be_parked_without_stalling_others() {
+        // given: 锁定的钱包A占据最早的一批待入账收入
+        val a = new WalletKey(1L, "CNY");
+        val b = new WalletKey(2L, "CNY");
+        val c = new WalletKey(3L, "CNY");
+        val walletService = Mockito.mock(WalletService.class);
+        val journalService = Mockito.mock(CreditJournalService.class);
+        when(journalService.pendingWallets(0L, 2)).thenReturn(wallets(a, 2L));
+        when(journalService.pendingWallets(2L, 2)).thenReturn(wallets(b, 3L, a, 4L));
+        when(journalService.pendingWallets(4L, 2)).thenReturn(wallets(c, 6L));
+        when(journalService.pendingWallets(6L, 2)).thenReturn(Map.of());
+        when(walletService.applyCredits(1L, "CNY")).thenThrow(new WalletException(WalletError.LOCKED, 1L, "CNY"));
+        when(walletService.applyCredits(2L, "CNY")).thenReturn(1);
+        when(walletService.applyCredits(3L, "CNY")).thenReturn(2);
+
+        val applier = new CreditApplier(journalService, walletService, 2, Duration.ofDays(1));
+        applier.afterPropertiesSet();
+        try {
+            // when
+            val first = applier.apply();
+            val second = applier.apply();
+
+            // then
+            assertThat(first).isEqualTo(3);
+            assertThat(second).isEqualTo(3);
+            verify(walletService, times(1)).applyCredits(1L, "CNY");
+            verify(walletService, times(2)).applyCredits(3L, "CNY");
+        }
+        finally {
+            applier.destroy();
+        }
+    }
+
+    @Test
+    void backoff_should_grow_and_be_bounded() {
+        // given
+        val applier = new CreditApplier(Mockito.mock(CreditJournalService.class), Mockito.mock(WalletService.class),
+                10, Duration.ofMillis(100));
+        val wallet = new WalletKey(1L, "CNY");
+
+        // when
+        val first = applier.park(wallet, 0L);
+        val second = applier.park(wallet, 0L);
+        for (int i = 0; i < 30; i++) {
+            applier.park(wallet, 0L);
+        }
+
+        // then
+        assertThat(first).isEqualTo(200L);
+        assertThat(second).isEqualTo(400L);
+        assertThat(applier.park(wallet, 0L)).isEqualTo(CreditApplier.MAX_BACKOFF.toMillis());
+    }
+
+}
@@ -1,7 +1,7 @@
 package com.apzda.cloud.wallet.domain.entity;
 
+import com.apzda.cloud.wallet.config.CompiledCurrency;
 import com.apzda.cloud.wallet.config.WalletConfig;
-import com.apzda.cloud.wallet.config.WalletProperties;
 import lombok.val;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -20,9 +20,9 @@ class WalletTest {
     void long_value_should_be_ok() {
         // given
         try (val wc = Mockito.mockStatic(WalletConfig.class)) {
-            val walletConfig = Mockito.mock(WalletProperties.CurrencyConfig.class);
-            when(walletConfig.getPrecision()).thenReturn((short) 8);
-            when(walletConfig.getScale()).thenReturn((short) 2);
+            val walletConfig = Mockito.mock(CompiledCurrency.class);
+            when(walletConfig.precision()).thenReturn((short) 8);
+            when(walletConfig.scale()).thenReturn((short) 2);
             wc.when(() -> WalletConfig.getCurrencyConfig("CNY")).thenReturn(walletConfig);
             val wallet = new Wallet();
             wallet.setCurrency("CNY");
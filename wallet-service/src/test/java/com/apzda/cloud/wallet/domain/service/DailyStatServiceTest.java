@@ -0,0 +1,106 @@
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class DailyStatServiceTest {
+
+    static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    static ChangeLog changeLog(long id, long uid, LocalDateTime time, long preBalance, long balance, long preFrozen,
+            long frozen) {
+        val changeLog = new ChangeLog();
+        changeLog.setId(id);
+        changeLog.setUid(uid);
+        changeLog.setCurrency("CNY");
+        changeLog.setCreatedAt(time.atZone(ZONE).toInstant().toEpochMilli());
+        changeLog.setPreBalance(preBalance);
+        changeLog.setBalance(balance);
+        changeLog.setPreFrozen(preFrozen);
+        changeLog.setFrozen(frozen);
+        return changeLog;
+    }
+
+    @Test
+    void logs_should_be_folded_by_wallet_and_day() {
+        // given
+        val day1 = LocalDateTime.of(2024, 3, 30, 23, 59, 59);
+        val day2 = LocalDateTime.of(2024, 3, 31, 0, 0, 1);
+        val logs = List.of(changeLog(1, 1, day1, 0, 100, 0, 0), changeLog(2, 1, day1, 100, 70, 0, 30),
+                changeLog(3, 2, day1, 0, 50, 0, 0), changeLog(4, 1, day2, 70, 80, 30, 20));
+
+        // when
+        val wallets = DailyStatService.foldWallets(logs, ZONE);
+        val currencies = DailyStatService.foldCurrencies(logs, ZONE);
+
+        // then
+        assertThat(wallets).hasSize(3);
+        val first = wallets.get(0);
+        assertThat(first.getDay()).isEqualTo(20240330);
+        assertThat(first.getIncome()).isEqualTo(100L);
+        assertThat(first.getOutlay()).isEqualTo(30L);
+        assertThat(first.getFrozenIn()).isEqualTo(30L);
+        assertThat(first.getTrades()).isEqualTo(2);
+        assertThat(first.getClosingBalance()).isEqualTo(70L);
+        assertThat(first.getClosingFrozen()).isEqualTo(30L);
+        assertThat(first.getLastLogId()).isEqualTo(2L);
+        assertThat(wallets.get(2).getDay()).isEqualTo(20240331);
+        assertThat(wallets.get(2).getFrozenOut()).isEqualTo(10L);
+
+        assertThat(currencies).hasSize(2);
+        assertThat(currencies.get(0).getIncome()).isEqualTo(150L);
+        assertThat(currencies.get(0).getBalanceDelta()).isEqualTo(120L);
+        assertThat(currencies.get(0).getFrozenDelta()).isEqualTo(30L);
+        assertThat(currencies.get(1).getBalanceDelta()).isEqualTo(10L);
+        assertThat(currencies.get(1).getTrades()).isEqualTo(1);
+    }
+
+    @Test
+    void shards_should_be_merged_by_day_and_rebalance_should_not_count() {
+        // given
+        val day1 = LocalDateTime.of(2024, 3, 30, 10, 0, 0);
+        val day2 = LocalDateTime.of(2024, 3, 31, 10, 0, 0);
+        val shard1 = changeLog(2, 1, day1, 0, 30, 0, 0);
+        shard1.setShard(1);
+        val moveOut = changeLog(3, 1, day2, 30, 0, 0, 0);
+        moveOut.setShard(1);
+        moveOut.setBiz("system");
+        moveOut.setBizSubject(WalletService.REBALANCE);
+        val moveIn = changeLog(4, 1, day2, 100, 130, 0, 0);
+        moveIn.setBiz("system");
+        moveIn.setBizSubject(WalletService.REBALANCE);
+        val logs = List.of(changeLog(1, 1, day1, 0, 100, 0, 0), shard1, moveOut, moveIn);
+        val stats = DailyStatService.foldWallets(logs, ZONE);
+        val previous = DailyStatService.foldWallets(List.of(changeLog(0, 1, day1.minusDays(1), 0, 5, 0, 0)), ZONE);
+        previous.get(0).setShard(2);
+
+        // when
+        val merged = DailyStatService.mergeShards(previous, stats);
+
+        // then
+        assertThat(stats).hasSize(4);
+        assertThat(stats.get(2).getTrades()).isZero();
+        assertThat(stats.get(2).getClosingBalance()).isZero();
+        assertThat(merged).hasSize(2);
+        assertThat(merged.get(0).getIncome()).isEqualTo(130L);
+        assertThat(merged.get(0).getTrades()).isEqualTo(2);
+        assertThat(merged.get(0).getClosingBalance()).isEqualTo(135L);
+        assertThat(merged.get(1).getIncome()).isZero();
+        assertThat(merged.get(1).getOutlay()).isZero();
+        assertThat(merged.get(1).getClosingBalance()).isEqualTo(135L);
+        assertThat(merged.get(1).getLastLogId()).isEqualTo(4L);
+    }
+
+}
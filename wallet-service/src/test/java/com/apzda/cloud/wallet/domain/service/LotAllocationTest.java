@@ -0,0 +1,83 @@
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.domain.entity.Outlay;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class LotAllocationTest {
+
+    static Outlay income(long txId, long balance) {
+        val income = new Outlay();
+        income.setId(txId * 10);
+        income.setTransactionId(txId);
+        income.setBalance(balance);
+        income.setExpiredAt(1000L + txId);
+        return income;
+    }
+
+    static Transaction outlay(long amount) {
+        val transaction = new Transaction();
+        transaction.setId(99L);
+        transaction.setUid(1L);
+        transaction.setCurrency("INT");
+        transaction.setAmount(amount);
+        return transaction;
+    }
+
+    @Test
+    void should_allocate_across_lots() {
+        // given
+        val allocation = new LotAllocation(outlay(250));
+        val lots = new Outlay[] { income(1, 100), income(2, 100), income(3, 100) };
+
+        // when
+        var done = false;
+        for (Outlay lot : lots) {
+            done = allocation.take(lot);
+            if (done) {
+                break;
+            }
+        }
+
+        // then
+        assertThat(done).isTrue();
+        assertThat(allocation.getRemaining()).isZero();
+        assertThat(allocation.getConsumed()).hasSize(3);
+        assertThat(lots[0].getBalance()).isZero();
+        assertThat(lots[1].getBalance()).isZero();
+        assertThat(lots[2].getBalance()).isEqualTo(50L);
+
+        val outlays = allocation.getOutlays();
+        assertThat(outlays).extracting(Outlay::getUseAmount).containsExactly(100L, 100L, 50L);
+        assertThat(outlays).extracting(Outlay::getMargin).containsExactly(150L, 50L, 0L);
+        assertThat(outlays).extracting(Outlay::getTransactionId).containsExactly(1L, 2L, 3L);
+        assertThat(outlays).allSatisfy(o -> {
+            assertThat(o.getOutlayTransactionId()).isEqualTo(99L);
+            assertThat(o.getAmount()).isEqualTo(250L);
+        });
+    }
+
+    @Test
+    void should_report_remaining_when_insufficient() {
+        // given
+        val allocation = new LotAllocation(outlay(300));
+
+        // when
+        val done = allocation.take(income(1, 100)) || allocation.take(income(2, 0))
+                || allocation.take(income(3, 50));
+
+        // then
+        assertThat(done).isFalse();
+        assertThat(allocation.getRemaining()).isEqualTo(150L);
+        assertThat(allocation.getConsumed()).extracting(Outlay::getTransactionId).containsExactly(1L, 3L);
+    }
+
+}
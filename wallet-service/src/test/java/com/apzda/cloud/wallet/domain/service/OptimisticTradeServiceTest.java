@@ -0,0 +1,135 @@
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.wallet.config.WalletProperties;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class OptimisticTradeServiceTest {
+
+    @Test
+    void backoff_should_grow_and_be_bounded() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(OptimisticTradeService.backoff(1, 5, 100)).isBetween(2L, 5L);
+            assertThat(OptimisticTradeService.backoff(3, 5, 100)).isBetween(10L, 20L);
+            assertThat(OptimisticTradeService.backoff(10, 5, 100)).isBetween(50L, 100L);
+            assertThat(OptimisticTradeService.backoff(64, 5, 100)).isBetween(50L, 100L);
+        }
+        assertThat(OptimisticTradeService.backoff(1, 0, 100)).isZero();
+    }
+
+    @Test
+    void optimistic_trade_should_be_retried_after_lost_cas() {
+        // given: 第一次尝试提交时链头已被其它交易推进
+        val walletService = Mockito.mock(WalletService.class);
+        val transaction = new Transaction();
+        when(walletService.tradeOptimistic(any()))
+            .thenThrow(new WalletException(WalletError.CONCURRENT_UPDATE, 9100L, "CNY"))
+            .thenReturn(transaction);
+        val service = new OptimisticTradeService(walletService, properties(3));
+
+        // when
+        val result = service.trade(outlay());
+
+        // then
+        assertThat(result).isSameAs(transaction);
+        verify(walletService, times(2)).tradeOptimistic(any());
+        verify(walletService, never()).trade(any());
+    }
+
+    @Test
+    void optimistic_trade_should_time_out_after_max_attempts() {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        when(walletService.tradeOptimistic(any()))
+            .thenThrow(new WalletException(WalletError.CONCURRENT_UPDATE, 9100L, "CNY"));
+        val service = new OptimisticTradeService(walletService, properties(3));
+
+        // then
+        assertThatThrownBy(() -> service.trade(outlay())).isInstanceOf(WalletException.class)
+            .satisfies(e -> assertThat(((WalletException) e).getServiceError().code())
+                .isEqualTo(WalletError.LOCK_TIMEOUT.getCode()));
+        verify(walletService, times(3)).tradeOptimistic(any());
+    }
+
+    @Test
+    void sharded_outlay_should_be_retried_when_shard_was_drained_concurrently() {
+        // given: 第一次尝试锁定子钱包后发现余额已被并发支出扣减
+        val walletService = Mockito.mock(WalletService.class);
+        val transaction = new Transaction();
+        when(walletService.trade(any()))
+            .thenThrow(new WalletException(WalletError.CONCURRENT_UPDATE, 9100L, "CNY"))
+            .thenReturn(transaction);
+        val service = new OptimisticTradeService(walletService, properties(3));
+
+        // when
+        val result = service.tradeSharded(outlay());
+
+        // then
+        assertThat(result).isSameAs(transaction);
+        verify(walletService, times(2)).trade(any());
+    }
+
+    @Test
+    void sharded_outlay_should_time_out_after_max_attempts() {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        when(walletService.trade(any())).thenThrow(new WalletException(WalletError.CONCURRENT_UPDATE, 9100L, "CNY"));
+        val service = new OptimisticTradeService(walletService, properties(3));
+
+        // then
+        assertThatThrownBy(() -> service.tradeSharded(outlay())).isInstanceOf(WalletException.class)
+            .satisfies(e -> assertThat(((WalletException) e).getServiceError().code())
+                .isEqualTo(WalletError.LOCK_TIMEOUT.getCode()));
+        verify(walletService, times(3)).trade(any());
+    }
+
+    @Test
+    void other_errors_should_not_be_retried() {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        when(walletService.trade(any()))
+            .thenThrow(new WalletException(WalletError.INSUFFICIENT_BALANCE, 9100L, "CNY"));
+        val service = new OptimisticTradeService(walletService, properties(3));
+
+        // then
+        assertThatThrownBy(() -> service.tradeSharded(outlay())).isInstanceOf(WalletException.class);
+        verify(walletService, times(1)).trade(any());
+    }
+
+    static WalletProperties properties(int maxAttempts) {
+        val properties = new WalletProperties();
+        properties.getLock().setMaxAttempts(maxAttempts);
+        properties.getLock().setBackoff(Duration.ofMillis(1));
+        properties.getLock().setMaxBackoff(Duration.ofMillis(2));
+        return properties;
+    }
+
+    static TradeDTO outlay() {
+        return TradeDTO.newBuilder()
+            .setUid(9100L)
+            .setCurrency("CNY")
+            .setBiz("test")
+            .setBizSubject("pay")
+            .setBizId("1")
+            .setAmount(1D)
+            .build();
+    }
+
+}
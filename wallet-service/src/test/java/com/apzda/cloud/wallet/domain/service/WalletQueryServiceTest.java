@@ -0,0 +1,130 @@
+package com.apzda.cloud.wallet.domain.service;
+
+import com.apzda.cloud.gsvc.autoconfigure.MyBatisPlusAutoConfiguration;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.apzda.cloud.wallet.test.TestApp;
+import com.baomidou.mybatisplus.test.autoconfigure.MybatisPlusTest;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+@MybatisPlusTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ImportAutoConfiguration(MyBatisPlusAutoConfiguration.class)
+@ContextConfiguration(classes = TestApp.class)
+@ActiveProfiles({ "test", "flyway" })
+class WalletQueryServiceTest {
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletQueryService walletQueryService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void missing_wallet_should_not_be_created() {
+        // given
+        val uid = 9300L;
+
+        // when
+        val wallet = walletQueryService.readWallet(uid, "CNY");
+        val wallets = walletQueryService.readWallets(List.of(new WalletKey(uid, "CNY")));
+
+        // then
+        assertThat(wallet).isNull();
+        assertThat(wallets).isEmpty();
+        assertThat(walletQueryService.listShards(uid, "CNY")).isEmpty();
+        assertThat(walletService.getLastLog(uid, "CNY")).isNull();
+    }
+
+    @Test
+    void read_should_not_wait_for_locked_wallet() throws Exception {
+        // given: 钱包已提交，另一个事务持有它的行锁
+        val uid = 9301L;
+        val tx = new TransactionTemplate(transactionManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        tx.executeWithoutResult(status -> walletService.openWallet(uid, "CNY"));
+        val locked = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val holder = CompletableFuture.runAsync(() -> tx.executeWithoutResult(status -> {
+            walletService.openWallet(uid, "CNY");
+            locked.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // when
+            val wallet = CompletableFuture.supplyAsync(() -> walletQueryService.readWallet(uid, "CNY"))
+                .get(5, TimeUnit.SECONDS);
+
+            // then
+            assertThat(wallet).isNotNull();
+            assertThat(wallet.getUid()).isEqualTo(uid);
+        }
+        finally {
+            release.countDown();
+            holder.get(10, TimeUnit.SECONDS);
+            tx.executeWithoutResult(status -> {
+                val jdbc = new JdbcTemplate(dataSource);
+                jdbc.update("DELETE FROM wallet_change_log WHERE uid = ?", uid);
+                jdbc.update("DELETE FROM wallet WHERE uid = ?", uid);
+            });
+        }
+    }
+
+    @Test
+    void read_wallets_should_span_chunks() {
+        // given: 第一个与最后一个钱包落在不同的批次
+        val first = 9400L;
+        val last = first + WalletQueryService.CHUNK_SIZE + 10;
+        walletService.openWallet(first, "CNY");
+        walletService.openWallet(last, "CNY");
+        val keys = new ArrayList<WalletKey>();
+        for (var uid = first; uid <= last; uid++) {
+            keys.add(new WalletKey(uid, "CNY"));
+        }
+
+        // when
+        val wallets = walletQueryService.readWallets(keys);
+
+        // then
+        assertThat(keys).hasSizeGreaterThan(WalletQueryService.CHUNK_SIZE);
+        assertThat(wallets).containsOnlyKeys(new WalletKey(first, "CNY"), new WalletKey(last, "CNY"));
+        assertThat(wallets.get(new WalletKey(last, "CNY")).getUid()).isEqualTo(last);
+    }
+
+}
@@ -2,7 +2,15 @@ package com.apzda.cloud.wallet.domain.service;
 
 import cn.hutool.core.date.DateUtil;
 import com.apzda.cloud.gsvc.autoconfigure.MyBatisPlusAutoConfiguration;
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
 import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.entity.Wallet;
+import com.apzda.cloud.wallet.domain.vo.HistoryQuery;
+import com.apzda.cloud.wallet.domain.vo.TradeResult;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.lock.WalletLockManager;
 import com.apzda.cloud.wallet.proto.TradeDTO;
 import com.apzda.cloud.wallet.test.TestApp;
 import com.baomidou.mybatisplus.test.autoconfigure.MybatisPlusTest;
@@ -11,11 +19,23 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.sql.DataSource;
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -38,6 +58,30 @@ class WalletServiceTest {
     @Autowired
     private OutlayService outlayService;
 
+    @Autowired
+    private WalletQueryService walletQueryService;
+
+    @Autowired
+    private ChangeLogService changeLogService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private CreditJournalService creditJournalService;
+
+    @Autowired
+    private OptimisticTradeService optimisticTradeService;
+
+    @Autowired
+    private WalletLockManager walletLockManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DataSource dataSource;
+
     @Test
     public void user_wallet_should_be_opened() {
         // given
@@ -640,4 +684,392 @@ class WalletServiceTest {
         }
     }
 
+    @Test
+    void trade_batch_should_be_ok() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        val t1 = builder.setUid(1L).setAmount(10D).setBizSubject("deposit").setBizId("30000").build();
+        val t2 = builder.setUid(2L).setAmount(5D).setBizSubject("deposit").setBizId("30001").build();
+        val t3 = builder.setUid(1L).setAmount(2.5D).setBizSubject("pay").setBizId("30002").build();
+        val t4 = builder.setUid(1L).setAmount(2.5D).setBizSubject("pay").setBizId("30002").build();
+        val t5 = builder.setUid(2L).setAmount(6D).setBizSubject("pay").setBizId("30003").build();
+
+        // when
+        val results = walletService.tradeBatch(List.of(t1, t2, t3, t4, t5));
+
+        // then
+        assertThat(results.size()).isEqualTo(5);
+        assertThat(results.get(0).isSuccess()).isTrue();
+        assertThat(results.get(1).isSuccess()).isTrue();
+        assertThat(results.get(2).isSuccess()).isTrue();
+        assertThat(results.get(2).transaction().getAmount()).isEqualTo(250000000L);
+        assertThat(results.get(3).isSuccess()).isFalse();
+        assertThat(results.get(3).error().code()).isEqualTo(WalletError.DUPLICATE_TRADE.getCode());
+        assertThat(results.get(4).isSuccess()).isFalse();
+        assertThat(results.get(4).error().code()).isEqualTo(WalletError.INSUFFICIENT_BALANCE.getCode());
+
+        val w1 = walletService.openWallet(1L, "CNY");
+        val l1 = walletService.getLastLog(1L, "CNY");
+        assertThat(w1.getBalance()).isEqualTo(750000000L);
+        assertThat(w1.getWithdrawal()).isEqualTo(750000000L);
+        assertThat(w1.getLastLogId()).isEqualTo(l1.getId());
+        assertThat(w1.getBlock()).isEqualTo(l1.getBlock());
+        assertThat(l1.getPreBalance()).isEqualTo(1000000000L);
+
+        val w2 = walletService.openWallet(2L, "CNY");
+        assertThat(w2.getBalance()).isEqualTo(500000000L);
+        assertThat(w2.getOutlay()).isEqualTo(0L);
+    }
+
+    @Test
+    void wallets_should_be_read_without_opening() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setBizSubject("deposit");
+        builder.setAmount(1D);
+        walletService.trade(builder.setUid(1L).setBizId("20000").build());
+        walletService.trade(builder.setUid(2L).setBizId("20001").build());
+
+        // when
+        val wallets = walletQueryService.readWallets(
+                List.of(new WalletKey(1L, "CNY"), new WalletKey(2L, "CNY"), new WalletKey(3L, "CNY")));
+        val w3 = walletQueryService.readWallet(3L, "CNY");
+
+        // then
+        assertThat(wallets).hasSize(2);
+        assertThat(wallets.get(new WalletKey(1L, "CNY")).getBalance()).isEqualTo(100000000L);
+        assertThat(wallets.get(new WalletKey(2L, "CNY")).getBalance()).isEqualTo(100000000L);
+        assertThat(w3).isNull();
+        assertThat(walletQueryService.readWallet(3L, "CNY")).isNull();
+
+        val listed = walletQueryService.listWallets(List.of(1L, 2L, 3L), List.of("CNY"));
+        assertThat(listed).extracting(Wallet::getUid).containsExactlyInAnyOrder(1L, 2L);
+        val byCurrency = walletQueryService.listWallets(List.of("CNY"), 0L, 1);
+        assertThat(byCurrency).hasSize(1);
+        assertThat(walletQueryService.listWallets(List.of("CNY"), byCurrency.get(0).getId(), 10)).hasSize(1);
+    }
+
+    @Test
+    void history_should_be_paged_by_cursor() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(1L);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setBizSubject("deposit");
+        builder.setAmount(1D);
+        for (int i = 0; i < 3; i++) {
+            walletService.trade(builder.setBizId("3000" + i).build());
+        }
+
+        // when
+        val page1 = changeLogService.history(new HistoryQuery(1L, "CNY", "test", null, false, null, null, null, 2));
+        val page2 = changeLogService
+            .history(new HistoryQuery(1L, "CNY", "test", null, false, null, null, page1.get(1).getId(), 2));
+        val outlays = changeLogService.history(new HistoryQuery(1L, "CNY", null, null, true, null, null, null, 2));
+
+        // then
+        assertThat(page1).extracting(ChangeLog::getBizId).containsExactly("30002", "30001");
+        assertThat(page2).extracting(ChangeLog::getBizId).containsExactly("30000");
+        assertThat(page1.get(0).getBalance()).isEqualTo(300000000L);
+        assertThat(outlays).isEmpty();
+    }
+
+    @Test
+    void history_of_sharded_wallet_should_not_contain_rebalance() {
+        // given: 支出金额超过任一子钱包的余额，先归集到主钱包
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(9100L);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setAmount(1D);
+        for (int i = 0; i < 8; i++) {
+            walletService.trade(builder.setBizSubject("deposit").setBizId(String.valueOf(71000 + i)).build());
+        }
+        walletService.trade(builder.setBizSubject("pay").setBizId("71100").setAmount(7D).build());
+
+        // when
+        val history = changeLogService.history(new HistoryQuery(9100L, "CNY", null, null, null, null, null, null, 20));
+        val outlays = changeLogService.history(new HistoryQuery(9100L, "CNY", null, null, true, null, null, null, 20));
+
+        // then
+        assertThat(history).hasSize(9);
+        assertThat(history).extracting(ChangeLog::getBizSubject).doesNotContain(WalletService.REBALANCE);
+        assertThat(outlays).extracting(ChangeLog::getBizId).containsExactly("71100");
+    }
+
+    @Test
+    void balance_at_should_return_last_change_before_timestamp() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(1L);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setBizSubject("deposit");
+        builder.setAmount(1D);
+        walletService.trade(builder.setBizId("40000").build());
+        walletService.trade(builder.setBizId("40001").build());
+
+        // when
+        val before = changeLogService.lastLogAt(1L, "CNY", 1L);
+        val now = changeLogService.lastLogAt(1L, "CNY", DateUtil.current());
+
+        // then
+        assertThat(before).isNull();
+        assertThat(now).isNotNull();
+        assertThat(now.getBizId()).isEqualTo("40001");
+        assertThat(now.getBalance()).isEqualTo(200000000L);
+        assertThat(now.getFrozen()).isZero();
+    }
+
+    @Test
+    void retried_trade_should_return_original_transaction() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(1L);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setBizSubject("deposit");
+        builder.setBizId("50000");
+        builder.setAmount(1D);
+        val transaction = walletService.trade(builder.build());
+
+        // when
+        val retried = idempotencyService.lookup(builder.build());
+        val unknown = idempotencyService.lookup(builder.setBizId("50001").build());
+
+        // then
+        assertThat(retried).isNotNull();
+        assertThat(retried.getId()).isEqualTo(transaction.getId());
+        assertThat(unknown).isNull();
+        assertThatThrownBy(() -> idempotencyService.lookup(builder.setBizId("50000").setAmount(2D).build()))
+            .hasMessage("duplicate trade");
+    }
+
+    @Test
+    void optimistic_trade_should_advance_chain_with_cas() {
+        // given: 乐观交易在独立事务中提交，不随测试事务回滚
+        val uid = 9001L;
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(uid);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setBizSubject("deposit");
+        builder.setAmount(1D);
+        try {
+            // when
+            walletService.tradeOptimistic(builder.setBizId("60000").build());
+            walletService.tradeOptimistic(builder.setBizId("60001").build());
+            val wallet = walletQueryService.readWallet(uid, "CNY");
+
+            // then
+            assertThat(wallet).isNotNull();
+            assertThat(wallet.getBalance()).isEqualTo(200000000L);
+            val lastLog = walletService.getLastLog(wallet);
+            assertThat(lastLog.getId()).isEqualTo(wallet.getLastLogId());
+            assertThat(lastLog.getBlock()).isEqualTo(wallet.getBlock());
+        }
+        finally {
+            val tx = new TransactionTemplate(transactionManager);
+            tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            tx.executeWithoutResult(status -> {
+                val jdbc = new JdbcTemplate(dataSource);
+                jdbc.update("DELETE FROM wallet_outlay_log WHERE uid = ?", uid);
+                jdbc.update("DELETE FROM wallet_transaction WHERE uid = ?", uid);
+                jdbc.update("DELETE FROM wallet_change_log WHERE uid = ?", uid);
+                jdbc.update("DELETE FROM wallet WHERE uid = ?", uid);
+            });
+        }
+    }
+
+    @Test
+    void sharded_wallet_should_spread_credits_and_aggregate_balance() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(9100L);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setAmount(1D);
+        for (int i = 0; i < 8; i++) {
+            walletService.trade(builder.setBizSubject("deposit").setBizId(String.valueOf(70000 + i)).build());
+        }
+
+        // when
+        walletService.trade(builder.setBizSubject("pay").setBizId("70100").setAmount(7D).build());
+        val wallet = walletQueryService.readWallet(9100L, "CNY");
+        val shards = walletQueryService.listShards(9100L, "CNY");
+
+        // then
+        assertThat(wallet).isNotNull();
+        assertThat(wallet.getShard()).isZero();
+        assertThat(wallet.getBalance()).isEqualTo(100000000L);
+        assertThat(wallet.getAmount()).isEqualTo(100000000L);
+        assertThat(shards.size()).isGreaterThan(1);
+        assertThat(shards.stream().mapToLong(Wallet::getBalance).sum()).isEqualTo(100000000L);
+        for (val shard : shards) {
+            val lastLog = walletService.getLastLog(shard);
+            assertThat(lastLog.getShard()).isEqualTo(shard.getShard());
+            assertThat(lastLog.getId()).isEqualTo(shard.getLastLogId());
+            assertThat(lastLog.getBlock()).isEqualTo(shard.getBlock());
+        }
+        assertThatThrownBy(() -> walletService.trade(builder.setBizSubject("withdraw").setBizId("70101").build()))
+            .isInstanceOf(WalletException.class);
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void consolidation_should_not_wait_for_batch_on_shared_stripes() throws Exception {
+        // given: 批量交易的两个钱包分别与9100的两个子钱包落在同一锁分段
+        val uid = 9100L;
+        val stripes = new TreeMap<Integer, Integer>();
+        for (int shard = 0; shard < 4; shard++) {
+            stripes.put(walletLockManager.stripeOf(uid, Wallet.lockKey("CNY", shard)), shard);
+        }
+        val low = collidingUid(stripes.firstKey(), 96000L);
+        val high = collidingUid(stripes.lastKey(), low + 1);
+        val builder = TradeDTO.newBuilder();
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setAmount(1D);
+        val timeouts = walletLockManager.getStats().timeouts();
+        try {
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 8; i++) {
+                    walletService.trade(builder.setUid(uid)
+                        .setBizSubject("deposit")
+                        .setBizId("91" + round + "0" + i)
+                        .build());
+                }
+                val pay = builder.setUid(uid).setBizSubject("pay").setBizId("91" + round + "99").setAmount(8D).build();
+                val batch = List.of(
+                        builder.setUid(low).setBizSubject("deposit").setBizId("92" + round + "0").setAmount(1D).build(),
+                        builder.setUid(high).setBizSubject("deposit").setBizId("92" + round + "1").build());
+                val start = new CountDownLatch(1);
+
+                // when: 归集与批量交易同时加锁
+                val consolidated = CompletableFuture.supplyAsync(() -> {
+                    await(start);
+                    return optimisticTradeService.tradeSharded(pay);
+                });
+                val batched = CompletableFuture.supplyAsync(() -> {
+                    await(start);
+                    return walletService.tradeBatch(batch);
+                });
+                start.countDown();
+
+                // then
+                assertThat(consolidated.get(30, TimeUnit.SECONDS)).isNotNull();
+                assertThat(batched.get(30, TimeUnit.SECONDS)).allMatch(TradeResult::isSuccess);
+            }
+            assertThat(walletLockManager.getStats().timeouts()).isEqualTo(timeouts);
+            assertThat(walletQueryService.readWallet(uid, "CNY").getBalance()).isZero();
+            assertThat(walletQueryService.readWallet(low, "CNY").getBalance()).isEqualTo(1000000000L);
+        }
+        finally {
+            val tx = new TransactionTemplate(transactionManager);
+            tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            tx.executeWithoutResult(status -> {
+                val jdbc = new JdbcTemplate(dataSource);
+                for (val id : List.of(uid, low, high)) {
+                    jdbc.update("DELETE FROM wallet_transaction WHERE uid = ?", id);
+                    jdbc.update("DELETE FROM wallet_change_log WHERE uid = ?", id);
+                    jdbc.update("DELETE FROM wallet WHERE uid = ?", id);
+                }
+            });
+        }
+    }
+
+    private long collidingUid(int stripe, long from) {
+        for (var uid = from;; uid++) {
+            if (walletLockManager.stripeOf(uid, "CNY") == stripe) {
+                return uid;
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void deferred_credits_should_be_journaled_and_folded_before_outlay() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(9200L);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setAmount(1D);
+        walletService.trade(builder.setBizSubject("deposit").setBizId("80000").build());
+        for (int i = 0; i < 3; i++) {
+            walletService.trade(builder.setBizSubject("reward").setBizId(String.valueOf(80001 + i)).build());
+        }
+        val pending = walletQueryService.readWallet(9200L, "CNY");
+
+        // when
+        walletService.trade(builder.setBizSubject("pay").setBizId("80100").setAmount(3D).build());
+        val wallet = walletQueryService.readWallet(9200L, "CNY");
+
+        // then
+        assertThat(pending).isNotNull();
+        assertThat(pending.getBalance()).isEqualTo(100000000L);
+        assertThat(wallet).isNotNull();
+        assertThat(wallet.getBalance()).isEqualTo(100000000L);
+        assertThat(creditJournalService.pending(9200L, "CNY", 10)).isEmpty();
+        assertThat(walletService.applyCredits(9200L, "CNY")).isZero();
+        val lastLog = walletService.getLastLog(wallet);
+        assertThat(lastLog.getId()).isEqualTo(wallet.getLastLogId());
+        assertThat(lastLog.getBlock()).isEqualTo(wallet.getBlock());
+    }
+
+    @Test
+    void sharded_trades_should_be_left_out_of_batch() {
+        // given
+        val builder = TradeDTO.newBuilder();
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setBizSubject("deposit");
+        val t1 = builder.setUid(9100L).setAmount(1D).setBizId("71000").build();
+        val t2 = builder.setUid(9101L).setAmount(1D).setBizId("71001").build();
+
+        // when
+        val results = walletService.tradeBatch(List.of(t1, t2));
+
+        // then
+        assertThat(results.get(0).isSuccess()).isFalse();
+        assertThat(results.get(0).error().code()).isEqualTo(WalletError.TRADE_NOT_ALLOWED.getCode());
+        assertThat(results.get(1).isSuccess()).isTrue();
+        assertThat(walletQueryService.listShards(9100L, "CNY")).isEmpty();
+    }
+
+    @Test
+    void deferred_credits_to_locked_wallet_should_be_rejected() {
+        // given
+        val wallet = walletService.openWallet(9201L, "CNY");
+        wallet.setLocked(true);
+        walletService.updateById(wallet);
+        val builder = TradeDTO.newBuilder();
+        builder.setUid(9201L);
+        builder.setCurrency("CNY");
+        builder.setBiz("test");
+        builder.setBizSubject("reward");
+        builder.setAmount(1D);
+
+        // then
+        assertThatThrownBy(() -> walletService.trade(builder.setBizId("81000").build()))
+            .isInstanceOf(WalletException.class);
+        val results = walletService.tradeBatch(List.of(builder.setBizId("81001").build()));
+        assertThat(results.get(0).isSuccess()).isFalse();
+        assertThat(results.get(0).error().code()).isEqualTo(WalletError.LOCKED.getCode());
+        assertThat(creditJournalService.pending(9201L, "CNY", 10)).isEmpty();
+    }
+
 }
@@ -0,0 +1,209 @@
+package com.apzda.cloud.wallet.engine;
+
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.domain.vo.TradeResult;
+import com.apzda.cloud.wallet.error.WalletError;
+import com.apzda.cloud.wallet.exception.WalletException;
+import com.apzda.cloud.wallet.proto.TradeDTO;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class TradeEngineTest {
+
+    static TradeDTO trade(long uid, String bizId) {
+        return TradeDTO.newBuilder()
+            .setUid(uid)
+            .setCurrency("CNY")
+            .setBiz("test")
+            .setBizSubject("deposit")
+            .setBizId(bizId)
+            .setAmount(1D)
+            .build();
+    }
+
+    static Transaction transaction(TradeDTO tradeDTO) {
+        val transaction = new Transaction();
+        transaction.setUid(tradeDTO.getUid());
+        transaction.setBizId(tradeDTO.getBizId());
+        return transaction;
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<TradeResult> succeed(List<?> trades) {
+        val results = new ArrayList<TradeResult>();
+        for (int i = 0; i < trades.size(); i++) {
+            results.add(TradeResult.success(i, transaction(((List<TradeDTO>) trades).get(i))));
+        }
+        return results;
+    }
+
+    @Test
+    void futures_should_complete_after_batch_committed() throws Exception {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        val futures = new ArrayList<CompletableFuture<Transaction>>();
+        val doneDuringCommit = new ArrayList<Boolean>();
+        val entered = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        when(walletService.tradeBatch(anyList())).thenAnswer(invocation -> {
+            entered.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            // tradeBatch返回时事务才提交，此前不能通知调用方
+            synchronized (futures) {
+                futures.forEach(future -> doneDuringCommit.add(future.isDone()));
+            }
+            return succeed(invocation.getArgument(0));
+        });
+        val engine = new TradeEngine(walletService, 1, 100, 100, Duration.ofMillis(100));
+        engine.afterPropertiesSet();
+        try {
+            // when
+            synchronized (futures) {
+                futures.add(engine.submit(trade(1L, "1")));
+            }
+            entered.await(5, TimeUnit.SECONDS);
+            release.countDown();
+
+            // then
+            assertThat(futures.get(0).get(5, TimeUnit.SECONDS).getBizId()).isEqualTo("1");
+            assertThat(doneDuringCommit).containsOnly(false);
+        }
+        finally {
+            engine.destroy();
+        }
+    }
+
+    @Test
+    void failed_batch_should_fall_back_to_single_trades() throws Exception {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        val blocker = new CountDownLatch(1);
+        when(walletService.tradeBatch(anyList())).thenAnswer(invocation -> {
+            blocker.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("Cannot save transactions of batch trade");
+        });
+        when(walletService.trade(any())).thenAnswer(invocation -> {
+            TradeDTO tradeDTO = invocation.getArgument(0);
+            if (tradeDTO.getBizId().equals("bad")) {
+                throw new WalletException(WalletError.INSUFFICIENT_BALANCE, tradeDTO.getUid(), "CNY");
+            }
+            return transaction(tradeDTO);
+        });
+        val engine = new TradeEngine(walletService, 1, 100, 100, Duration.ofMillis(100));
+        engine.afterPropertiesSet();
+        try {
+            // when: 第一批阻塞期间积累的交易作为第二批一起提交
+            val first = engine.submit(trade(1L, "1"));
+            val good = engine.submit(trade(2L, "2"));
+            val bad = engine.submit(trade(3L, "bad"));
+            blocker.countDown();
+
+            // then
+            assertThat(first.get(5, TimeUnit.SECONDS).getBizId()).isEqualTo("1");
+            assertThat(good.get(5, TimeUnit.SECONDS).getBizId()).isEqualTo("2");
+            assertThatThrownBy(() -> bad.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(WalletException.class);
+            verify(walletService, times(3)).trade(any());
+        }
+        finally {
+            engine.destroy();
+        }
+    }
+
+    @Test
+    void full_queue_should_reject_with_server_busy() throws Exception {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        val blocker = new CountDownLatch(1);
+        when(walletService.tradeBatch(anyList())).thenAnswer(invocation -> {
+            blocker.await(5, TimeUnit.SECONDS);
+            return succeed(invocation.getArgument(0));
+        });
+        val engine = new TradeEngine(walletService, 1, 1, 1, Duration.ofMillis(10));
+        engine.afterPropertiesSet();
+        try {
+            // when
+            val futures = new ArrayList<CompletableFuture<Transaction>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(engine.submit(trade(1L, String.valueOf(i))));
+            }
+            blocker.countDown();
+
+            // then
+            val rejected = futures.stream().filter(CompletableFuture::isCompletedExceptionally).toList();
+            assertThat(rejected).isNotEmpty();
+            assertThatThrownBy(() -> rejected.get(0).join()).hasCauseInstanceOf(WalletException.class)
+                .satisfies(e -> assertThat(((WalletException) e.getCause()).getServiceError().code())
+                    .isEqualTo(WalletError.SERVER_BUSY.getCode()));
+        }
+        finally {
+            engine.destroy();
+        }
+    }
+
+    @Test
+    void shutdown_should_drain_queue() throws Exception {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        when(walletService.tradeBatch(anyList())).thenAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(20);
+            return succeed(invocation.getArgument(0));
+        });
+        val engine = new TradeEngine(walletService, 2, 100, 2, Duration.ofMillis(100));
+        engine.afterPropertiesSet();
+        val futures = new ArrayList<CompletableFuture<Transaction>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(engine.submit(trade(i, String.valueOf(i))));
+        }
+
+        // when
+        engine.destroy();
+
+        // then
+        assertThat(futures).allSatisfy(future -> assertThat(future).isCompleted());
+        assertThat(engine.submit(trade(1L, "late"))).isCompletedExceptionally();
+    }
+
+    @Test
+    void shutdown_timeout_should_fail_queued_trades() throws Exception {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        val blocker = new CountDownLatch(1);
+        when(walletService.tradeBatch(anyList())).thenAnswer(invocation -> {
+            blocker.await(5, TimeUnit.SECONDS);
+            return succeed(invocation.getArgument(0));
+        });
+        val engine = new TradeEngine(walletService, 1, 100, 1, Duration.ofMillis(100));
+        engine.afterPropertiesSet();
+        val first = engine.submit(trade(1L, "1"));
+        val queued = engine.submit(trade(1L, "2"));
+
+        // when
+        engine.destroy(Duration.ofMillis(100));
+        blocker.countDown();
+
+        // then
+        assertThatThrownBy(() -> queued.get(1, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(first.get(5, TimeUnit.SECONDS).getBizId()).isEqualTo("1");
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.apzda.cloud.wallet.expire;
+
+import com.apzda.cloud.wallet.domain.entity.Outlay;
+import com.apzda.cloud.wallet.domain.entity.Transaction;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import com.apzda.cloud.wallet.domain.service.OutlayService;
+import com.apzda.cloud.wallet.domain.service.WalletService;
+import com.apzda.cloud.wallet.domain.vo.WalletKey;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class ExpirySweeperTest {
+
+    static Outlay wallet(long uid, String currency) {
+        val outlay = new Outlay();
+        outlay.setUid(uid);
+        outlay.setCurrency(currency);
+        return outlay;
+    }
+
+    @Test
+    void checkpoint_should_round_trip() {
+        assertThat(ExpirySweeper.parse(null)).isNull();
+        assertThat(ExpirySweeper.parse(ExpirySweeper.format(new WalletKey(12L, "INT"))))
+            .isEqualTo(new WalletKey(12L, "INT"));
+    }
+
+    @Test
+    void partition_should_resume_from_checkpoint_and_reset_when_done() throws Exception {
+        // given
+        val walletService = Mockito.mock(WalletService.class);
+        val outlayService = Mockito.mock(OutlayService.class);
+        val checkpointService = Mockito.mock(JobCheckpointService.class);
+        when(checkpointService.load(ExpirySweeper.JOB, "1/4")).thenReturn("5:INT");
+        when(outlayService.expiredWallets(eq(1), eq(4), eq(new WalletKey(5L, "INT")), eq(100L), eq(2)))
+            .thenReturn(List.of(wallet(5L, "PT"), wallet(9L, "INT")));
+        when(outlayService.expiredWallets(eq(1), eq(4), eq(new WalletKey(9L, "INT")), eq(100L), eq(2)))
+            .thenReturn(List.of(wallet(13L, "INT")));
+        when(walletService.expire(anyLong(), anyString(), eq(100L), eq(10))).thenReturn(new Transaction());
+        when(walletService.expire(eq(9L), eq("INT"), eq(100L), eq(10))).thenThrow(new IllegalStateException());
+
+        val sweeper = new ExpirySweeper(walletService, outlayService, checkpointService, 4, 2, 2, 10,
+                Duration.ofDays(1));
+        sweeper.afterPropertiesSet();
+        try {
+            // when
+            val expired = sweeper.sweep(1, 100L);
+
+            // then
+            assertThat(expired).isEqualTo(2);
+            verify(checkpointService).store(ExpirySweeper.JOB, "1/4", "9:INT");
+            verify(checkpointService).store(ExpirySweeper.JOB, "1/4", null);
+            verify(walletService).expire(5L, "PT", 100L, 10);
+            verify(walletService).expire(13L, "INT", 100L, 10);
+        }
+        finally {
+            sweeper.destroy();
+        }
+    }
+
+}
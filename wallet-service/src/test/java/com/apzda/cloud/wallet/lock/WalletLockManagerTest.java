@@ -0,0 +1,84 @@
+package com.apzda.cloud.wallet.lock;
+
+import com.apzda.cloud.wallet.exception.WalletException;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class WalletLockManagerTest {
+
+    @Test
+    void stripes_should_be_power_of_two() {
+        // given
+        val manager = new WalletLockManager(1000, Duration.ofSeconds(1));
+
+        // then
+        assertThat(manager.getStripes()).isEqualTo(1024);
+        assertThat(manager.stripeOf(1L, "CNY")).isEqualTo(manager.stripeOf(1L, "CNY"));
+        assertThat(manager.stripeOf(1L, "CNY")).isBetween(0, 1023);
+    }
+
+    @Test
+    void lock_should_be_reentrant() {
+        // given
+        val manager = new WalletLockManager(16, Duration.ofSeconds(1));
+
+        // when
+        manager.lock(1L, "CNY");
+        manager.lock(1L, "CNY");
+
+        // then
+        assertThat(manager.isHeldByCurrentThread(1L, "CNY")).isTrue();
+        manager.unlock(1L, "CNY");
+        assertThat(manager.isHeldByCurrentThread(1L, "CNY")).isTrue();
+        manager.unlock(1L, "CNY");
+        assertThat(manager.isHeldByCurrentThread(1L, "CNY")).isFalse();
+        assertThat(manager.getStats().acquired()).isEqualTo(2L);
+        assertThat(manager.getStats().contended()).isEqualTo(0L);
+    }
+
+    @Test
+    void lock_should_timeout_when_wallet_is_busy() throws Exception {
+        // given
+        val manager = new WalletLockManager(16, Duration.ofMillis(50));
+        val locked = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val holder = CompletableFuture.runAsync(() -> {
+            manager.lock(1L, "CNY");
+            locked.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ignored) {
+            }
+            finally {
+                manager.unlock(1L, "CNY");
+            }
+        });
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // when
+        assertThatThrownBy(() -> manager.lock(1L, "CNY")).isInstanceOf(WalletException.class);
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+
+        // then
+        val stats = manager.getStats();
+        assertThat(stats.contended()).isEqualTo(1L);
+        assertThat(stats.timeouts()).isEqualTo(1L);
+        assertThat(stats.maxWaitNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+}
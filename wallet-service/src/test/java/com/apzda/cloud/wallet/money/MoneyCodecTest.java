@@ -0,0 +1,96 @@
+package com.apzda.cloud.wallet.money;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class MoneyCodecTest {
+
+    static long legacy(double amount, int precision) {
+        return BigDecimal.valueOf(amount).movePointRight(precision).toBigInteger().longValue();
+    }
+
+    @Test
+    void minor_units_should_round_trip_exhaustively() {
+        for (int p = 0; p <= 8; p++) {
+            // given
+            val codec = MoneyCodec.of(p);
+            for (long n = -200_000; n <= 200_000; n++) {
+                // when
+                val d = codec.toDouble(n);
+                // then
+                assertThat(codec.toMinor(d)).as("p=%d n=%d", p, n).isEqualTo(n);
+                assertThat(legacy(d, p)).as("p=%d n=%d", p, n).isEqualTo(n);
+                assertThat(codec.toMinor(codec.toPlainString(n))).isEqualTo(n);
+            }
+        }
+    }
+
+    @Test
+    void large_minor_units_should_round_trip() {
+        // given
+        val codec = MoneyCodec.of(8);
+        val random = new Random(20241018L);
+        for (int i = 0; i < 1_000_000; i++) {
+            val n = random.nextLong() % (1L << 52);
+            // when
+            val d = codec.toDouble(n);
+            // then
+            assertThat(d).isEqualTo(BigDecimal.valueOf(n, 8).doubleValue());
+            assertThat(codec.toMinor(codec.toPlainString(n))).isEqualTo(n);
+        }
+    }
+
+    @Test
+    void arbitrary_doubles_should_truncate_like_legacy() {
+        val random = new Random(1018L);
+        for (int p = 0; p <= 8; p++) {
+            // given
+            val codec = MoneyCodec.of(p);
+            for (int i = 0; i < 200_000; i++) {
+                val d = (random.nextDouble() - 0.5) * 2e6;
+                // when
+                val minor = codec.toMinor(d);
+                // then
+                assertThat(minor).as("p=%d d=%s", p, d).isEqualTo(legacy(d, p));
+            }
+        }
+    }
+
+    @Test
+    void typical_amounts_should_be_exact() {
+        // given
+        val codec = MoneyCodec.of(8);
+        // when
+        // then
+        assertThat(codec.toMinor(10.25)).isEqualTo(1025000000L);
+        assertThat(codec.toMinor(0.1 + 0.2)).isEqualTo(30000000L);
+        assertThat(codec.toMinor(0.00000001)).isEqualTo(1L);
+        assertThat(codec.toDouble(1025000100L)).isEqualTo(10.250001d);
+        assertThat(codec.toPlainString(1025000100L)).isEqualTo("10.25000100");
+        assertThat(codec.toMinor("10.250001")).isEqualTo(1025000100L);
+        assertThat(MoneyCodec.of(0).toMinor(15.99)).isEqualTo(15L);
+    }
+
+    @Test
+    void invalid_amounts_should_be_rejected() {
+        val codec = MoneyCodec.of(2);
+        assertThatThrownBy(() -> codec.toMinor(Double.NaN)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> codec.toMinor(Double.POSITIVE_INFINITY)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> codec.toMinor(1e300)).isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> codec.toMinor("1.001")).isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> codec.toMinor("abc")).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> MoneyCodec.of(19)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
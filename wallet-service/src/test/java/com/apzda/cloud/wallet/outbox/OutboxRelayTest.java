@@ -0,0 +1,185 @@
+package com.apzda.cloud.wallet.outbox;
+
+import com.apzda.cloud.wallet.domain.entity.WalletOutbox;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import com.apzda.cloud.wallet.domain.service.OutboxService;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.apzda.cloud.wallet.outbox.OutboxSinkTest.event;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class OutboxRelayTest {
+
+    /**
+     * 以内存变量模拟检查点表.
+     */
+    static JobCheckpointService checkpoints(AtomicReference<String> value) {
+        val checkpointService = Mockito.mock(JobCheckpointService.class);
+        when(checkpointService.load(OutboxRelay.JOB, OutboxRelay.PART_KEY)).thenAnswer(inv -> value.get());
+        doAnswer(inv -> {
+            value.set(inv.getArgument(2));
+            return null;
+        }).when(checkpointService).store(eq(OutboxRelay.JOB), eq(OutboxRelay.PART_KEY), any());
+        when(checkpointService.compareAndStore(eq(OutboxRelay.JOB), eq(OutboxRelay.PART_KEY), anyString(),
+                anyString()))
+            .thenAnswer(inv -> value.compareAndSet(inv.getArgument(2), inv.getArgument(3)));
+        return checkpointService;
+    }
+
+    static OutboxRelay relay(OutboxService outboxService, JobCheckpointService checkpointService,
+            List<OutboxSink> sinks) {
+        val relay = new OutboxRelay(outboxService, checkpointService, sinks, 2, Duration.ofMillis(500),
+                Duration.ofMinutes(5), Duration.ofHours(1), Duration.ofDays(1));
+        relay.afterPropertiesSet();
+        return relay;
+    }
+
+    static Collection<Long> ids(Long... ids) {
+        return argThat(arg -> arg != null && List.copyOf(arg).equals(List.of(ids)));
+    }
+
+    @Test
+    void checkpoint_should_advance_batch_by_batch() throws Exception {
+        // given
+        val checkpoint = new AtomicReference<String>();
+        val outboxService = Mockito.mock(OutboxService.class);
+        when(outboxService.listAfter(0L, 2)).thenReturn(List.of(event(1, "a"), event(2, "b")));
+        when(outboxService.listAfter(2L, 2)).thenReturn(List.of(event(3, "c")));
+        when(outboxService.listAfter(3L, 2)).thenReturn(List.of());
+        val received = new ArrayList<WalletOutbox>();
+        val relay = relay(outboxService, checkpoints(checkpoint), List.of(received::addAll));
+        try {
+            // when
+            val total = relay.relay();
+
+            // then
+            assertThat(total).isEqualTo(3);
+            assertThat(checkpoint.get()).isEqualTo("3");
+            assertThat(received).extracting(WalletOutbox::getId).containsExactly(1L, 2L, 3L);
+            verify(outboxService).purge(eq(3L), anyLong(), anyInt());
+        }
+        finally {
+            relay.destroy();
+        }
+    }
+
+    @Test
+    void failing_sink_should_keep_checkpoint_and_events_should_be_redelivered() throws Exception {
+        // given
+        val checkpoint = new AtomicReference<>("0");
+        val outboxService = Mockito.mock(OutboxService.class);
+        when(outboxService.listAfter(0L, 2)).thenReturn(List.of(event(1, "a"), event(2, "b")));
+        when(outboxService.listAfter(2L, 2)).thenReturn(List.of());
+        val first = new ArrayList<WalletOutbox>();
+        val second = Mockito.mock(OutboxSink.class);
+        doThrow(new IllegalStateException("broker is down")).doNothing().when(second).publish(anyList());
+        val relay = relay(outboxService, checkpoints(checkpoint), List.of(first::addAll, second));
+        try {
+            // when
+            assertThatThrownBy(relay::relay).isInstanceOf(IllegalStateException.class);
+            val afterFailure = checkpoint.get();
+            val total = relay.relay();
+
+            // then
+            assertThat(afterFailure).isEqualTo("0");
+            assertThat(total).isEqualTo(2);
+            assertThat(checkpoint.get()).isEqualTo("2");
+            assertThat(first).extracting(WalletOutbox::getId).containsExactly(1L, 2L, 1L, 2L);
+            verify(second, times(2)).publish(anyList());
+        }
+        finally {
+            relay.destroy();
+        }
+    }
+
+    @Test
+    void late_committed_event_should_be_delivered_from_gap() throws Exception {
+        // given: 事件2所在事务提交晚于事件3
+        val checkpoint = new AtomicReference<>("1");
+        val outboxService = Mockito.mock(OutboxService.class);
+        when(outboxService.listAfter(1L, 2)).thenReturn(List.of(event(3, "c")));
+        when(outboxService.listAfter(3L, 2)).thenReturn(List.of());
+        when(outboxService.listByIds(ids(2L))).thenReturn(List.of(event(2, "b")));
+        val received = new ArrayList<WalletOutbox>();
+        val relay = relay(outboxService, checkpoints(checkpoint), List.of(received::addAll));
+        try {
+            // when
+            relay.relay();
+            val withGap = checkpoint.get();
+            relay.relay();
+
+            // then
+            assertThat(withGap).startsWith("3;2:");
+            assertThat(checkpoint.get()).isEqualTo("3");
+            assertThat(received).extracting(WalletOutbox::getId).containsExactly(3L, 2L);
+        }
+        finally {
+            relay.destroy();
+        }
+    }
+
+    @Test
+    void expired_gap_should_be_given_up() throws Exception {
+        // given: 事件2所在事务已回滚
+        val checkpoint = new AtomicReference<>("3;2:1");
+        val outboxService = Mockito.mock(OutboxService.class);
+        when(outboxService.listAfter(3L, 2)).thenReturn(List.of());
+        when(outboxService.listByIds(ids(2L))).thenReturn(List.of());
+        val relay = relay(outboxService, checkpoints(checkpoint), List.of(events -> {
+        }));
+        try {
+            // when
+            val total = relay.relay();
+
+            // then
+            assertThat(total).isZero();
+            assertThat(checkpoint.get()).isEqualTo("3");
+        }
+        finally {
+            relay.destroy();
+        }
+    }
+
+    @Test
+    void lost_checkpoint_race_should_stop_the_round() throws Exception {
+        // given
+        val checkpoint = new AtomicReference<>("0");
+        val outboxService = Mockito.mock(OutboxService.class);
+        when(outboxService.listAfter(0L, 2)).thenReturn(List.of(event(1, "a")));
+        val received = new ArrayList<WalletOutbox>();
+        val relay = relay(outboxService, checkpoints(checkpoint), List.of(events -> {
+            received.addAll(events);
+            checkpoint.set("5");
+        }));
+        try {
+            // when
+            val total = relay.relay();
+
+            // then
+            assertThat(total).isZero();
+            assertThat(checkpoint.get()).isEqualTo("5");
+            verify(outboxService, never()).listAfter(eq(1L), anyInt());
+            assertThat(received).extracting(WalletOutbox::getId).containsExactly(1L);
+        }
+        finally {
+            relay.destroy();
+        }
+    }
+
+}
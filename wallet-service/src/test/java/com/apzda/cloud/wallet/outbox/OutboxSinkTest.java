@@ -0,0 +1,84 @@
+package com.apzda.cloud.wallet.outbox;
+
+import com.apzda.cloud.wallet.domain.entity.WalletOutbox;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class OutboxSinkTest {
+
+    static WalletOutbox event(long id, String bizId) {
+        val event = new WalletOutbox();
+        event.setId(id);
+        event.setCreatedAt(1710000000000L + id);
+        event.setUid(1L);
+        event.setCurrency("CNY");
+        event.setLogId(100L + id);
+        event.setTransactionId(200L + id);
+        event.setBiz("test");
+        event.setBizSubject("deposit");
+        event.setBizId(bizId);
+        event.setAmount(100L);
+        event.setBalance(100L * id);
+        event.setFrozen(0L);
+        return event;
+    }
+
+    @Test
+    void in_process_sink_should_deliver_to_subscribers() {
+        // given
+        val sink = new InProcessSink();
+        val received = new ArrayList<WalletOutbox>();
+        val cancel = sink.subscribe(received::addAll);
+
+        // when
+        sink.publish(List.of(event(1, "a"), event(2, "b")));
+        cancel.run();
+        sink.publish(List.of(event(3, "c")));
+
+        // then
+        assertThat(received).extracting(WalletOutbox::getId).containsExactly(1L, 2L);
+    }
+
+    @Test
+    void file_sink_should_append_lines(@TempDir Path dir) throws Exception {
+        // given
+        val file = dir.resolve("outbox/events.csv");
+        val sink = new FileSink(file);
+
+        // when
+        sink.publish(List.of(event(1, "a")));
+        sink.publish(List.of(event(2, "b,c")));
+
+        // then
+        val lines = Files.readAllLines(file);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).isEqualTo("1,1710000000001,1,CNY,101,201,test,deposit,a,100,100,0,false");
+        assertThat(lines.get(1)).contains(",\"b,c\",");
+    }
+
+    @Test
+    void unsettled_events_should_wait_for_next_round() {
+        // given
+        val events = List.of(event(1, "a"), event(2, "b"), event(3, "c"));
+
+        // when
+        val settled = OutboxRelay.settled(events, 1710000000002L);
+
+        // then
+        assertThat(settled).extracting(WalletOutbox::getId).containsExactly(1L, 2L);
+    }
+
+}
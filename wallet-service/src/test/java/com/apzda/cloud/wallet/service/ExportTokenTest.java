@@ -0,0 +1,36 @@
+package com.apzda.cloud.wallet.service;
+
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class ExportTokenTest {
+
+    @Test
+    void token_should_round_trip() {
+        // given
+        val token = new ExportToken(1, 1785432198765432101L, 1785432198765439999L);
+
+        // when
+        val decoded = ExportToken.decode(token.encode());
+
+        // then
+        assertThat(decoded).isEqualTo(token);
+        assertThat(decoded.isDone()).isFalse();
+        assertThat(decoded.next(1785432198765439999L).isDone()).isTrue();
+    }
+
+    @Test
+    void invalid_token_should_be_rejected() {
+        assertThatThrownBy(() -> ExportToken.decode("abc")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ExportToken.decode("!!")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.apzda.cloud.wallet.stat;
+
+import com.apzda.cloud.wallet.domain.entity.ChangeLog;
+import com.apzda.cloud.wallet.domain.service.ChangeLogService;
+import com.apzda.cloud.wallet.domain.service.DailyStatService;
+import com.apzda.cloud.wallet.domain.service.JobCheckpointService;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author fengz (windywany@gmail.com)
+ * @version 1.0.0
+ * @since 1.0.0
+ **/
+class DailyStatAggregatorTest {
+
+    static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    static ChangeLog changeLog(long id) {
+        val changeLog = new ChangeLog();
+        changeLog.setId(id);
+        changeLog.setCreatedAt(1L);
+        return changeLog;
+    }
+
+    /**
+     * 以内存变量模拟检查点表，汇总时记录每批日志的ID.
+     */
+    static DailyStatAggregator aggregator(ChangeLogService changeLogService, AtomicReference<String> checkpoint,
+            List<List<Long>> folded) {
+        val checkpointService = Mockito.mock(JobCheckpointService.class);
+        when(checkpointService.load(DailyStatAggregator.JOB, DailyStatAggregator.PART_KEY))
+            .thenAnswer(inv -> checkpoint.get());
+        when(checkpointService.compareAndStore(eq(DailyStatAggregator.JOB), eq(DailyStatAggregator.PART_KEY),
+                anyString(), anyString()))
+            .thenAnswer(inv -> checkpoint.compareAndSet(inv.getArgument(2), inv.getArgument(3)));
+        val dailyStatService = Mockito.mock(DailyStatService.class);
+        doAnswer(inv -> {
+            if (!checkpoint.compareAndSet(inv.getArgument(4), inv.getArgument(5))) {
+                throw new IllegalStateException("Checkpoint had been moved");
+            }
+            List<ChangeLog> logs = inv.getArgument(0);
+            folded.add(logs.stream().map(ChangeLog::getId).toList());
+            return null;
+        }).when(dailyStatService)
+            .apply(anyList(), eq(ZONE), eq(DailyStatAggregator.JOB), eq(DailyStatAggregator.PART_KEY), anyString(),
+                    anyString());
+        val aggregator = new DailyStatAggregator(changeLogService, dailyStatService, checkpointService, 2,
+                Duration.ofSeconds(10), Duration.ofMinutes(5), Duration.ofHours(1), ZONE);
+        aggregator.afterPropertiesSet();
+        return aggregator;
+    }
+
+    static Collection<Long> ids(Long... ids) {
+        return argThat(arg -> arg != null && List.copyOf(arg).equals(List.of(ids)));
+    }
+
+    @Test
+    void late_committed_log_should_be_folded_from_gap() {
+        // given: 日志2所在事务提交晚于日志3
+        val checkpoint = new AtomicReference<>("1");
+        val changeLogService = Mockito.mock(ChangeLogService.class);
+        when(changeLogService.listAfter(1L, Long.MAX_VALUE, 2)).thenReturn(List.of(changeLog(3)));
+        when(changeLogService.listAfter(3L, Long.MAX_VALUE, 2)).thenReturn(List.of());
+        when(changeLogService.listByIds(ids(2L))).thenReturn(List.of(changeLog(2)));
+        val folded = new ArrayList<List<Long>>();
+        val aggregator = aggregator(changeLogService, checkpoint, folded);
+        try {
+            // when
+            val first = aggregator.aggregate();
+            val withGap = checkpoint.get();
+            val second = aggregator.aggregate();
+
+            // then
+            assertThat(first).isEqualTo(1);
+            assertThat(withGap).startsWith("3;2:");
+            assertThat(second).isEqualTo(1);
+            assertThat(checkpoint.get()).isEqualTo("3");
+            assertThat(folded).containsExactly(List.of(3L), List.of(2L));
+        }
+        finally {
+            aggregator.destroy();
+        }
+    }
+
+    @Test
+    void expired_gap_should_be_given_up() {
+        // given: 日志2所在事务已回滚
+        val checkpoint = new AtomicReference<>("3;2:1");
+        val changeLogService = Mockito.mock(ChangeLogService.class);
+        when(changeLogService.listAfter(3L, Long.MAX_VALUE, 2)).thenReturn(List.of());
+        when(changeLogService.listByIds(ids(2L))).thenReturn(List.of());
+        val folded = new ArrayList<List<Long>>();
+        val aggregator = aggregator(changeLogService, checkpoint, folded);
+        try {
+            // when
+            val total = aggregator.aggregate();
+
+            // then
+            assertThat(total).isZero();
+            assertThat(checkpoint.get()).isEqualTo("3");
+            assertThat(folded).isEmpty();
+        }
+        finally {
+            aggregator.destroy();
+        }
+    }
+
+    @Test
+    void backfill_should_not_track_gaps_before_first_log() {
+        // given
+        val checkpoint = new AtomicReference<>("0");
+        val changeLogService = Mockito.mock(ChangeLogService.class);
+        when(changeLogService.listAfter(0L, Long.MAX_VALUE, 2)).thenReturn(List.of(changeLog(5), changeLog(6)));
+        when(changeLogService.listAfter(6L, Long.MAX_VALUE, 2)).thenReturn(List.of());
+        val folded = new ArrayList<List<Long>>();
+        val aggregator = aggregator(changeLogService, checkpoint, folded);
+        try {
+            // when
+            val total = aggregator.aggregate();
+
+            // then
+            assertThat(total).isEqualTo(2);
+            assertThat(checkpoint.get()).isEqualTo("6");
+            verify(changeLogService, never()).listByIds(any());
+        }
+        finally {
+            aggregator.destroy();
+        }
+    }
+
+}